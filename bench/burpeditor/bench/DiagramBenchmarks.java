@@ -0,0 +1,139 @@
+package burpeditor.bench;
+
+import burpeditor.canvas.DrawingPanel;
+import burpeditor.export.ExportProgress;
+import burpeditor.export.ExportUtils;
+import burpeditor.export.PDFExporter;
+import burpeditor.export.PNGExporter;
+import burpeditor.model.DiagramModel;
+import burpeditor.render.DiagramRenderer;
+import burpeditor.render.IconCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export and paint paths over diagrams of 100, 10k and 100k devices. The
+ * raster benchmarks work on the diagram's top-left {@link #IMAGE_SIZE}
+ * pixels, since a 100k-device diagram as one image would not fit the heap;
+ * the tiled PNG and vector PDF exports cover the whole diagram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DiagramBenchmarks {
+    private static final int IMAGE_SIZE = 2048;
+    // A typical Burp tab
+    private static final Dimension VIEW = new Dimension(1600, 1000);
+
+    @Param({ "100", "10000", "100000" })
+    public int elements;
+
+    private DiagramModel model;
+    private Dimension diagramSize;
+    private IconCache icons;
+    private DiagramRenderer renderer;
+    private BufferedImage image;
+    private DrawingPanel panel;
+    private DrawingPanel zoomedOut;
+    private BufferedImage view;
+    private File out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        model = Synthetic.diagram(elements);
+        diagramSize = DrawingPanel.getDiagramSize(model);
+        icons = Synthetic.icons();
+        renderer = new DiagramRenderer(icons);
+
+        image = new BufferedImage(Math.min(IMAGE_SIZE, diagramSize.width), Math.min(IMAGE_SIZE, diagramSize.height),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        renderer.paint(g, model, new Rectangle(image.getWidth(), image.getHeight()), 1.0);
+        g.dispose();
+
+        panel = new DrawingPanel(model, renderer);
+        panel.setSize(VIEW);
+        zoomedOut = new DrawingPanel(model, renderer);
+        zoomedOut.setSize(VIEW);
+        // Whole diagram in view, where level of detail decides the cost
+        zoomedOut.setScale(Math.min((double) VIEW.width / diagramSize.width, (double) VIEW.height / diagramSize.height),
+                new Point(0, 0));
+        view = new BufferedImage(VIEW.width, VIEW.height, BufferedImage.TYPE_INT_ARGB);
+
+        out = File.createTempFile("schematics-bench", "");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(out.getPath() + ".png").delete();
+        new File(out.getPath() + ".pdf").delete();
+        out.delete();
+    }
+
+    @Benchmark
+    public byte[] convertToByteArray() {
+        return ExportUtils.convertToByteArray(image, "PNG");
+    }
+
+    @Benchmark
+    public boolean exportToPNG() {
+        return PNGExporter.exportToPNG(image, new File(out.getPath() + ".png"));
+    }
+
+    @Benchmark
+    public File exportTiledPNG() throws IOException {
+        return PNGExporter.exportTiled(diagramSize.width, diagramSize.height,
+                (g, area) -> renderer.paint(g, model, area, 1.0), new File(out.getPath() + ".png"), ExportProgress.NONE);
+    }
+
+    @Benchmark
+    public File exportToPDF() throws Exception {
+        return PDFExporter.exportToPDF(model, diagramSize, icons, "<p>Notes</p>", "Notes",
+                new File(out.getPath() + ".pdf"), ExportProgress.NONE);
+    }
+
+    @Benchmark
+    public BufferedImage paintComponent() {
+        return paint(panel);
+    }
+
+    @Benchmark
+    public BufferedImage paintComponentZoomedOut() {
+        return paint(zoomedOut);
+    }
+
+    private BufferedImage paint(DrawingPanel target) {
+        Graphics2D g = view.createGraphics();
+        try {
+            target.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return view;
+    }
+}
@@ -0,0 +1,91 @@
+package burpeditor.bench;
+
+import burpeditor.canvas.DrawingPanel;
+import burpeditor.export.ExportProgress;
+import burpeditor.export.PDFExporter;
+import burpeditor.export.XhtmlSanitizer;
+import burpeditor.model.DiagramModel;
+import burpeditor.render.IconCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import javax.swing.SwingUtilities;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notes handling from 1 KB to 10 MB of HTML: sanitizing for XMLWorker (what
+ * {@code PDFExporter.cleanHtmlContent} does) and the PDF export of the
+ * notes, both from a string and streamed from an editor document, next to
+ * a small diagram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class NotesBenchmarks {
+    @Param({ "1024", "102400", "1048576", "10485760" })
+    public int notesBytes;
+
+    private String notesHtml;
+    private HTMLDocument notes;
+    private HTMLEditorKit kit;
+    private DiagramModel model;
+    private Dimension diagramSize;
+    private IconCache icons;
+    private File out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        notesHtml = Synthetic.notesHtml(notesBytes);
+        SwingUtilities.invokeAndWait(() -> {
+            kit = new HTMLEditorKit();
+            notes = (HTMLDocument) kit.createDefaultDocument();
+            try {
+                kit.read(new StringReader(notesHtml), notes, 0);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        model = Synthetic.diagram(100);
+        diagramSize = DrawingPanel.getDiagramSize(model);
+        icons = Synthetic.icons();
+        out = File.createTempFile("schematics-bench", ".pdf");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        out.delete();
+    }
+
+    @Benchmark
+    public String cleanHtmlContent() {
+        return XhtmlSanitizer.sanitize(notesHtml);
+    }
+
+    @Benchmark
+    public File exportToPDF() throws Exception {
+        return PDFExporter.exportToPDF(model, diagramSize, icons, notesHtml, "", out, ExportProgress.NONE);
+    }
+
+    @Benchmark
+    public File exportToPDFStreamed() throws Exception {
+        return PDFExporter.exportToPDF(model, diagramSize, icons, notes, kit, out, ExportProgress.NONE);
+    }
+}
@@ -0,0 +1,84 @@
+package burpeditor.bench;
+
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Node;
+import burpeditor.render.IconCache;
+import burpeditor.render.IconLoader;
+
+/**
+ * Inputs shared by the benchmarks: diagrams laid out on a grid and notes of
+ * a given size, built the same way on every run so results compare.
+ */
+final class Synthetic {
+    private static final String[] ICONS = { "Server", "cloud", "firewall", "database", "laptop", "Router" };
+    private static final int SPACING = Node.SIZE * 2;
+
+    private Synthetic() {
+    }
+
+    /**
+     * Returns a diagram of {@code elements} devices on a square grid, each
+     * connected to its left neighbour and every fourth also to the one above,
+     * so about 1.25 lines per device. Lines are straight, as before routing.
+     */
+    static DiagramModel diagram(int elements) {
+        DiagramModel model = new DiagramModel();
+        int columns = Math.max(1, (int) Math.sqrt(elements));
+        Node[] previousRow = new Node[columns];
+        Node left = null;
+        for (int i = 0; i < elements; i++) {
+            int column = i % columns;
+            Node node = model.addNode(ICONS[i % ICONS.length], column * SPACING, i / columns * SPACING);
+            if (column > 0) {
+                model.connect(left, node);
+            }
+            if (previousRow[column] != null && i % 4 == 0) {
+                model.connect(previousRow[column], node);
+            }
+            previousRow[column] = node;
+            left = node;
+        }
+        return model;
+    }
+
+    /**
+     * Returns an icon cache with the icons the synthetic diagrams use,
+     * decoded from the extension's resources.
+     */
+    static IconCache icons() {
+        IconCache icons = new IconCache();
+        IconLoader loader = new IconLoader("/icons/", icons);
+        try {
+            for (String icon : ICONS) {
+                loader.loadNow(icon + ".png");
+            }
+        } finally {
+            loader.shutdown();
+        }
+        return icons;
+    }
+
+    /**
+     * Returns editor-style notes of about {@code bytes} characters: headings,
+     * formatted paragraphs, entities and the odd table, as the notes pane
+     * writes them.
+     */
+    static String notesHtml(int bytes) {
+        StringBuilder html = new StringBuilder(bytes + 256);
+        html.append("<html>\n  <head>\n    <style type=\"text/css\">p { margin-top: 0 }</style>\n  </head>\n  <body>\n");
+        for (int i = 0; html.length() < bytes; i++) {
+            if (i % 20 == 0) {
+                html.append("    <h2>Finding ").append(i / 20).append("</h2>\n");
+            }
+            if (i % 50 == 49) {
+                html.append("    <table border=\"1\"><tr><td>Host</td><td>10.0.0.").append(i % 255)
+                        .append("</td></tr><tr><td>Port</td><td>443</td></tr></table>\n");
+            }
+            html.append("    <p style=\"margin-top: 0\">\n      Request ").append(i)
+                    .append(" to <b>/api/users?id=").append(i).append("&amp;role=admin</b> returned ")
+                    .append("<font color=\"#ff0000\">500</font> &nbsp;&mdash; <i>see attached evidence</i><br>\n")
+                    .append("    </p>\n");
+        }
+        return html.append("  </body>\n</html>\n").toString();
+    }
+}
@@ -2,9 +2,15 @@ package burpeditor;
 
 import burp.IBurpExtender;
 import burp.IBurpExtenderCallbacks;
+import burp.IExtensionStateListener;
+import burp.IHttpRequestResponse;
 import burp.ITab;
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.text.*;
 import javax.swing.text.html.HTMLEditorKit;
@@ -16,18 +22,40 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.*;
 import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.JColorChooser;
+import javax.swing.text.html.CSS;
 import javax.swing.text.html.HTML;
 
+import burpeditor.canvas.DrawingPanel;
+import burpeditor.export.ExportProgress;
 import burpeditor.export.PDFExporter;
 import burpeditor.export.PNGExporter;
-
-public class BurpExtender implements IBurpExtender, ITab {
+import burpeditor.export.TilePainter;
+import burpeditor.history.UndoHistory;
+import burpeditor.io.Journal;
+import burpeditor.io.Project;
+import burpeditor.io.ProjectFile;
+import burpeditor.layout.LayoutEngine;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Node;
+import burpeditor.render.DiagramRenderer;
+import burpeditor.render.IconAtlas;
+import burpeditor.render.IconCache;
+import burpeditor.render.IconLoader;
+import burpeditor.routing.EdgeRouter;
+import burpeditor.sitemap.SiteMapImporter;
+import burpeditor.sitemap.SiteTopology;
+import burpeditor.traffic.TrafficMonitor;
+
+public class BurpExtender implements IBurpExtender, ITab, IExtensionStateListener {
     private JPanel mainPanel;
     private JTextPane textPane;
     private IBurpExtenderCallbacks callbacks;
-    private Map<String, BufferedImage> iconCache = new HashMap<>();
+    private final IconCache iconCache = new IconCache();
     private JToggleButton toggleButton;
     private JPanel iconPanel;
     private JComboBox<String> fontSizeCombo;
@@ -36,13 +64,35 @@ public class BurpExtender implements IBurpExtender, ITab {
     private JSpinner colsSpinner;
     private JButton drawLineButton;
     private DrawingPanel drawingPanel;
-    private Point lineStartPoint;
+    private final DiagramModel diagramModel = new DiagramModel();
+    private final UndoHistory history = new UndoHistory(diagramModel);
+    private final EdgeRouter edgeRouter = new EdgeRouter(diagramModel);
+    private final LayoutEngine layoutEngine = new LayoutEngine(diagramModel);
+    private final SiteTopology siteTopology = new SiteTopology(diagramModel);
+    private TrafficMonitor trafficMonitor;
+    private final DiagramRenderer diagramRenderer = new DiagramRenderer(iconCache);
+    private final IconLoader iconLoader = new IconLoader("/icons/", iconCache);
+    private final IconAtlas paletteIcons = new IconAtlas(Node.SIZE);
+    private final IconAtlas toolbarIcons = new IconAtlas(16);
+    private final Map<Integer, List<AbstractButton>> toolbarIconButtons = new HashMap<>();
+    private static final String ICON_FALLBACK_TEXT = "schematics.iconFallbackText";
     private boolean isDrawingLine = false;
-    private DraggableIcon draggedIcon = null;
-    private static final int DEFAULT_FONT_SIZE = 12;
-    private static final int MIN_FONT_SIZE = 8;
-    private static final int MAX_FONT_SIZE = 36;
-    private static final int FONT_ZOOM_INCREMENT = 1;
+    private File projectFile;
+    private static final String PROJECT_FILE_SETTING = "schematics.projectFile";
+    private final Journal journal = new Journal(
+            new File(System.getProperty("user.home"), ".burp-schematics"), diagramModel);
+    private javax.swing.Timer notesAutosaveTimer;
+    private static final int NOTES_AUTOSAVE_DELAY = 1000;
+    // Scales offered for printing a large diagram as a poster
+    private static final float[] POSTER_SCALES = {0.5f, 1f, 2f};
+    // PDF exports queued or running, and whether the notes were editable before the first
+    private int pdfExports;
+    private boolean notesEditable;
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Schematics export");
+        t.setDaemon(true);
+        return t;
+    });
     
 
     private final String[] iconNames = { "Building.png", "cloud.png", "Cloud2.png", "CloudError.png", "cluster.png",
@@ -59,199 +109,14 @@ public class BurpExtender implements IBurpExtender, ITab {
     public void registerExtenderCallbacks(IBurpExtenderCallbacks callbacks) {
         this.callbacks = callbacks;
         callbacks.setExtensionName("Network Schematics Editor");
+        callbacks.registerExtensionStateListener(this);
+        edgeRouter.setFailureListener(callbacks::printError);
         SwingUtilities.invokeLater(() -> {
             initializeUI();
             callbacks.addSuiteTab(BurpExtender.this);
         });
     }
 
-    class DrawingPanel extends JPanel {
-    	
-    	
-    	private double scale = 1.0;
-        private List<Line> lines = new ArrayList<>();
-        private Line currentLine;
-        private List<DraggableIcon> icons = new ArrayList<>();
-        
-        public void setScale(double scale) {
-            this.scale = scale;
-            for (Component c : getComponents()) {
-                if (c instanceof DraggableIcon) {
-                    // Scale icon positions
-                    Point pos = c.getLocation();
-                    c.setLocation(
-                        (int)(pos.x * scale),
-                        (int)(pos.y * scale)
-                    );
-                    c.setSize(
-                        (int)(48 * scale),
-                        (int)(48 * scale)
-                    );
-                }
-            }
-        }
-
-        @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2d = (Graphics2D)g.create();
-            
-            // Apply scaling transform
-            g2d.scale(scale, scale);
-            
-            // Draw all lines with scaling
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2d.setColor(Color.BLUE);
-            g2d.setStroke(new BasicStroke((float)(2/scale))); // Adjust stroke width for zoom
-            
-            for (Line line : lines) {
-                g2d.drawLine(line.x1, line.y1, line.x2, line.y2);
-            }
-
-            if (currentLine != null) {
-                g2d.drawLine(currentLine.x1, currentLine.y1, currentLine.x2, currentLine.y2);
-            }
-            
-            g2d.dispose();
-        }
-
-        @Override
-        public Dimension getPreferredSize() {
-            // Calculate size needed for all components at current zoom
-            int width = 800; // Base width
-            int height = 600; // Base height
-            
-            // Account for icon positions
-            for (Component c : getComponents()) {
-                Rectangle bounds = c.getBounds();
-                width = Math.max(width, bounds.x + bounds.width);
-                height = Math.max(height, bounds.y + bounds.height);
-            }
-            
-            return new Dimension(
-                (int)(width * scale),
-                (int)(height * scale)
-            );
-        }
-
-    	
-     	public DrawingPanel() {
-            setOpaque(false);
-            setLayout(null);
-        }
-        
-        public void removeAllIcons() {
-            for (Component c : getComponents()) {
-                if (c instanceof DraggableIcon) {
-                    remove(c);
-                }
-            }
-            icons.clear();
-        }
-        public void removeIcon(DraggableIcon icon) {
-            icons.remove(icon);
-            remove(icon);
-            revalidate();
-            repaint();
-        }
-
-        
-        
-        
-
-        public void addLine(Line line) {
-            lines.add(line);
-            repaint();
-        }
-
-        public void setCurrentLine(Line line) {
-            this.currentLine = line;
-            repaint();
-        }
-
-        public void clearLines() {
-            lines.clear();
-            repaint();
-        }
-
-        public void addIcon(DraggableIcon icon) {
-            icons.add(icon);
-            add(icon);
-            revalidate();
-            repaint();
-        }
-    }
-
-    static class Line {
-        int x1, y1, x2, y2;
-        public Line(int x1, int y1, int x2, int y2) {
-            this.x1 = x1;
-            this.y1 = y1;
-            this.x2 = x2;
-            this.y2 = y2;
-        }
-    }
-
-    class DraggableIcon extends JButton {
-        private Point anchorPoint;
-        private String iconName;
-
-        public DraggableIcon(ImageIcon icon, String iconName) {
-            super(icon);
-            this.iconName = iconName;
-            setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
-            setContentAreaFilled(false);
-            setCursor(new Cursor(Cursor.HAND_CURSOR));
-
-            // Create right-click context menu
-            JPopupMenu popupMenu = new JPopupMenu();
-            JMenuItem deleteItem = new JMenuItem("Delete");
-            deleteItem.addActionListener(e -> {
-                Container parent = getParent();
-                if (parent instanceof DrawingPanel) {
-                    ((DrawingPanel)parent).removeIcon(this);
-                }
-            });
-            popupMenu.add(deleteItem);
-
-            addMouseListener(new MouseAdapter() {
-                public void mousePressed(MouseEvent e) {
-                    if (SwingUtilities.isRightMouseButton(e)) {
-                        popupMenu.show(e.getComponent(), e.getX(), e.getY());
-                    } else {
-                        anchorPoint = e.getPoint();
-                        draggedIcon = DraggableIcon.this;
-                    }
-                }
-
-                public void mouseReleased(MouseEvent e) {
-                    if (!SwingUtilities.isRightMouseButton(e)) {
-                        draggedIcon = null;
-                    }
-                }
-            });
-
-            addMouseMotionListener(new MouseMotionAdapter() {
-                public void mouseDragged(MouseEvent e) {
-                    if (!SwingUtilities.isRightMouseButton(e)) {
-                        int anchorX = anchorPoint.x;
-                        int anchorY = anchorPoint.y;
-
-                        Point parentOnScreen = getParent().getLocationOnScreen();
-                        Point mouseOnScreen = e.getLocationOnScreen();
-                        Point position = new Point(mouseOnScreen.x - parentOnScreen.x - anchorX,
-                                mouseOnScreen.y - parentOnScreen.y - anchorY);
-                        setLocation(position);
-                        getParent().repaint();
-                    }
-                }
-            });
-        }
-
-        public String getIconName() {
-            return iconName;
-        }
-    }
     private void initializeUI() {
         mainPanel = new JPanel(new BorderLayout());
 
@@ -262,6 +127,19 @@ public class BurpExtender implements IBurpExtender, ITab {
         topToolbar.setBackground(new Color(0xf3f3f3));
         topToolbar.setPreferredSize(new Dimension(800, 42));
 
+        // Project section
+        JPanel projectPanel = createToolbarSection("Project");
+        JButton openButton = createToolbarButton("Open", new Color(255, 152, 0), "Folder.png");
+        openButton.setToolTipText("Open Project");
+        openButton.addActionListener(e -> openProject());
+        JButton saveButton = createToolbarButton("Save", new Color(0, 150, 136), "Save.png");
+        saveButton.setToolTipText("Save Project");
+        saveButton.addActionListener(e -> saveProject());
+        projectPanel.add(openButton);
+        projectPanel.add(Box.createHorizontalStrut(5));
+        projectPanel.add(saveButton);
+        topToolbar.add(projectPanel);
+
         // File/Export section
         JPanel filePanel = createToolbarSection("Export");
         JButton exportPngButton = createToolbarButton("PNG", new Color(76, 175, 80), "image.png");
@@ -278,8 +156,28 @@ public class BurpExtender implements IBurpExtender, ITab {
         JButton tableButton = createToolbarButton("Table", new Color(66, 133, 244), "table.png");
         tableButton.addActionListener(e -> showTableInsertDialog());
         insertPanel.add(tableButton);
+        JButton siteMapButton = createToolbarButton("Site Map", new Color(121, 85, 72), "cloud.png");
+        siteMapButton.setToolTipText("Generate from Site Map: add Burp's hosts, services and endpoints");
+        siteMapButton.addActionListener(e -> generateFromSiteMap());
+        insertPanel.add(siteMapButton);
+        JButton trafficButton = createToolbarButton("Live Traffic", new Color(56, 142, 60), "Share.png");
+        trafficButton.setToolTipText("Show request rates and errors on the lines of site map hosts");
+        trafficButton.addActionListener(e -> {
+            toggleTraffic();
+            trafficButton.setText(trafficMonitor.isEnabled() ? "Stop Traffic" : "Live Traffic");
+        });
+        insertPanel.add(trafficButton);
         topToolbar.add(insertPanel);
 
+        // Layout section
+        JPanel layoutPanel = createToolbarSection("Layout");
+        JButton arrangeButton = createToolbarButton("Arrange", new Color(0, 121, 107), "Share.png");
+        arrangeButton.setToolTipText("Arrange the diagram automatically");
+        JPopupMenu layoutMenu = createLayoutMenu();
+        arrangeButton.addActionListener(e -> layoutMenu.show(arrangeButton, 0, arrangeButton.getHeight()));
+        layoutPanel.add(arrangeButton);
+        topToolbar.add(layoutPanel);
+
         // Font section
         JPanel fontPanel = createToolbarSection("Font");
         fontFamilyCombo = new JComboBox<>(popularFonts);
@@ -297,15 +195,15 @@ public class BurpExtender implements IBurpExtender, ITab {
      // Zoom controls
         JButton zoomInButton = createToolbarButton("", new Color(100, 150, 255), "Zoomin.png");
         zoomInButton.setToolTipText("Zoom In");
-        zoomInButton.addActionListener(e -> zoomIn());
+        zoomInButton.addActionListener(e -> drawingPanel.zoomIn());
 
         JButton zoomOutButton = createToolbarButton("", new Color(100, 150, 255), "Zoomout.png");
         zoomOutButton.setToolTipText("Zoom Out");
-        zoomOutButton.addActionListener(e -> zoomOut());
+        zoomOutButton.addActionListener(e -> drawingPanel.zoomOut());
 
         JButton zoomResetButton = createToolbarButton("", new Color(100, 150, 255), "Zoomreset.png");
         zoomResetButton.setToolTipText("Reset Zoom");
-        zoomResetButton.addActionListener(e -> zoomReset());
+        zoomResetButton.addActionListener(e -> drawingPanel.resetZoom());
         JButton clearButton = createToolbarButton("", new Color(239, 83, 80), "trash.png");
         clearButton.addActionListener(e -> clearCanvas());
 
@@ -316,11 +214,9 @@ public class BurpExtender implements IBurpExtender, ITab {
         drawLineButton = createToolbarButton("Draw Line", new Color(150, 100, 255), "line.png");
         drawLineButton.addActionListener(e -> {
             isDrawingLine = !isDrawingLine;
+            drawingPanel.setDrawingLine(isDrawingLine);
             if (isDrawingLine) {
-                drawingPanel.setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
                 textPane.setCursor(Cursor.getDefaultCursor());
-            } else {
-                drawingPanel.setCursor(Cursor.getDefaultCursor());
             }
         });
 
@@ -345,40 +241,10 @@ public class BurpExtender implements IBurpExtender, ITab {
         splitPane.setBorder(BorderFactory.createEmptyBorder());
 
         // Drawing panel setup
-        drawingPanel = new DrawingPanel();
-        drawingPanel.setLayout(null);
-        drawingPanel.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mousePressed(MouseEvent e) {
-                if (isDrawingLine) {
-                    lineStartPoint = e.getPoint();
-                }
-            }
-
-            @Override
-            public void mouseReleased(MouseEvent e) {
-                if (isDrawingLine && lineStartPoint != null) {
-                    drawingPanel.addLine(new Line(
-                        lineStartPoint.x, lineStartPoint.y,
-                        e.getX(), e.getY()
-                    ));
-                    lineStartPoint = null;
-                    drawingPanel.setCurrentLine(null);
-                }
-            }
-        });
-
-        drawingPanel.addMouseMotionListener(new MouseMotionAdapter() {
-            @Override
-            public void mouseDragged(MouseEvent e) {
-                if (isDrawingLine && lineStartPoint != null) {
-                    drawingPanel.setCurrentLine(new Line(
-                        lineStartPoint.x, lineStartPoint.y,
-                        e.getX(), e.getY()
-                    ));
-                }
-            }
-        });
+        drawingPanel = new DrawingPanel(diagramModel, diagramRenderer);
+        drawingPanel.setNodeTips(siteTopology::getLabel);
+        trafficMonitor = new TrafficMonitor(diagramModel, siteTopology, diagramRenderer, drawingPanel::repaintDiagram);
+        drawingPanel.setEdgeTips(trafficMonitor::describe);
 
         JScrollPane drawingScroll = new JScrollPane(drawingPanel);
         drawingScroll.setBorder(BorderFactory.createEmptyBorder());
@@ -432,53 +298,203 @@ public class BurpExtender implements IBurpExtender, ITab {
 
         // Add table context menu
         addTableContextMenu();
+
+        // Decode icons in the background; placeholders show until each one arrives
+        iconLoader.load(paletteIcons, this::paletteIconLoaded);
+        iconLoader.load(toolbarIcons, this::toolbarIconLoaded);
+
+        installUndo();
+        installPinning();
+        startAutosave();
     }
-    
-        private BufferedImage captureDiagramImage() {
-        BufferedImage image = new BufferedImage(
-            drawingPanel.getWidth(), 
-            drawingPanel.getHeight(),
-            BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = image.createGraphics();
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, image.getWidth(), image.getHeight());
-        drawingPanel.paint(g);
-        g.dispose();
-        return image;
+
+    /**
+     * Ctrl+Z / Ctrl+Y (Cmd on macOS) undo and redo diagram and notes edits
+     * from anywhere in the tab.
+     */
+    private void installUndo() {
+        textPane.getDocument().addUndoableEditListener(history);
+        int menuMask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        InputMap inputMap = mainPanel.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuMask), "undo");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, menuMask), "redo");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuMask | InputEvent.SHIFT_DOWN_MASK), "redo");
+        mainPanel.getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // A running layout is still recording its step
+                layoutEngine.cancel();
+                if (history.canUndo()) {
+                    history.undo();
+                }
+            }
+        });
+        mainPanel.getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                layoutEngine.cancel();
+                if (history.canRedo()) {
+                    history.redo();
+                }
+            }
+        });
     }
 
-    private BufferedImage captureCombinedImage() {
-        BufferedImage image = new BufferedImage(
-            Math.max(drawingPanel.getWidth(), textPane.getWidth()),
-            drawingPanel.getHeight() + textPane.getHeight(),
-            BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = image.createGraphics();
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, image.getWidth(), image.getHeight());
-        drawingPanel.paint(g);
-        g.translate(0, drawingPanel.getHeight());
-        textPane.paint(g);
-        g.dispose();
-        return image;
+    private JPopupMenu createLayoutMenu() {
+        JPopupMenu menu = new JPopupMenu();
+        for (LayoutEngine.Algorithm algorithm : LayoutEngine.Algorithm.values()) {
+            JMenuItem item = new JMenuItem(algorithm.toString());
+            item.addActionListener(e -> runLayout(algorithm));
+            menu.add(item);
+        }
+        menu.addSeparator();
+        JMenuItem stopItem = new JMenuItem("Stop");
+        stopItem.addActionListener(e -> layoutEngine.cancel());
+        menu.add(stopItem);
+        menu.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+                stopItem.setEnabled(layoutEngine.isRunning());
+            }
+
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+            }
+
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {
+            }
+        });
+        return menu;
+    }
+
+    private void runLayout(LayoutEngine.Algorithm algorithm) {
+        layoutEngine.cancel();
+        // Lines are rerouted once the devices have settled
+        edgeRouter.setPaused(true);
+        layoutEngine.start(algorithm, failure -> {
+            edgeRouter.setPaused(false);
+            if (failure != null) {
+                JOptionPane.showMessageDialog(mainPanel,
+                    "Auto layout failed; devices stay where it left them:\n" + failure,
+                    "Layout Failed",
+                    JOptionPane.ERROR_MESSAGE);
+                callbacks.printError("Layout Error: " + failure);
+            }
+        });
+    }
+
+    /**
+     * Adds "Pin Position" to the device menu; automatic layouts leave pinned
+     * devices where they are.
+     */
+    private void installPinning() {
+        JCheckBoxMenuItem pinItem = new JCheckBoxMenuItem("Pin Position");
+        pinItem.addActionListener(e -> {
+            for (Node node : drawingPanel.getSelectedNodes()) {
+                layoutEngine.setPinned(node, pinItem.isSelected());
+            }
+        });
+        JPopupMenu nodeMenu = drawingPanel.getNodeMenu();
+        nodeMenu.add(pinItem);
+        nodeMenu.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+                boolean allPinned = !drawingPanel.getSelectedNodes().isEmpty();
+                for (Node node : drawingPanel.getSelectedNodes()) {
+                    allPinned &= layoutEngine.isPinned(node);
+                }
+                pinItem.setSelected(allPinned);
+            }
+
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+            }
+
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {
+            }
+        });
     }
 
+    /**
+     * Journals every diagram change, plus the notes once typing pauses. If a
+     * session ended without closing the journal, e.g. in a crash, offers to
+     * restore what it recovered; otherwise the project that was open when
+     * Burp last closed is reopened.
+     */
+    private void startAutosave() {
+        diagramModel.addListener(journal);
+        siteTopology.setMappingListener((node, key, label) -> journal.siteMapped(node.getId(), key, label));
+        // The journal's writer thread serializes the notes, reading the document a chunk at a time
+        notesAutosaveTimer = new javax.swing.Timer(NOTES_AUTOSAVE_DELAY, e -> {
+            HTMLDocument notes = (HTMLDocument) textPane.getDocument();
+            HTMLEditorKit kit = (HTMLEditorKit) textPane.getEditorKit();
+            journal.notesChanged(() -> PDFExporter.extractHtmlContent(notes, kit));
+        });
+        notesAutosaveTimer.setRepeats(false);
+        textPane.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                notesAutosaveTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                notesAutosaveTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                notesAutosaveTimer.restart();
+            }
+        });
+
+        journal.start(recovered -> SwingUtilities.invokeLater(() -> {
+            if (recovered != null) {
+                int choice = JOptionPane.showConfirmDialog(mainPanel,
+                        "Schematics did not shut down cleanly last time.\n"
+                                + "Recover the unsaved diagram and notes? No opens the last saved project instead.",
+                        "Recover Autosave", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+                if (choice == JOptionPane.YES_OPTION) {
+                    diagramModel.setState(recovered.getDiagram());
+                    siteTopology.setEntries(recovered.getSites());
+                    textPane.setText(recovered.getNotesHtml());
+                    history.discardAllEdits();
+                    return;
+                }
+                journal.discard();
+            }
+            String lastProject = callbacks.loadExtensionSetting(PROJECT_FILE_SETTING);
+            if (lastProject != null && new File(lastProject).isFile()) {
+                loadProject(new File(lastProject));
+            }
+        }), callbacks::printError);
+    }
+
+    private String currentNotesHtml() {
+        try {
+            return PDFExporter.extractHtmlContent(textPane);
+        } catch (Exception e) {
+            return "";
+        }
+    }
+    
     private void exportToPNG() {
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle("Save as PNG");
         chooser.setFileFilter(new FileNameExtensionFilter("PNG Files", "png"));
         
         if (chooser.showSaveDialog(mainPanel) == JFileChooser.APPROVE_OPTION) {
-            boolean success = PNGExporter.exportToPNG(
-                captureCombinedImage(),
-                chooser.getSelectedFile()
-            );
-            
-            if (success) {
-                JOptionPane.showMessageDialog(mainPanel,
-                    "PNG exported successfully!",
-                    "Export Complete",
-                    JOptionPane.INFORMATION_MESSAGE);
-            }
+            // Snapshot on the EDT; everything else runs on the export thread
+            File file = chooser.getSelectedFile();
+            DiagramModel snapshot = diagramModel.snapshot();
+            Dimension diagramSize = drawingPanel.getDiagramSize();
+            int width = Math.max(diagramSize.width, textPane.getWidth());
+            int height = diagramSize.height + textPane.getHeight();
+            TilePainter painter = PNGExporter.diagramWithNotes(diagramRenderer, snapshot, diagramSize, textPane);
+
+            runExport("PNG", progress -> PNGExporter.exportTiled(width, height, painter, file, progress));
         }
     }
 
@@ -488,35 +504,355 @@ public class BurpExtender implements IBurpExtender, ITab {
         chooser.setFileFilter(new FileNameExtensionFilter("PDF Files", "pdf"));
         
         if (chooser.showSaveDialog(mainPanel) == JFileChooser.APPROVE_OPTION) {
-            boolean success = PDFExporter.exportToPDF(
-                captureDiagramImage(),
-                textPane,
-                chooser.getSelectedFile()
-            );
-            
-            if (success) {
-                JOptionPane.showMessageDialog(mainPanel,
-                    "PDF exported successfully!",
-                    "Export Complete",
-                    JOptionPane.INFORMATION_MESSAGE);
+            File file = chooser.getSelectedFile();
+            DiagramModel snapshot = diagramModel.snapshot();
+            Dimension diagramSize = drawingPanel.getDiagramSize();
+            Float posterScale = choosePdfLayout(diagramSize);
+            if (posterScale == null) {
+                return;
             }
+            HTMLDocument notes = (HTMLDocument) textPane.getDocument();
+            HTMLEditorKit kit = (HTMLEditorKit) textPane.getEditorKit();
+
+            // The notes are streamed from the live document and an edit would fail the
+            // export, so they stay read-only until the last queued PDF export ends
+            if (pdfExports++ == 0) {
+                notesEditable = textPane.isEditable();
+                textPane.setEditable(false);
+            }
+            runExport("PDF", progress -> PDFExporter.exportToPDF(snapshot, diagramSize, iconCache, posterScale,
+                notes, kit, file, progress), () -> {
+                    if (--pdfExports == 0) {
+                        textPane.setEditable(notesEditable);
+                    }
+                });
         }
     }
-    private JDialog createProgressDialog() {
-        JDialog dialog = new JDialog((Frame)null, "Exporting PDF", true);
-        dialog.setSize(300, 100);
+
+    /**
+     * Asks whether a diagram too large for one page should be shrunk to fit
+     * or printed as a poster, and returns the poster scale,
+     * {@link PDFExporter#FIT_TO_PAGE}, or null when cancelled.
+     */
+    private Float choosePdfLayout(Dimension diagramSize) {
+        if (PDFExporter.fitsOnPage(diagramSize)) {
+            return PDFExporter.FIT_TO_PAGE;
+        }
+        String[] choices = new String[POSTER_SCALES.length + 1];
+        choices[0] = "Fit on one page";
+        for (int i = 0; i < POSTER_SCALES.length; i++) {
+            int pages = PDFExporter.posterPages(diagramSize, POSTER_SCALES[i]);
+            choices[i + 1] = String.format("Poster at %d%% (%,d page%s + overview)",
+                Math.round(POSTER_SCALES[i] * 100), pages, pages == 1 ? "" : "s");
+        }
+        Object choice = JOptionPane.showInputDialog(mainPanel,
+            "The diagram does not fit on one page. Print it as:",
+            "PDF Layout",
+            JOptionPane.QUESTION_MESSAGE,
+            null,
+            choices,
+            choices[0]);
+        if (choice == null) {
+            return null;
+        }
+        for (int i = 0; i < POSTER_SCALES.length; i++) {
+            if (choice.equals(choices[i + 1])) {
+                return POSTER_SCALES[i];
+            }
+        }
+        return PDFExporter.FIT_TO_PAGE;
+    }
+
+    private void openProject() {
+        JFileChooser chooser = new JFileChooser(projectFile);
+        chooser.setDialogTitle("Open Project");
+        chooser.setFileFilter(new FileNameExtensionFilter("Schematics Projects", ProjectFile.EXTENSION));
+        if (chooser.showOpenDialog(mainPanel) == JFileChooser.APPROVE_OPTION) {
+            loadProject(chooser.getSelectedFile());
+        }
+    }
+
+    /**
+     * Reads the project on the export thread and shows it once decoded. The
+     * notes are decoded in a later event, after the diagram has been painted.
+     */
+    private void loadProject(File file) {
+        exportExecutor.execute(new SwingWorker<Project, Void>() {
+            @Override
+            protected Project doInBackground() throws Exception {
+                return ProjectFile.read(file);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Project project = get();
+                    diagramModel.setState(project.getDiagram());
+                    siteTopology.setEntries(project.getSites());
+                    setProjectFile(file);
+                    SwingUtilities.invokeLater(() -> {
+                        textPane.setText(project.getNotesHtml());
+                        history.discardAllEdits();
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(mainPanel,
+                        "Failed to open " + file.getName() + ":\n" + e.getCause().getMessage(),
+                        "Open Failed",
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+    }
+
+    private void saveProject() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Save Project");
+        chooser.setFileFilter(new FileNameExtensionFilter("Schematics Projects", ProjectFile.EXTENSION));
+        if (projectFile != null) {
+            chooser.setSelectedFile(projectFile);
+        }
+        if (chooser.showSaveDialog(mainPanel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selected = chooser.getSelectedFile();
+        File file = selected.getName().toLowerCase().endsWith("." + ProjectFile.EXTENSION) ? selected
+            : new File(selected.getParentFile(), selected.getName() + "." + ProjectFile.EXTENSION);
+
+        // Snapshot on the EDT, write on the export thread
+        Project project = new Project(diagramModel.getState(), currentNotesHtml(), siteTopology.getEntries());
+        exportExecutor.execute(new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                ProjectFile.write(project, file);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    setProjectFile(file);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(mainPanel,
+                        "Failed to save project:\n" + e.getCause().getMessage(),
+                        "Save Failed",
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+    }
+
+    private void setProjectFile(File file) {
+        projectFile = file;
+        callbacks.saveExtensionSetting(PROJECT_FILE_SETTING, file.getAbsolutePath());
+    }
+
+    private interface ExportJob {
+        File run(ExportProgress progress) throws Exception;
+    }
+
+    /**
+     * Runs an export on the export thread behind a progress dialog. Progress
+     * and completion are reported back on the EDT; Cancel stops the job at
+     * its next checkpoint and removes the partial file.
+     */
+    private void runExport(String format, ExportJob job) {
+        runExport(format, job, () -> { });
+    }
+
+    /**
+     * @param finished run on the EDT once the export has ended, been cancelled
+     *                 or failed; after Cancel the job may still be winding down
+     */
+    private void runExport(String format, ExportJob job, Runnable finished) {
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        JLabel statusLabel = new JLabel("Preparing export...");
+        JButton cancelButton = new JButton("Cancel");
+        JDialog dialog = createProgressDialog("Exporting " + format, progressBar, statusLabel, cancelButton);
+
+        SwingWorker<File, String> worker = new SwingWorker<File, String>() {
+            @Override
+            protected File doInBackground() throws Exception {
+                SwingWorker<File, String> self = this;
+                return job.run(new ExportProgress() {
+                    private String lastMessage;
+
+                    @Override
+                    public void update(int percent, String message) {
+                        setProgress(Math.max(0, Math.min(100, percent)));
+                        if (message != null && !message.equals(lastMessage)) {
+                            lastMessage = message;
+                            publish(message);
+                        }
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return self.isCancelled();
+                    }
+
+                    @Override
+                    public void report(String statistics) {
+                        callbacks.printOutput(format + " export: " + statistics);
+                    }
+                });
+            }
+
+            @Override
+            protected void process(List<String> messages) {
+                statusLabel.setText(messages.get(messages.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                // Also runs for a worker cancelled while still queued, which never starts
+                dialog.dispose();
+                finished.run();
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    showSuccess(format, get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof CancellationException)) {
+                        showError(format, e.getCause());
+                    }
+                }
+            }
+        };
+        worker.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                progressBar.setValue((Integer) evt.getNewValue());
+            }
+        });
+        cancelButton.addActionListener(e -> worker.cancel(false));
+
+        exportExecutor.execute(worker);
+        dialog.setVisible(true);
+    }
+
+    private void toggleTraffic() {
+        if (trafficMonitor.isEnabled()) {
+            callbacks.removeHttpListener(trafficMonitor);
+            trafficMonitor.setEnabled(false);
+        } else {
+            trafficMonitor.setEnabled(true);
+            callbacks.registerHttpListener(trafficMonitor);
+        }
+    }
+
+    /**
+     * Adds devices for the hosts, services and endpoints in Burp's site map.
+     * The import streams through the site map on the export thread and adds
+     * devices chunk by chunk; the whole import is one undoable step unless the
+     * diagram is edited while it runs, and a
+     * diagram that was empty is arranged hierarchically afterwards.
+     */
+    private void generateFromSiteMap() {
+        layoutEngine.cancel();
+        boolean wasEmpty = diagramModel.getNodeCount() == 0;
+        SiteMapImporter importer = new SiteMapImporter(diagramModel, siteTopology);
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        JLabel statusLabel = new JLabel("Reading site map...");
+        JButton cancelButton = new JButton("Cancel");
+        JDialog dialog = createProgressDialog("Generate from Site Map", progressBar, statusLabel, cancelButton);
+
+        // Lines are routed once, after the last chunk
+        edgeRouter.setPaused(true);
+        SwingWorker<SiteMapImporter.Result, String> worker = new SwingWorker<SiteMapImporter.Result, String>() {
+            @Override
+            protected SiteMapImporter.Result doInBackground() throws Exception {
+                SwingWorker<SiteMapImporter.Result, String> self = this;
+                IHttpRequestResponse[] siteMap = callbacks.getSiteMap(null);
+                return importer.run(siteMap, new ExportProgress() {
+                    private String lastMessage;
+
+                    @Override
+                    public void update(int percent, String message) {
+                        setProgress(Math.max(0, Math.min(100, percent)));
+                        if (message != null && !message.equals(lastMessage)) {
+                            lastMessage = message;
+                            publish(message);
+                        }
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return self.isCancelled();
+                    }
+                });
+            }
+
+            @Override
+            protected void process(List<String> messages) {
+                statusLabel.setText(messages.get(messages.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                dialog.dispose();
+                importer.close();
+                edgeRouter.setPaused(false);
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    SiteMapImporter.Result result = get();
+                    if (wasEmpty && result.devices() > 0) {
+                        runLayout(LayoutEngine.Algorithm.LAYERED);
+                    }
+                    JOptionPane.showMessageDialog(mainPanel,
+                        String.format("Read %,d requests and added %,d hosts, %,d services and %,d endpoints.",
+                            result.requests, result.hosts, result.services, result.endpoints)
+                            + (result.omitted > 0
+                                ? String.format("%n%,d requests were left out to keep the diagram readable.",
+                                    result.omitted)
+                                : ""),
+                        "Generate from Site Map",
+                        JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof CancellationException)) {
+                        JOptionPane.showMessageDialog(mainPanel,
+                            "Failed to generate from site map:\n" + e.getCause().getMessage(),
+                            "Generate from Site Map",
+                            JOptionPane.ERROR_MESSAGE);
+                        callbacks.printError("Site Map Import Error: " + e.getCause());
+                    }
+                }
+            }
+        };
+        worker.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                progressBar.setValue((Integer) evt.getNewValue());
+            }
+        });
+        cancelButton.addActionListener(e -> worker.cancel(false));
+
+        exportExecutor.execute(worker);
+        dialog.setVisible(true);
+    }
+
+    private JDialog createProgressDialog(String title, JProgressBar progressBar, JLabel statusLabel,
+                                         JButton cancelButton) {
+        JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(mainPanel), title,
+                Dialog.ModalityType.MODELESS);
+        dialog.setSize(300, 120);
         dialog.setLocationRelativeTo(mainPanel);
         dialog.setLayout(new BorderLayout());
         
-        JProgressBar progressBar = new JProgressBar();
-        progressBar.setIndeterminate(true);
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 0, 10));
+        dialog.add(statusLabel, BorderLayout.NORTH);
+        progressBar.setStringPainted(true);
         dialog.add(progressBar, BorderLayout.CENTER);
         
-        JButton cancelButton = new JButton("Cancel");
-        cancelButton.addActionListener(e -> {
-            dialog.dispose();
-        });
-        
         JPanel panel = new JPanel();
         panel.add(cancelButton);
         dialog.add(panel, BorderLayout.SOUTH);
@@ -525,65 +861,21 @@ public class BurpExtender implements IBurpExtender, ITab {
         return dialog;
     }
 
-    private void showSuccess(File file) {
+    private void showSuccess(String format, File file) {
         JOptionPane.showMessageDialog(mainPanel,
-            "PDF successfully saved to:\n" + file.getAbsolutePath(),
+            format + " successfully saved to:\n" + file.getAbsolutePath(),
             "Export Complete",
             JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private void showError(Exception e) {
+    private void showError(String format, Throwable e) {
         JOptionPane.showMessageDialog(mainPanel,
-            "Failed to export PDF:\n" + e.getMessage(),
+            "Failed to export " + format + ":\n" + e.getMessage(),
             "Export Failed",
             JOptionPane.ERROR_MESSAGE);
-        callbacks.printError("PDF Export Error: " + e.getMessage());
+        callbacks.printError(format + " Export Error: " + e.getMessage());
     }
     
-    private void zoomIn() {
-        Font currentFont = textPane.getFont();
-        int newSize = Math.min(currentFont.getSize() + FONT_ZOOM_INCREMENT, MAX_FONT_SIZE);
-        textPane.setFont(new Font(
-            currentFont.getFamily(),
-            currentFont.getStyle(),
-            newSize
-        ));
-        drawingPanel.setFont(new Font(
-            currentFont.getFamily(),
-            currentFont.getStyle(),
-            newSize
-        ));
-    }
-
-    private void zoomOut() {
-        Font currentFont = textPane.getFont();
-        int newSize = Math.max(currentFont.getSize() - FONT_ZOOM_INCREMENT, MIN_FONT_SIZE);
-        textPane.setFont(new Font(
-            currentFont.getFamily(),
-            currentFont.getStyle(),
-            newSize
-        ));
-        drawingPanel.setFont(new Font(
-            currentFont.getFamily(),
-            currentFont.getStyle(),
-            newSize
-        ));
-    }
-
-    private void zoomReset() {
-        Font currentFont = textPane.getFont();
-        textPane.setFont(new Font(
-            currentFont.getFamily(),
-            currentFont.getStyle(),
-            DEFAULT_FONT_SIZE
-        ));
-        drawingPanel.setFont(new Font(
-            currentFont.getFamily(),
-            currentFont.getStyle(),
-            DEFAULT_FONT_SIZE
-        ));
-    }    
-    
     private void showTableInsertDialog() {
         JDialog dialog = new JDialog();
         dialog.setTitle("Insert Table");
@@ -683,6 +975,7 @@ public class BurpExtender implements IBurpExtender, ITab {
         }
         html.append("</table><br>");
 
+        history.beginGroup("Insert Table");
         try {
             int pos = textPane.getCaretPosition();
             textPane.getDocument().insertString(pos, "\n", null);
@@ -691,6 +984,8 @@ public class BurpExtender implements IBurpExtender, ITab {
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(mainPanel, "Error inserting table: " + ex.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
+        } finally {
+            history.endGroup();
         }
     }
 
@@ -777,55 +1072,54 @@ public class BurpExtender implements IBurpExtender, ITab {
 
             textPane.setFont(new Font(currentFont.getFamily(), newStyle, currentFont.getSize()));
         } else {
-            Style styleObj = textPane.addStyle("fontStyle", null);
+            MutableAttributeSet attrs = new SimpleAttributeSet();
 
             if (style == Font.BOLD) {
-                StyleConstants.setBold(styleObj, add);
+                StyleConstants.setBold(attrs, add);
             } else if (style == Font.ITALIC) {
-                StyleConstants.setItalic(styleObj, add);
+                StyleConstants.setItalic(attrs, add);
             }
 
-            doc.setCharacterAttributes(start, end - start, styleObj, false);
+            doc.setCharacterAttributes(start, end - start, attrs, false);
         }
     }
 
     private void setUnderline(boolean underline) {
-        StyledDocument doc = textPane.getStyledDocument();
+        MutableAttributeSet attrs = new SimpleAttributeSet();
+        StyleConstants.setUnderline(attrs, underline);
+        // Applies to the selection, or to what is typed next if there is none
+        textPane.setCharacterAttributes(attrs, false);
+    }
+
+    /**
+     * Merges CSS character attributes into the selected runs. Each run keeps
+     * its other formatting, and nothing is re-parsed, so the cost depends on
+     * the selection rather than the size of the notes.
+     */
+    private void styleSelection(String editName, CSS.Attribute[] keys, String[] values) {
         int start = textPane.getSelectionStart();
         int end = textPane.getSelectionEnd();
-
         if (start == end) {
-            MutableAttributeSet attrs = new SimpleAttributeSet();
-            StyleConstants.setUnderline(attrs, underline);
-            textPane.setCharacterAttributes(attrs, false);
-        } else {
-            Style style = textPane.addStyle("underline", null);
-            StyleConstants.setUnderline(style, underline);
-            doc.setCharacterAttributes(start, end - start, style, false);
+            return;
+        }
+        HTMLDocument doc = (HTMLDocument) textPane.getDocument();
+        MutableAttributeSet attrs = new SimpleAttributeSet();
+        for (int i = 0; i < keys.length; i++) {
+            doc.getStyleSheet().addCSSAttribute(attrs, keys[i], values[i]);
+        }
+        history.beginGroup(editName);
+        try {
+            doc.setCharacterAttributes(start, end - start, attrs, false);
+        } finally {
+            history.endGroup();
         }
     }
 
     private void changeTextColor() {
         Color color = JColorChooser.showDialog(mainPanel, "Choose Text Color", Color.BLACK);
         if (color != null && textPane.getSelectedText() != null) {
-            String selectedText = textPane.getSelectedText();
             String hexColor = String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
-            String styledHtml = "<span style='color:" + hexColor + ";'>" + selectedText + "</span>";
-
-            try {
-                int start = textPane.getSelectionStart();
-                int end = textPane.getSelectionEnd();
-
-                // Remove selected text
-                textPane.getDocument().remove(start, end - start);
-
-                // Insert styled HTML in place
-                HTMLEditorKit kit = (HTMLEditorKit) textPane.getEditorKit();
-                kit.insertHTML((HTMLDocument) textPane.getDocument(), start, styledHtml, 0, 0, null);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(mainPanel, "Error applying color: " + ex.getMessage(),
-                        "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            styleSelection("Text Color", new CSS.Attribute[] { CSS.Attribute.COLOR }, new String[] { hexColor });
         }
     }
 
@@ -835,11 +1129,17 @@ public class BurpExtender implements IBurpExtender, ITab {
         int response = JOptionPane.showConfirmDialog(mainPanel, "Are you sure you want to clear the entire canvas?",
                 "Confirm Clear", JOptionPane.YES_NO_OPTION);
         if (response == JOptionPane.YES_OPTION) {
-            textPane.setText("");
-            drawingPanel.clearLines();
-            drawingPanel.removeAll();
-            drawingPanel.revalidate();
-            drawingPanel.repaint();
+            // Removed piece by piece rather than with clear() so it can be undone
+            diagramModel.beginUpdate("Clear");
+            try {
+                textPane.setText("");
+                BitSet edges = new BitSet();
+                diagramModel.getEdges().forEach(edges::set);
+                diagramModel.removeEdges(edges);
+                diagramModel.removeNodes(new ArrayList<>(diagramModel.getNodes()));
+            } finally {
+                diagramModel.endUpdate();
+            }
         }
     }
 
@@ -871,11 +1171,7 @@ public class BurpExtender implements IBurpExtender, ITab {
                 BorderFactory.createEmptyBorder(5, 12, 5, 12)));
         button.setCursor(new Cursor(Cursor.HAND_CURSOR));
 
-        ImageIcon icon = getScaledIcon(iconName, 16, 16);
-        if (icon != null) {
-            button.setIcon(icon);
-            button.setText("");
-        }
+        setToolbarIcon(button, iconName);
 
         button.addMouseListener(new MouseAdapter() {
             public void mouseEntered(MouseEvent e) {
@@ -899,11 +1195,7 @@ public class BurpExtender implements IBurpExtender, ITab {
         button.setBackground(Color.WHITE);
         button.setCursor(new Cursor(Cursor.HAND_CURSOR));
 
-        ImageIcon icon = getScaledIcon(iconName, 16, 16);
-        if (icon != null) {
-            button.setIcon(icon);
-            button.setText("");
-        }
+        setToolbarIcon(button, iconName);
 
         button.addMouseListener(new MouseAdapter() {
             public void mouseEntered(MouseEvent e) {
@@ -930,18 +1222,9 @@ public class BurpExtender implements IBurpExtender, ITab {
                 // Apply to the whole pane only if no text is selected (optional)
                 textPane.setFont(new Font(fontName, Font.PLAIN, fontSize));
             } else {
-                String selectedText = textPane.getSelectedText();
-                if (selectedText == null) return;
-
-                String styledHtml = String.format(
-                    "<span style='font-family:%s; font-size:%dpx;'>%s</span>",
-                    fontName, fontSize, selectedText
-                );
-
-                // Replace selected text with styled span
-                textPane.getDocument().remove(start, end - start);
-                HTMLEditorKit kit = (HTMLEditorKit) textPane.getEditorKit();
-                kit.insertHTML((HTMLDocument) textPane.getDocument(), start, styledHtml, 0, 0, null);
+                styleSelection("Font",
+                    new CSS.Attribute[] { CSS.Attribute.FONT_FAMILY, CSS.Attribute.FONT_SIZE },
+                    new String[] { fontName, fontSize + "px" });
             }
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -961,36 +1244,16 @@ public class BurpExtender implements IBurpExtender, ITab {
         JPanel iconGrid = new JPanel(new GridLayout(0, 3, 4, 4));
         iconGrid.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
-        BufferedImage placeholder = createPlaceholderIcon();
-
         for (String iconName : iconNames) {
-            try {
-                String baseName = iconName.substring(0, iconName.lastIndexOf('.'));
-                BufferedImage icon = ImageIO.read(getClass().getResourceAsStream("/icons/" + iconName));
-                if (icon == null)
-                    icon = placeholder;
-
-                BufferedImage scaledIcon = new BufferedImage(48, 48, BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = scaledIcon.createGraphics();
-                g.drawImage(icon, 0, 0, 48, 48, null);
-                g.dispose();
-                iconCache.put(baseName, scaledIcon);
-
-                JButton button = createIconButton(iconName, baseName);
-                iconGrid.add(button);
-            } catch (Exception ex) {
-                String baseName = iconName.substring(0, iconName.lastIndexOf('.'));
-                JButton button = new JButton(baseName);
-                iconGrid.add(button);
-            }
+            iconGrid.add(createIconButton(paletteIcons.add(iconName), IconCache.keyOf(iconName)));
         }
 
         panel.add(new JScrollPane(iconGrid), BorderLayout.CENTER);
         return panel;
     }
 
-    private JButton createIconButton(String iconName, String baseName) {
-        JButton button = new JButton(new ImageIcon(iconCache.get(baseName)));
+    private JButton createIconButton(int iconIndex, String baseName) {
+        JButton button = new JButton(paletteIcons.getIcon(iconIndex));
         button.setToolTipText(baseName);
         button.setBorder(BorderFactory.createEmptyBorder());
         button.setContentAreaFilled(false);
@@ -998,17 +1261,47 @@ public class BurpExtender implements IBurpExtender, ITab {
 
         button.addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) {
-                DraggableIcon draggableIcon = new DraggableIcon(new ImageIcon(iconCache.get(baseName)), baseName);
-                draggableIcon.setSize(48, 48);
-                draggableIcon.setLocation(10, 10);
-                drawingPanel.addIcon(draggableIcon);
+                diagramModel.addNode(baseName, 10, 10);
             }
         });
 
         return button;
     }
 
-    
+    private void paletteIconLoaded(int index, BufferedImage image) {
+        if (image == null) {
+            // Devices using a missing icon still need something to draw
+            iconCache.put(IconCache.keyOf(paletteIcons.getName(index)), createPlaceholderIcon());
+        }
+        iconPanel.repaint();
+        if (diagramModel.getNodeCount() > 0) {
+            drawingPanel.repaintDiagram();
+        }
+    }
+
+    /**
+     * Shows the toolbar icon's placeholder right away; the button falls back
+     * to its text if the icon turns out to be missing.
+     */
+    private void setToolbarIcon(AbstractButton button, String iconName) {
+        int index = toolbarIcons.add(iconName);
+        toolbarIconButtons.computeIfAbsent(index, k -> new ArrayList<>()).add(button);
+        button.putClientProperty(ICON_FALLBACK_TEXT, button.getText());
+        button.setIcon(toolbarIcons.getIcon(index));
+        button.setText("");
+    }
+
+    private void toolbarIconLoaded(int index, BufferedImage image) {
+        for (AbstractButton button : toolbarIconButtons.remove(index)) {
+            if (image == null) {
+                button.setIcon(null);
+                button.setText((String) button.getClientProperty(ICON_FALLBACK_TEXT));
+            }
+            button.putClientProperty(ICON_FALLBACK_TEXT, null);
+            button.repaint();
+        }
+    }
+
     private BufferedImage createPlaceholderIcon() {
         BufferedImage img = new BufferedImage(24, 24, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = img.createGraphics();
@@ -1021,6 +1314,23 @@ public class BurpExtender implements IBurpExtender, ITab {
         return img;
     }
 
+    @Override
+    public void extensionUnloaded() {
+        exportExecutor.shutdownNow();
+        iconLoader.shutdown();
+        edgeRouter.shutdown();
+        layoutEngine.shutdown();
+        if (trafficMonitor != null) {
+            callbacks.removeHttpListener(trafficMonitor);
+            trafficMonitor.shutdown();
+        }
+        if (notesAutosaveTimer != null && notesAutosaveTimer.isRunning() && SwingUtilities.isEventDispatchThread()) {
+            notesAutosaveTimer.stop();
+            journal.notesChanged(currentNotesHtml());
+        }
+        journal.close(5000);
+    }
+
     @Override
     public String getTabCaption() {
         return "Schematics";
@@ -1031,18 +1341,6 @@ public class BurpExtender implements IBurpExtender, ITab {
         return mainPanel;
     }
 
-    private ImageIcon getScaledIcon(String iconName, int width, int height) {
-        try {
-            BufferedImage originalImage = ImageIO.read(getClass().getResource("/icons/" + iconName));
-            if (originalImage != null) {
-                Image scaledImage = originalImage.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-                return new ImageIcon(scaledImage);
-            }
-        } catch (Exception e) {
-        }
-        return null;
-    }
-
     private static class ArrowIcon implements Icon {
         private final boolean expanded;
 
@@ -0,0 +1,295 @@
+package burpeditor.batch;
+
+import burpeditor.canvas.DrawingPanel;
+import burpeditor.export.ExportProgress;
+import burpeditor.export.PDFExporter;
+import burpeditor.export.PNGExporter;
+import burpeditor.io.Project;
+import burpeditor.io.ProjectFile;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Node;
+import burpeditor.render.DiagramRenderer;
+import burpeditor.render.IconCache;
+import burpeditor.render.IconLoader;
+import burpeditor.routing.EdgeRouter;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import java.awt.Dimension;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports saved projects from the command line, without Burp, e.g. to render
+ * every diagram of an engagement for a report:
+ * <pre>
+ * java -cp schematics.jar burpeditor.batch.BatchExport [options] project.bsch|directory ...
+ * </pre>
+ * Runs headless. Projects are exported in parallel, one per pool thread,
+ * with the same code the extension uses: each is read, its lines routed,
+ * and then written as PNG, PDF or both. Diagrams render on the pool
+ * threads; the notes are a Swing text component, so they are laid out and
+ * painted on the EDT. Prints one line per project with the time each step
+ * took, and exits with status 1 if any project failed.
+ */
+public final class BatchExport {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchExport [options] project.bsch|directory ...",
+            "  --format png|pdf|both  what to write (default png)",
+            "  --out DIR              where to write (default: next to each project)",
+            "  --threads N            projects exported at once (default: one per core)",
+            "  --poster SCALE         print diagrams too large for one PDF page as a poster",
+            "                         at this scale, e.g. 1 for 100% (default: fit on the page)");
+
+    private final boolean png;
+    private final boolean pdf;
+    private final File outDir;
+    private final float posterScale;
+    private final IconCache icons = new IconCache();
+    private final IconLoader iconLoader = new IconLoader("/icons/", icons);
+
+    private BatchExport(boolean png, boolean pdf, File outDir, float posterScale) {
+        this.png = png;
+        this.pdf = pdf;
+        this.outDir = outDir;
+        this.posterScale = posterScale;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        String format = "png";
+        File outDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        float posterScale = PDFExporter.FIT_TO_PAGE;
+        List<File> projects = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = args[++i].toLowerCase(Locale.ROOT);
+                        break;
+                    case "--out":
+                        outDir = new File(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--poster":
+                        posterScale = Float.parseFloat(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        addProjects(new File(args[i]), projects);
+                        break;
+                }
+            }
+            if (!Arrays.asList("png", "pdf", "both").contains(format)) {
+                throw new IllegalArgumentException("Unknown format " + format);
+            }
+            if (threads < 1 || posterScale < 0) {
+                throw new IllegalArgumentException("Threads and poster scale must be positive");
+            }
+            if (projects.isEmpty()) {
+                throw new IllegalArgumentException("No projects given");
+            }
+            if (outDir != null) {
+                checkNamesUnique(projects);
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (outDir != null && !outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("Cannot create " + outDir);
+            System.exit(2);
+            return;
+        }
+
+        BatchExport batch = new BatchExport(!"pdf".equals(format), !"png".equals(format), outDir, posterScale);
+        int failed = batch.run(projects, Math.min(threads, projects.size()));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static void addProjects(File path, List<File> projects) {
+        if (path.isDirectory()) {
+            File[] files = path.listFiles((dir, name) ->
+                    name.toLowerCase(Locale.ROOT).endsWith("." + ProjectFile.EXTENSION));
+            if (files != null) {
+                Arrays.sort(files);
+                projects.addAll(Arrays.asList(files));
+            }
+        } else if (path.isFile()) {
+            projects.add(path);
+        } else {
+            throw new IllegalArgumentException("No such file or directory: " + path);
+        }
+    }
+
+    /**
+     * Rejects projects that would be written to the same file in the output
+     * directory, e.g. {@code a/net.bsch} and {@code b/net.bsch}. Names are
+     * compared ignoring case, as on Windows and macOS.
+     */
+    private static void checkNamesUnique(List<File> projects) {
+        Map<String, File> names = new HashMap<>();
+        for (File project : projects) {
+            File other = names.putIfAbsent(baseName(project).toLowerCase(Locale.ROOT), project);
+            if (other != null) {
+                throw new IllegalArgumentException("Both " + other + " and " + project
+                        + " would be exported as " + baseName(project) + "; export them to separate directories");
+            }
+        }
+    }
+
+    /**
+     * Returns the project's file name without the project extension.
+     */
+    private static String baseName(File project) {
+        String name = project.getName();
+        if (name.toLowerCase(Locale.ROOT).endsWith("." + ProjectFile.EXTENSION)) {
+            name = name.substring(0, name.length() - ProjectFile.EXTENSION.length() - 1);
+        }
+        return name;
+    }
+
+    /**
+     * Exports every project and returns how many failed.
+     */
+    private int run(List<File> projects, int threads) {
+        long start = System.nanoTime();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Schematics batch export " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<String> results = new ExecutorCompletionService<>(pool);
+        for (File project : projects) {
+            results.submit(() -> export(project));
+        }
+        int failed = 0;
+        try {
+            for (int i = 0; i < projects.size(); i++) {
+                try {
+                    System.out.println(results.take().get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            iconLoader.shutdown();
+        }
+        System.out.printf("Exported %,d of %,d projects in %,d ms on %d threads%n",
+                projects.size() - failed, projects.size(), millis(start), threads);
+        return failed;
+    }
+
+    /**
+     * Exports one project and returns its report line; failures are thrown
+     * with the project's name in the message.
+     */
+    private String export(File file) throws Exception {
+        StringBuilder report = new StringBuilder(file.getName()).append(':');
+        try {
+            long start = System.nanoTime();
+            Project project = ProjectFile.read(file);
+            DiagramModel model = new DiagramModel();
+            model.setState(project.getDiagram());
+            report.append(String.format(" read %,d ms", millis(start)));
+
+            start = System.nanoTime();
+            EdgeRouter.routeAll(model);
+            Set<String> iconKeys = new HashSet<>();
+            for (Node node : model.getNodes()) {
+                if (iconKeys.add(node.getIconKey())) {
+                    iconLoader.loadNow(node.getIconKey() + ".png");
+                }
+            }
+            report.append(String.format(", route %,d ms", millis(start)));
+
+            Dimension diagramSize = DrawingPanel.getDiagramSize(model);
+            JTextPane notes = notesPane(project.getNotesHtml(), diagramSize.width);
+            String name = baseName(file);
+            File dir = outDir != null ? outDir : file.getAbsoluteFile().getParentFile();
+
+            if (png) {
+                start = System.nanoTime();
+                File out = PNGExporter.exportTiled(diagramSize.width, diagramSize.height + notes.getHeight(),
+                        PNGExporter.diagramWithNotes(new DiagramRenderer(icons), model, diagramSize, notes),
+                        new File(dir, name + ".png"), ExportProgress.NONE);
+                report.append(String.format(", %s %,d ms (%,d KB)", out.getName(), millis(start), out.length() / 1024));
+            }
+            if (pdf) {
+                start = System.nanoTime();
+                float scale = PDFExporter.fitsOnPage(diagramSize) ? PDFExporter.FIT_TO_PAGE : posterScale;
+                String[] cost = { null };
+                File out = PDFExporter.exportToPDF(model, diagramSize, icons, scale,
+                        (HTMLDocument) notes.getDocument(), (HTMLEditorKit) notes.getEditorKit(),
+                        new File(dir, name + ".pdf"), new ExportProgress() {
+                            @Override
+                            public void update(int percent, String message) {
+                            }
+
+                            @Override
+                            public boolean isCancelled() {
+                                return false;
+                            }
+
+                            @Override
+                            public void report(String statistics) {
+                                cost[0] = statistics;
+                            }
+                        });
+                report.append(String.format(", %s %,d ms (%,d KB, %s)", out.getName(), millis(start),
+                        out.length() / 1024, cost[0]));
+            }
+            return report.toString();
+        } catch (Exception e) {
+            throw new Exception(report + " failed: " + e, e);
+        }
+    }
+
+    /**
+     * Lays the notes out on the EDT at the export's width, as the notes pane
+     * would show them below the diagram.
+     */
+    private static JTextPane notesPane(String html, int width) throws InterruptedException, InvocationTargetException {
+        JTextPane[] pane = new JTextPane[1];
+        SwingUtilities.invokeAndWait(() -> {
+            JTextPane notes = new JTextPane();
+            notes.setContentType("text/html");
+            notes.setText(html);
+            notes.setSize(width, Short.MAX_VALUE);
+            notes.setSize(width, notes.getPreferredSize().height);
+            pane[0] = notes;
+        });
+        return pane[0];
+    }
+
+    private static long millis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
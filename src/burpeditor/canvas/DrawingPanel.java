@@ -0,0 +1,729 @@
+package burpeditor.canvas;
+
+import burpeditor.model.DiagramListener;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Edge;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import burpeditor.render.DiagramRenderer;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Canvas for the network diagram. Devices and lines live in a
+ * {@link DiagramModel} and are painted directly from the shared icon images;
+ * a single set of mouse handlers on the panel does hit-testing, dragging and
+ * line drawing, so the panel has no child components regardless of diagram size.
+ * <p>
+ * Painting is layered: settled lines and devices are rendered into a cached
+ * image covering the visible area, which is only re-rendered where the model
+ * changes. Transient state (the line being drawn, hover, selection and the
+ * rubber band) is drawn on top of that image on every frame.
+ * <p>
+ * All geometry stays in model coordinates. A single view transform maps the
+ * model onto the panel, and the enclosing scroll pane pans over the result;
+ * zooming changes only that transform, never the nodes. Ctrl/Cmd + wheel
+ * zooms around the cursor and dragging with the middle button pans.
+ */
+public class DrawingPanel extends JPanel {
+    private static final int MIN_WIDTH = 800;
+    private static final int MIN_HEIGHT = 600;
+    private static final int LINE_PICK_TOLERANCE = 4;
+    private static final int DIRTY_MARGIN = 3;
+    private static final Color SELECTION_COLOR = new Color(255, 140, 0);
+    private static final Color HOVER_COLOR = new Color(100, 150, 255);
+    private static final Color RUBBER_BAND_FILL = new Color(100, 150, 255, 40);
+    private static final double MIN_SCALE = 0.05;
+    private static final double MAX_SCALE = 8.0;
+    private static final double ZOOM_STEP = 1.25;
+    private static final double WHEEL_ZOOM_STEP = 1.1;
+
+    private final DiagramModel model;
+    private final DiagramRenderer renderer;
+    private final JPopupMenu nodeMenu = new JPopupMenu();
+    private final JPopupMenu edgeMenu = new JPopupMenu();
+    private final Set<Node> selectedNodes = new LinkedHashSet<>();
+    private final BitSet selectedEdges = new BitSet();
+    private final RepaintScheduler repaints = new RepaintScheduler(this);
+    private final AffineTransform view = new AffineTransform();
+    private final AffineTransform inverseView = new AffineTransform();
+    private boolean drawingLine;
+    private Point lineStart;
+    private Node lineStartNode;
+    private Line2D currentLine;
+    private Node draggedNode;
+    private Node hoverNode;
+    private int hoverEdge = EdgeStore.NONE;
+    private int menuEdge = EdgeStore.NONE;
+    private Point bandStart;
+    private Rectangle rubberBand;
+    private int anchorX;
+    private int anchorY;
+    private Point panStart;
+    private Function<Node, String> nodeTips;
+    private IntFunction<String> edgeTips;
+    private BufferedImage staticLayer;
+    private Rectangle layerBounds;
+    private Rectangle staleArea;
+
+    public DrawingPanel(DiagramModel model, DiagramRenderer renderer) {
+        this.model = model;
+        this.renderer = renderer;
+        setOpaque(false);
+        setLayout(null);
+        setFocusable(true);
+
+        JMenuItem deleteItem = new JMenuItem("Delete");
+        deleteItem.addActionListener(e -> deleteSelection());
+        nodeMenu.add(deleteItem);
+
+        JMenuItem deleteLineItem = new JMenuItem("Delete Line");
+        deleteLineItem.addActionListener(e -> {
+            if (menuEdge != EdgeStore.NONE) {
+                model.removeEdge(menuEdge);
+                menuEdge = EdgeStore.NONE;
+            }
+        });
+        edgeMenu.add(deleteLineItem);
+
+        getInputMap(WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "deleteSelection");
+        getInputMap(WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0), "deleteSelection");
+        getActionMap().put("deleteSelection", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                deleteSelection();
+            }
+        });
+
+        model.addListener(new DiagramListener() {
+            @Override
+            public void nodeAdded(Node node) {
+                revalidate();
+                invalidateStatic(node.getBounds());
+            }
+
+            @Override
+            public void nodeMoved(Node node, int oldX, int oldY) {
+                Rectangle area = new Rectangle(oldX, oldY, Node.SIZE, Node.SIZE);
+                area.add(node.getBounds());
+                invalidateStatic(area);
+            }
+
+            @Override
+            public void nodeRemoved(Node node) {
+                selectedNodes.remove(node);
+                if (hoverNode == node) {
+                    hoverNode = null;
+                }
+                revalidate();
+                invalidateStatic(node.getBounds());
+            }
+
+            @Override
+            public void edgeAdded(int edge) {
+                invalidateStatic(model.getEdges().getBounds(edge));
+            }
+
+            @Override
+            public void edgeRemoved(Edge edge) {
+                selectedEdges.clear(edge.getHandle());
+                if (hoverEdge == edge.getHandle()) {
+                    hoverEdge = EdgeStore.NONE;
+                }
+                invalidateStatic(edge.getBounds());
+            }
+
+            @Override
+            public void edgeChanged(int edge, Rectangle oldBounds) {
+                Rectangle area = model.getEdges().getBounds(edge);
+                area.add(oldBounds);
+                invalidateStatic(area);
+            }
+
+            @Override
+            public void diagramCleared() {
+                selectedNodes.clear();
+                selectedEdges.clear();
+                hoverNode = null;
+                hoverEdge = EdgeStore.NONE;
+                staticLayer = null;
+                revalidate();
+                repaint();
+            }
+
+            @Override
+            public void diagramReplaced() {
+                diagramCleared();
+            }
+        });
+
+        MouseAdapter mouseHandler = new MouseHandler();
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+        addMouseWheelListener(mouseHandler);
+    }
+
+    public DiagramModel getModel() {
+        return model;
+    }
+
+    public double getScale() {
+        return view.getScaleX();
+    }
+
+    /**
+     * Zooms so that the model point under {@code viewAnchor} (in panel
+     * coordinates) stays where it is on screen.
+     */
+    public void setScale(double scale, Point viewAnchor) {
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+        if (scale == getScale()) {
+            return;
+        }
+        Point2D modelAnchor = inverseView.transform(viewAnchor, null);
+        view.setToScale(scale, scale);
+        inverseView.setToScale(1 / scale, 1 / scale);
+        staticLayer = null;
+
+        if (getParent() instanceof JViewport) {
+            // Resize and reposition in one step so the anchor never visibly jumps
+            JViewport viewport = (JViewport) getParent();
+            Point viewPosition = viewport.getViewPosition();
+            Point2D anchor = view.transform(modelAnchor, null);
+            Dimension size = getPreferredSize();
+            Dimension extent = viewport.getExtentSize();
+            int x = (int) Math.round(anchor.getX() - (viewAnchor.x - viewPosition.x));
+            int y = (int) Math.round(anchor.getY() - (viewAnchor.y - viewPosition.y));
+            viewport.setViewSize(size);
+            viewport.setViewPosition(new Point(
+                    Math.max(0, Math.min(x, size.width - extent.width)),
+                    Math.max(0, Math.min(y, size.height - extent.height))));
+        }
+        revalidate();
+        repaint();
+    }
+
+    public void zoomIn() {
+        setScale(getScale() * ZOOM_STEP, visibleCenter());
+    }
+
+    public void zoomOut() {
+        setScale(getScale() / ZOOM_STEP, visibleCenter());
+    }
+
+    public void resetZoom() {
+        setScale(1.0, visibleCenter());
+    }
+
+    private Point visibleCenter() {
+        Rectangle visible = getVisibleRect();
+        return new Point((int) visible.getCenterX(), (int) visible.getCenterY());
+    }
+
+    /**
+     * Re-renders the whole diagram, e.g. after icon images changed underneath
+     * the renderer.
+     */
+    public void repaintDiagram() {
+        staticLayer = null;
+        repaint();
+    }
+
+    /**
+     * Menu shown when right-clicking a device, for adding actions on
+     * {@link #getSelectedNodes()}.
+     */
+    public JPopupMenu getNodeMenu() {
+        return nodeMenu;
+    }
+
+    public Set<Node> getSelectedNodes() {
+        return Collections.unmodifiableSet(selectedNodes);
+    }
+
+    /**
+     * Sets where hovering a device looks up its tooltip; a null tip shows none.
+     */
+    public void setNodeTips(Function<Node, String> nodeTips) {
+        this.nodeTips = nodeTips;
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    /**
+     * Sets where hovering a line looks up its tooltip, by edge handle.
+     */
+    public void setEdgeTips(IntFunction<String> edgeTips) {
+        this.edgeTips = edgeTips;
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        Point p = toModel(e.getPoint());
+        Node node = model.nodeAt(p.x, p.y);
+        if (node != null) {
+            return nodeTips == null ? null : nodeTips.apply(node);
+        }
+        if (edgeTips == null) {
+            return null;
+        }
+        int edge = edgeAt(p.x, p.y);
+        return edge == EdgeStore.NONE ? null : edgeTips.apply(edge);
+    }
+
+    public void setDrawingLine(boolean drawingLine) {
+        this.drawingLine = drawingLine;
+        lineStart = null;
+        lineStartNode = null;
+        currentLine = null;
+        setCursor(Cursor.getPredefinedCursor(drawingLine ? Cursor.CROSSHAIR_CURSOR : Cursor.DEFAULT_CURSOR));
+        repaint();
+    }
+
+    public void deleteSelection() {
+        model.beginUpdate("Delete");
+        try {
+            if (!selectedEdges.isEmpty()) {
+                model.removeEdges((BitSet) selectedEdges.clone());
+            }
+            if (!selectedNodes.isEmpty()) {
+                model.removeNodes(new ArrayList<>(selectedNodes));
+            }
+        } finally {
+            model.endUpdate();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Rectangle visible = getVisibleRect();
+        if (visible.isEmpty()) {
+            return;
+        }
+        updateStaticLayer(visible);
+        g.drawImage(staticLayer, layerBounds.x, layerBounds.y, null);
+
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.transform(view);
+        float stroke = (float) (DiagramRenderer.EDGE_WIDTH / getScale());
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(model.getExtent());
+        }
+        clip.grow(DIRTY_MARGIN, DIRTY_MARGIN);
+
+        EdgeStore edges = model.getEdges();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setStroke(new BasicStroke(stroke));
+        if (currentLine != null) {
+            g2d.setColor(DiagramRenderer.EDGE_STYLE_COLORS[EdgeStore.DEFAULT_STYLE]);
+            g2d.draw(currentLine);
+        }
+        g2d.setStroke(new BasicStroke(stroke * 2));
+        if (hoverEdge != EdgeStore.NONE && !selectedEdges.get(hoverEdge)) {
+            Path2D.Float hoverPath = new Path2D.Float();
+            edges.appendTo(hoverEdge, hoverPath);
+            g2d.setColor(HOVER_COLOR);
+            g2d.draw(hoverPath);
+        }
+        if (!selectedEdges.isEmpty()) {
+            Path2D.Float selectedPath = new Path2D.Float();
+            for (int edge = selectedEdges.nextSetBit(0); edge >= 0; edge = selectedEdges.nextSetBit(edge + 1)) {
+                if (clip.intersects(edges.getBounds(edge))) {
+                    edges.appendTo(edge, selectedPath);
+                }
+            }
+            g2d.setColor(SELECTION_COLOR);
+            g2d.draw(selectedPath);
+        }
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.setStroke(new BasicStroke(stroke / 2));
+        if (hoverNode != null && !selectedNodes.contains(hoverNode)) {
+            g2d.setColor(HOVER_COLOR);
+            g2d.drawRect(hoverNode.getX(), hoverNode.getY(), Node.SIZE, Node.SIZE);
+        }
+        g2d.setColor(SELECTION_COLOR);
+        for (Node node : selectedNodes) {
+            if (clip.intersects(node.getX(), node.getY(), Node.SIZE, Node.SIZE)) {
+                g2d.drawRect(node.getX(), node.getY(), Node.SIZE, Node.SIZE);
+            }
+        }
+        if (rubberBand != null) {
+            g2d.setColor(RUBBER_BAND_FILL);
+            g2d.fill(rubberBand);
+            g2d.setColor(HOVER_COLOR);
+            g2d.draw(rubberBand);
+        }
+        g2d.dispose();
+    }
+
+    /**
+     * Brings the cached static layer in line with the visible area. Scrolling
+     * shifts the existing pixels and renders only the newly exposed strips;
+     * otherwise only areas invalidated by model changes are re-rendered.
+     */
+    private void updateStaticLayer(Rectangle visible) {
+        if (staticLayer == null || staticLayer.getWidth() != visible.width
+                || staticLayer.getHeight() != visible.height) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            staticLayer = gc != null
+                    ? gc.createCompatibleImage(visible.width, visible.height, Transparency.TRANSLUCENT)
+                    : new BufferedImage(visible.width, visible.height, BufferedImage.TYPE_INT_ARGB_PRE);
+            layerBounds = new Rectangle(visible);
+            staleArea = null;
+            renderStatic(visible);
+        } else if (!visible.equals(layerBounds)) {
+            Rectangle previous = layerBounds;
+            layerBounds = new Rectangle(visible);
+            Rectangle kept = previous.intersection(visible);
+            if (kept.isEmpty()) {
+                renderStatic(visible);
+            } else {
+                Graphics2D lg = staticLayer.createGraphics();
+                lg.setComposite(AlphaComposite.Src);
+                lg.copyArea(kept.x - previous.x, kept.y - previous.y, kept.width, kept.height,
+                        previous.x - visible.x, previous.y - visible.y);
+                lg.dispose();
+                if (visible.y < kept.y) {
+                    renderStatic(new Rectangle(visible.x, visible.y, visible.width, kept.y - visible.y));
+                }
+                if (visible.y + visible.height > kept.y + kept.height) {
+                    int top = kept.y + kept.height;
+                    renderStatic(new Rectangle(visible.x, top, visible.width, visible.y + visible.height - top));
+                }
+                if (visible.x < kept.x) {
+                    renderStatic(new Rectangle(visible.x, kept.y, kept.x - visible.x, kept.height));
+                }
+                if (visible.x + visible.width > kept.x + kept.width) {
+                    int left = kept.x + kept.width;
+                    renderStatic(new Rectangle(left, kept.y, visible.x + visible.width - left, kept.height));
+                }
+            }
+        }
+        if (staleArea != null) {
+            Rectangle area = staleArea.intersection(layerBounds);
+            staleArea = null;
+            if (!area.isEmpty()) {
+                renderStatic(area);
+            }
+        }
+    }
+
+    private void renderStatic(Rectangle viewArea) {
+        Graphics2D lg = staticLayer.createGraphics();
+        lg.translate(-layerBounds.x, -layerBounds.y);
+        lg.clip(viewArea);
+        lg.setComposite(AlphaComposite.Clear);
+        lg.fill(viewArea);
+        lg.setComposite(AlphaComposite.SrcOver);
+        lg.transform(view);
+        Rectangle modelClip = lg.getClipBounds();
+        modelClip.grow(DIRTY_MARGIN, DIRTY_MARGIN);
+        renderer.paint(lg, model, modelClip, getScale());
+        lg.dispose();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        Dimension size = getDiagramSize();
+        Rectangle bounds = view.createTransformedShape(new Rectangle(size)).getBounds();
+        return new Dimension(bounds.x + bounds.width, bounds.y + bounds.height);
+    }
+
+    /**
+     * Unscaled size of the drawing area: the diagram extent, but never
+     * smaller than the default canvas.
+     */
+    public Dimension getDiagramSize() {
+        return getDiagramSize(model);
+    }
+
+    /**
+     * The drawing area a panel would give {@code model}, for exports made
+     * without a panel.
+     */
+    public static Dimension getDiagramSize(DiagramModel model) {
+        Dimension extent = model.getExtent();
+        return new Dimension(Math.max(MIN_WIDTH, extent.width), Math.max(MIN_HEIGHT, extent.height));
+    }
+
+    /**
+     * Schedules a repaint of a model-space area, padded for strokes and
+     * highlight outlines, on the next display frame.
+     */
+    private void invalidate(Rectangle modelArea) {
+        repaints.add(toView(modelArea));
+    }
+
+    /**
+     * Like {@link #invalidate}, but for settled content: the area is also
+     * re-rendered into the static layer before the next blit.
+     */
+    private void invalidateStatic(Rectangle modelArea) {
+        Rectangle viewArea = toView(modelArea);
+        if (staleArea == null) {
+            staleArea = viewArea;
+        } else {
+            staleArea.add(viewArea);
+        }
+        repaints.add(viewArea);
+    }
+
+    private Rectangle toView(Rectangle modelArea) {
+        Rectangle viewArea = view.createTransformedShape(modelArea).getBounds();
+        viewArea.grow(DIRTY_MARGIN * 2, DIRTY_MARGIN * 2);
+        return viewArea;
+    }
+
+    private Point toModel(Point viewPoint) {
+        Point2D modelPoint = inverseView.transform(viewPoint, null);
+        return new Point((int) Math.round(modelPoint.getX()), (int) Math.round(modelPoint.getY()));
+    }
+
+    private void invalidateHover() {
+        if (hoverNode != null) {
+            invalidate(hoverNode.getBounds());
+        }
+        if (hoverEdge != EdgeStore.NONE) {
+            invalidate(model.getEdges().getBounds(hoverEdge));
+        }
+    }
+
+    private int edgeAt(int x, int y) {
+        int tolerance = (int) Math.ceil(LINE_PICK_TOLERANCE / getScale());
+        return model.edgeAt(x, y, tolerance);
+    }
+
+    private void selectArea(Rectangle area, boolean extend) {
+        if (!extend) {
+            selectedNodes.clear();
+            selectedEdges.clear();
+        }
+        selectedNodes.addAll(model.nodesIn(area));
+        EdgeStore edges = model.getEdges();
+        model.edgesIn(area, edge -> {
+            if (area.contains(edges.getBounds(edge))) {
+                selectedEdges.set(edge);
+            }
+        });
+    }
+
+    private class MouseHandler extends MouseAdapter {
+        @Override
+        public void mousePressed(MouseEvent e) {
+            requestFocusInWindow();
+            if (SwingUtilities.isMiddleMouseButton(e)) {
+                panStart = e.getLocationOnScreen();
+                setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+                return;
+            }
+            Point p = toModel(e.getPoint());
+            int x = p.x;
+            int y = p.y;
+            if (drawingLine) {
+                // Lines drawn from one device to another stay attached to both
+                lineStartNode = model.nodeAt(x, y);
+                lineStart = lineStartNode != null
+                        ? new Point(DiagramModel.centerX(lineStartNode), DiagramModel.centerY(lineStartNode))
+                        : new Point(x, y);
+                return;
+            }
+            boolean extend = e.isShiftDown();
+            Node node = model.nodeAt(x, y);
+            int edge = node == null ? edgeAt(x, y) : EdgeStore.NONE;
+
+            if (SwingUtilities.isRightMouseButton(e)) {
+                if (node != null) {
+                    if (!selectedNodes.contains(node)) {
+                        selectedNodes.clear();
+                        selectedEdges.clear();
+                        selectedNodes.add(node);
+                    }
+                    nodeMenu.show(DrawingPanel.this, e.getX(), e.getY());
+                } else if (edge != EdgeStore.NONE) {
+                    menuEdge = edge;
+                    edgeMenu.show(DrawingPanel.this, e.getX(), e.getY());
+                }
+                repaint();
+                return;
+            }
+
+            if (node != null) {
+                if (extend) {
+                    if (!selectedNodes.remove(node)) {
+                        selectedNodes.add(node);
+                    }
+                } else if (!selectedNodes.contains(node)) {
+                    selectedNodes.clear();
+                    selectedEdges.clear();
+                    selectedNodes.add(node);
+                }
+                if (selectedNodes.contains(node)) {
+                    // The whole drag undoes as one move
+                    model.beginUpdate("Move");
+                    draggedNode = node;
+                    anchorX = x - node.getX();
+                    anchorY = y - node.getY();
+                }
+            } else if (edge != EdgeStore.NONE) {
+                if (!extend) {
+                    selectedNodes.clear();
+                    selectedEdges.clear();
+                }
+                if (extend) {
+                    selectedEdges.flip(edge);
+                } else {
+                    selectedEdges.set(edge);
+                }
+            } else {
+                if (!extend) {
+                    selectedNodes.clear();
+                    selectedEdges.clear();
+                }
+                bandStart = new Point(x, y);
+            }
+            repaint();
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            if (panStart != null) {
+                Point screen = e.getLocationOnScreen();
+                Rectangle visible = getVisibleRect();
+                visible.translate(panStart.x - screen.x, panStart.y - screen.y);
+                scrollRectToVisible(visible);
+                panStart = screen;
+                return;
+            }
+            Point p = toModel(e.getPoint());
+            int x = p.x;
+            int y = p.y;
+            if (drawingLine) {
+                if (lineStart != null) {
+                    if (currentLine != null) {
+                        invalidate(currentLine.getBounds());
+                    }
+                    currentLine = new Line2D.Float(lineStart.x, lineStart.y, x, y);
+                    invalidate(currentLine.getBounds());
+                }
+            } else if (draggedNode != null && !SwingUtilities.isRightMouseButton(e)) {
+                int dx = Math.max(0, x - anchorX) - draggedNode.getX();
+                int dy = Math.max(0, y - anchorY) - draggedNode.getY();
+                for (Node node : selectedNodes) {
+                    dx = Math.max(dx, -node.getX());
+                    dy = Math.max(dy, -node.getY());
+                }
+                if (dx != 0 || dy != 0) {
+                    for (Node node : selectedNodes) {
+                        model.moveNode(node, node.getX() + dx, node.getY() + dy);
+                    }
+                }
+            } else if (bandStart != null) {
+                if (rubberBand != null) {
+                    invalidate(rubberBand);
+                }
+                rubberBand = new Rectangle(bandStart);
+                rubberBand.add(new Point(x, y));
+                invalidate(rubberBand);
+            }
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            if (panStart != null) {
+                if (SwingUtilities.isMiddleMouseButton(e)) {
+                    panStart = null;
+                    setCursor(Cursor.getPredefinedCursor(drawingLine ? Cursor.CROSSHAIR_CURSOR : Cursor.DEFAULT_CURSOR));
+                }
+                return;
+            }
+            if (drawingLine) {
+                if (lineStart != null) {
+                    if (currentLine != null) {
+                        invalidate(currentLine.getBounds());
+                    }
+                    Point end = toModel(e.getPoint());
+                    Node endNode = model.nodeAt(end.x, end.y);
+                    if (lineStartNode != null && endNode != null && endNode != lineStartNode) {
+                        model.connect(lineStartNode, endNode);
+                    } else {
+                        model.addEdge(lineStart.x, lineStart.y, end.x, end.y);
+                    }
+                    lineStart = null;
+                    lineStartNode = null;
+                    currentLine = null;
+                }
+            } else if (draggedNode != null) {
+                draggedNode = null;
+                model.endUpdate();
+                revalidate();
+            } else if (bandStart != null) {
+                if (rubberBand != null) {
+                    selectArea(rubberBand, e.isShiftDown());
+                }
+                bandStart = null;
+                rubberBand = null;
+                repaint();
+            }
+        }
+
+        @Override
+        public void mouseMoved(MouseEvent e) {
+            if (drawingLine) {
+                return;
+            }
+            Point p = toModel(e.getPoint());
+            Node node = model.nodeAt(p.x, p.y);
+            int edge = node == null ? edgeAt(p.x, p.y) : EdgeStore.NONE;
+            if (node != hoverNode || edge != hoverEdge) {
+                invalidateHover();
+                hoverNode = node;
+                hoverEdge = edge;
+                invalidateHover();
+                setCursor(Cursor.getPredefinedCursor(
+                        node != null || edge != EdgeStore.NONE ? Cursor.HAND_CURSOR : Cursor.DEFAULT_CURSOR));
+            }
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            if ((e.getModifiersEx() & Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()) == 0) {
+                // Plain wheel scrolls as usual
+                Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, DrawingPanel.this);
+                if (scrollPane != null) {
+                    scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(DrawingPanel.this, e, scrollPane));
+                }
+                return;
+            }
+            setScale(getScale() * Math.pow(WHEEL_ZOOM_STEP, -e.getPreciseWheelRotation()), e.getPoint());
+        }
+
+        @Override
+        public void mouseExited(MouseEvent e) {
+            if (hoverNode != null || hoverEdge != EdgeStore.NONE) {
+                invalidateHover();
+                hoverNode = null;
+                hoverEdge = EdgeStore.NONE;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package burpeditor.canvas;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+
+/**
+ * Collects dirty regions of a component and repaints their union at most once
+ * per display frame. Bursts of mouse events during a drag therefore cost one
+ * clipped repaint per frame instead of one full repaint per event.
+ */
+public class RepaintScheduler {
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final JComponent component;
+    private final Timer timer;
+    private Rectangle dirty;
+
+    public RepaintScheduler(JComponent component) {
+        this.component = component;
+        this.timer = new Timer(1000 / refreshRate(), e -> flush());
+        this.timer.setRepeats(false);
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * Marks a region, in component coordinates, for repaint on the next frame.
+     */
+    public void add(Rectangle region) {
+        if (region == null || region.isEmpty()) {
+            return;
+        }
+        if (dirty == null) {
+            dirty = new Rectangle(region);
+        } else {
+            dirty.add(region);
+        }
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    public void flush() {
+        timer.stop();
+        if (dirty != null) {
+            Rectangle region = dirty;
+            dirty = null;
+            component.repaint(region);
+        }
+    }
+
+    private static int refreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return DEFAULT_REFRESH_RATE;
+        }
+        try {
+            DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDisplayMode();
+            int rate = mode.getRefreshRate();
+            return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+        } catch (Exception e) {
+            return DEFAULT_REFRESH_RATE;
+        }
+    }
+}
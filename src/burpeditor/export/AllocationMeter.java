@@ -0,0 +1,92 @@
+package burpeditor.export;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures what one export costs in memory: the bytes allocated by the
+ * thread that created the meter and by any helper threads run through
+ * {@link #track(Runnable)}, and the peak heap use from creation until
+ * {@link #stop()}. Allocation is counted per thread, so exports running at
+ * the same time do not show up in each other's figures. The peak is sampled
+ * every {@link #SAMPLE_MILLIS} ms from the JVM-wide heap, so it includes
+ * garbage not yet collected and anything else running meanwhile; what it
+ * shows is whether the live set grows with the export.
+ */
+final class AllocationMeter {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final long SAMPLE_MILLIS = 10;
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Schematics heap sampler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long thread = Thread.currentThread().getId();
+    private final long start = allocated(thread);
+    private final LongAdder helpers = new LongAdder();
+    private final long startHeap = heapUsed();
+    private final LongAccumulator peakHeap = new LongAccumulator(Math::max, startHeap);
+    private final ScheduledFuture<?> sampling = SAMPLER.scheduleAtFixedRate(
+            () -> peakHeap.accumulate(heapUsed()), SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    private long allocated = -1;
+
+    /**
+     * Runs a helper's work on the calling thread, counting what it allocates.
+     */
+    void track(Runnable work) {
+        long id = Thread.currentThread().getId();
+        long before = allocated(id);
+        try {
+            work.run();
+        } finally {
+            if (before >= 0) {
+                helpers.add(allocated(id) - before);
+            }
+        }
+    }
+
+    /**
+     * Ends the measurement. Must be called on the thread that created the
+     * meter.
+     */
+    void stop() {
+        sampling.cancel(false);
+        peakHeap.accumulate(heapUsed());
+        if (start >= 0) {
+            allocated = allocated(thread) - start + helpers.sum();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long peak = peakHeap.get();
+        String heap = String.format("peak heap %,d KB (+%,d KB)", peak / 1024, (peak - startHeap) / 1024);
+        if (allocated < 0) {
+            return heap;
+        }
+        return String.format("allocated %,d KB, %s", allocated / 1024, heap);
+    }
+
+    private static long heapUsed() {
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long allocated(long id) {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(id);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,38 @@
+package burpeditor.export;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Progress sink for exports running off the Event Dispatch Thread. Exporters
+ * report coarse progress and poll {@link #checkCancelled()} between units of
+ * work, such as tiles or document sections.
+ */
+public interface ExportProgress {
+    ExportProgress NONE = new ExportProgress() {
+        @Override
+        public void update(int percent, String message) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    void update(int percent, String message);
+
+    boolean isCancelled();
+
+    /**
+     * Receives a one-line summary of what the export cost, such as the
+     * memory it allocated, once it has finished.
+     */
+    default void report(String statistics) {
+    }
+
+    default void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Export cancelled");
+        }
+    }
+}
@@ -4,24 +4,110 @@ import com.itextpdf.text.*;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.Element;
 import com.itextpdf.text.pdf.*;
+import com.itextpdf.tool.xml.Pipeline;
+import com.itextpdf.tool.xml.Tag;
+import com.itextpdf.tool.xml.XMLWorker;
 import com.itextpdf.tool.xml.XMLWorkerHelper;
+import com.itextpdf.tool.xml.html.Tags;
+import com.itextpdf.tool.xml.parser.XMLParser;
+import com.itextpdf.tool.xml.pipeline.css.CSSResolver;
+import com.itextpdf.tool.xml.pipeline.css.CssResolverPipeline;
+import com.itextpdf.tool.xml.pipeline.end.PdfWriterPipeline;
+import com.itextpdf.tool.xml.pipeline.html.HtmlPipeline;
+import com.itextpdf.tool.xml.pipeline.html.HtmlPipelineContext;
+import burpeditor.model.DiagramModel;
+import burpeditor.render.IconCache;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.*;
 import javax.swing.text.html.*;
-import java.awt.image.BufferedImage;
+import java.awt.Dimension;
 import java.io.*;
+import java.util.List;
 
 public class PDFExporter {
+    /** Poster scale that fits the whole diagram on the first page instead. */
+    public static final float FIT_TO_PAGE = 0;
+
     private static final float MARGIN = 36;
     private static final Font FONT_FALLBACK = new Font(Font.FontFamily.HELVETICA, 12, Font.NORMAL);
     private static final Font FONT_HEADING = new Font(Font.FontFamily.HELVETICA, 16, Font.BOLD);
+    private static final Rectangle PAGE = PageSize.A4;
+    // Characters buffered between the notes writer and XMLWorker, and read per step for plain text
+    private static final int PIPE_SIZE = 64 * 1024;
+    private static final int TEXT_SEGMENT = 16 * 1024;
+    // Notes written per read lock; edits wait for at most one chunk
+    private static final int NOTES_CHUNK = 64 * 1024;
+
+    /**
+     * Writes the diagram and notes to a PDF, drawing the diagram as vector
+     * content: lines stay sharp at any zoom and each icon is embedded once
+     * however many devices use it. {@code model} must be a snapshot that
+     * nothing else mutates while the export runs, so it can run off the EDT;
+     * a cancelled or failed export leaves no partial file behind.
+     */
+    public static File exportToPDF(DiagramModel model, Dimension diagramSize, IconCache icons,
+                                   String notesHtml, String notesText, File file,
+                                   ExportProgress progress) throws Exception {
+        DiagramSection diagram = (document, writer, p) -> addDiagramVector(document, writer, model, diagramSize, icons);
+        return export(diagram, notes(notesHtml, notesText), file, progress);
+    }
+
+    /**
+     * Like {@link #exportToPDF(DiagramModel, Dimension, IconCache, String, String, File, ExportProgress)}
+     * but streams the notes from the editor's document: the editor kit
+     * writes them through an {@link XhtmlSanitizer} into a pipe that
+     * XMLWorker reads from, so no copy of the notes is held in memory. The
+     * document is read a chunk at a time under its read lock, so edits are
+     * not held up for the whole export; an edit while it runs fails it.
+     */
+    public static File exportToPDF(DiagramModel model, Dimension diagramSize, IconCache icons,
+                                   HTMLDocument notes, HTMLEditorKit kit, File file,
+                                   ExportProgress progress) throws Exception {
+        return exportToPDF(model, diagramSize, icons, FIT_TO_PAGE, notes, kit, file, progress);
+    }
+
+    /**
+     * Like {@link #exportToPDF(DiagramModel, Dimension, IconCache, HTMLDocument, HTMLEditorKit, File, ExportProgress)}
+     * but, unless {@code posterScale} is {@link #FIT_TO_PAGE}, prints the
+     * diagram as a poster at that scale: an overview page followed by as many
+     * overlapping tiles as the diagram needs, one per page.
+     */
+    public static File exportToPDF(DiagramModel model, Dimension diagramSize, IconCache icons, float posterScale,
+                                   HTMLDocument notes, HTMLEditorKit kit, File file,
+                                   ExportProgress progress) throws Exception {
+        DiagramSection diagram = posterScale == FIT_TO_PAGE
+            ? (document, writer, p) -> addDiagramVector(document, writer, model, diagramSize, icons)
+            : (document, writer, p) -> addDiagramPoster(document, writer, model, diagramSize, icons, posterScale, p);
+        return export(diagram, streamedNotes(notes, kit), file, progress);
+    }
+
+    /**
+     * Returns whether a diagram of this size fits on the first page without
+     * being scaled down.
+     */
+    public static boolean fitsOnPage(Dimension diagramSize) {
+        return diagramSize.width <= PAGE.getWidth() - 2 * MARGIN && diagramSize.height <= PAGE.getHeight() / 2;
+    }
 
-    public static boolean exportToPDF(BufferedImage diagramImage, JTextPane textPane, File file) {
-        Document document = new Document();
+    /**
+     * Returns the number of tile pages a poster of this diagram at this
+     * scale takes, not counting the overview page.
+     */
+    public static int posterPages(Dimension diagramSize, float scale) {
+        return new PdfPoster(PAGE, MARGIN, posterSize(diagramSize), scale).pages();
+    }
+
+    private static File export(DiagramSection diagram, NotesSection notes, File file,
+                               ExportProgress progress) throws Exception {
+        AllocationMeter meter = new AllocationMeter();
+        Document document = new Document(PAGE);
         FileOutputStream fos = null;
-        
+        boolean complete = false;
+        file = ensurePdfExtension(file);
+
         try {
-            file = ensurePdfExtension(file);
             fos = new FileOutputStream(file);
             PdfWriter writer = PdfWriter.getInstance(document, fos);
             
@@ -30,24 +116,46 @@ public class PDFExporter {
 
             addTitle(document, "Network Diagram Export");
             
-            if (diagramImage != null) {
-                addDiagramImage(document, diagramImage);
-                document.add(Chunk.NEWLINE);
+            progress.checkCancelled();
+            progress.update(10, "Adding diagram");
+            diagram.add(document, writer, progress);
+            document.add(Chunk.NEWLINE);
+
+            progress.checkCancelled();
+            progress.update(40, "Converting notes");
+            notes.add(document, writer, meter);
+
+            progress.checkCancelled();
+            progress.update(90, "Writing file");
+            complete = true;
+        } finally {
+            closeResources(document, fos);
+            meter.stop();
+            if (!complete) {
+                file.delete();
             }
+        }
+        progress.update(100, "Done");
+        progress.report(meter.toString());
+        return file;
+    }
 
+    private static NotesSection notes(String notesHtml, String notesText) {
+        return (document, writer, meter) -> {
             // Try HTML export first
-            if (!tryHtmlExport(document, writer, textPane)) {
+            if (!tryHtmlExport(document, writer, notesHtml)) {
                 // Fallback to simple text export if HTML fails
-                addSimpleText(document, textPane);
+                addSimpleText(document, notesText);
             }
-            
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        } finally {
-            closeResources(document, fos);
-        }
+        };
+    }
+
+    private static NotesSection streamedNotes(HTMLDocument notes, HTMLEditorKit kit) {
+        return (document, writer, meter) -> {
+            if (!streamHtmlExport(document, writer, notes, kit, meter)) {
+                addSimpleText(document, notes);
+            }
+        };
     }
 
     private static void addTitle(Document document, String title) throws DocumentException {
@@ -57,16 +165,11 @@ public class PDFExporter {
         document.add(p);
     }
 
-    private static boolean tryHtmlExport(Document document, PdfWriter writer, JTextPane textPane) {
+    private static boolean tryHtmlExport(Document document, PdfWriter writer, String notesHtml) {
         try {
-            String htmlContent = extractHtmlContent(textPane);
-            htmlContent = cleanHtmlContent(htmlContent);
+            String htmlContent = cleanHtmlContent(notesHtml);
             
-            XMLWorkerHelper.getInstance().parseXHtml(
-                writer, 
-                document, 
-                new StringReader("<html><body>" + htmlContent + "</body></html>")
-            );
+            parseXhtml(document, writer, new StringReader(htmlContent));
             return true;
         } catch (Exception e) {
             System.err.println("HTML export failed: " + e.getMessage());
@@ -74,30 +177,236 @@ public class PDFExporter {
         }
     }
 
-    private static void addSimpleText(Document document, JTextPane textPane) throws DocumentException {
+    /**
+     * Converts the notes while they are being written: a helper thread runs
+     * the editor kit into the sanitizer and the pipe, and XMLWorker parses
+     * from the other end on this thread. The pipe's buffer and one chunk of
+     * the notes are all that is held of them at any time.
+     */
+    private static boolean streamHtmlExport(Document document, PdfWriter writer, HTMLDocument notes,
+                                            HTMLEditorKit kit, AllocationMeter meter)
+            throws InterruptedException, NotesChangedException {
+        PipedReader reader;
+        PipedWriter pipe;
         try {
-            String text = textPane.getDocument().getText(0, textPane.getDocument().getLength());
+            reader = new PipedReader(PIPE_SIZE);
+            pipe = new PipedWriter(reader);
+        } catch (IOException e) {
+            return false;
+        }
+        Throwable[] failure = new Throwable[1];
+        Thread producer = new Thread(() -> meter.track(() -> {
+            try (Writer out = new XhtmlSanitizer(pipe)) {
+                writeHtml(notes, kit, out);
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        }), "Schematics notes writer");
+        producer.setDaemon(true);
+        producer.start();
+        boolean parsed = false;
+        try {
+            parseXhtml(document, writer, reader);
+            parsed = true;
+        } catch (Exception e) {
+            System.err.println("HTML export failed: " + e.getMessage());
+        } finally {
+            try {
+                // Unblocks the writer if parsing stopped early
+                reader.close();
+            } catch (IOException e) {
+                // Nothing to release
+            }
+            producer.join();
+        }
+        if (failure[0] instanceof NotesChangedException) {
+            throw (NotesChangedException) failure[0];
+        }
+        if (parsed && failure[0] != null) {
+            System.err.println("HTML export failed: " + failure[0].getMessage());
+            return false;
+        }
+        return parsed;
+    }
+
+    /**
+     * Writes the notes as HTML a run of top-level blocks at a time. Each run
+     * is written into a buffer under the document's read lock and passed on
+     * after the lock is released, so a slow consumer never holds up the
+     * editor. The editor kit wraps each run in html and body tags; all but
+     * the first opening and the last closing ones are cut, so the runs add
+     * up to one document.
+     */
+    private static void writeHtml(HTMLDocument notes, HTMLEditorKit kit, Writer out) throws IOException {
+        CharArrayWriter chunk = new CharArrayWriter(NOTES_CHUNK);
+        int[] offset = { 0 };
+        boolean[] more = { true };
+        try (NotesWatch watch = new NotesWatch(notes)) {
+            while (more[0]) {
+                boolean first = offset[0] == 0;
+                chunk.reset();
+                IOException[] error = new IOException[1];
+                notes.render(() -> {
+                    try {
+                        int end = chunkEnd(notes, offset[0]);
+                        kit.write(chunk, notes, offset[0], end - offset[0]);
+                        offset[0] = end;
+                        more[0] = end < notes.getLength();
+                    } catch (IOException e) {
+                        error[0] = e;
+                    } catch (BadLocationException e) {
+                        error[0] = new IOException(e);
+                    }
+                });
+                if (error[0] != null) {
+                    throw error[0];
+                }
+                watch.check();
+                String run = chunk.toString();
+                int from = 0;
+                int to = run.length();
+                if (!first) {
+                    int body = run.indexOf("<body");
+                    from = body < 0 ? 0 : run.indexOf('>', body) + 1;
+                }
+                if (more[0]) {
+                    int body = run.lastIndexOf("</body>");
+                    to = body < from ? to : body;
+                }
+                out.write(run, from, to - from);
+            }
+        }
+    }
+
+    /**
+     * Returns where the chunk starting at {@code offset} ends: after enough
+     * whole children of the body to make up {@link #NOTES_CHUNK} characters,
+     * or at the end of the notes. Called under the read lock.
+     */
+    private static int chunkEnd(HTMLDocument notes, int offset) {
+        javax.swing.text.Element blocks = notes.getDefaultRootElement();
+        for (int i = 0; i < blocks.getElementCount(); i++) {
+            if ("body".equals(blocks.getElement(i).getName())) {
+                blocks = blocks.getElement(i);
+                break;
+            }
+        }
+        int end = offset;
+        for (int i = blocks.getElementIndex(offset); i < blocks.getElementCount() && end - offset < NOTES_CHUNK; i++) {
+            end = blocks.getElement(i).getEndOffset();
+        }
+        return Math.min(Math.max(end, offset), notes.getLength());
+    }
+
+    /**
+     * Parses sanitized notes the way {@code XMLWorkerHelper.parseXHtml} does,
+     * except that the body's finished children are let go: XMLWorker keeps
+     * every closed tag under its parent, so a long body otherwise holds a tag
+     * per paragraph until the end even though each paragraph has already been
+     * written to the PDF.
+     */
+    private static void parseXhtml(Document document, PdfWriter writer, Reader xhtml) throws IOException {
+        HtmlPipelineContext context = new HtmlPipelineContext(null);
+        context.setAcceptUnknown(true).autoBookmark(true).setTagFactory(Tags.getHtmlTagProcessorFactory());
+        CSSResolver css = XMLWorkerHelper.getInstance().getDefaultCssResolver(true);
+        Pipeline<?> pipeline = new CssResolverPipeline(css,
+            new HtmlPipeline(context, new PdfWriterPipeline(document, writer)));
+        XMLWorker worker = new XMLWorker(pipeline, true) {
+            @Override
+            public void endElement(String tag, String ns) {
+                Tag closing = getLocalWC().getCurrentTag();
+                super.endElement(tag, ns);
+                Tag parent = closing == null ? null : closing.getParent();
+                if (parent != null && "body".equals(parent.getName())) {
+                    List<Tag> children = parent.getChildren();
+                    children.remove(children.size() - 1);
+                }
+            }
+        };
+        new XMLParser().addListener(worker).parse(xhtml);
+    }
+
+    private static void addSimpleText(Document document, String text) throws DocumentException {
+        if (text != null) {
             document.add(new Paragraph(text, FONT_FALLBACK));
-        } catch (BadLocationException e) {
+        } else {
             document.add(new Paragraph("Could not extract text content", FONT_FALLBACK));
         }
     }
 
-    private static String extractHtmlContent(JTextPane textPane) throws IOException, BadLocationException {
+    /**
+     * Adds the plain text of the notes one line at a time, copying the
+     * document a segment at a time under its read lock instead of whole.
+     */
+    private static void addSimpleText(Document document, HTMLDocument notes)
+            throws DocumentException, NotesChangedException {
+        try (NotesWatch watch = new NotesWatch(notes)) {
+            Segment segment = new Segment();
+            segment.setPartialReturn(true);
+            StringBuilder text = new StringBuilder(TEXT_SEGMENT);
+            StringBuilder line = new StringBuilder();
+            int[] offset = { 0 };
+            boolean[] more = { true };
+            while (more[0]) {
+                text.setLength(0);
+                BadLocationException[] error = new BadLocationException[1];
+                notes.render(() -> {
+                    try {
+                        int length = notes.getLength();
+                        if (offset[0] < length) {
+                            notes.getText(offset[0], Math.min(TEXT_SEGMENT, length - offset[0]), segment);
+                            text.append(segment.array, segment.offset, segment.count);
+                            offset[0] += segment.count;
+                        }
+                        more[0] = offset[0] < length;
+                    } catch (BadLocationException e) {
+                        error[0] = e;
+                    }
+                });
+                if (error[0] != null) {
+                    addSimpleText(document, (String) null);
+                    return;
+                }
+                watch.check();
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '\n') {
+                        document.add(new Paragraph(line.toString(), FONT_FALLBACK));
+                        line.setLength(0);
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+            if (line.length() > 0) {
+                document.add(new Paragraph(line.toString(), FONT_FALLBACK));
+            }
+        }
+    }
+
+    /**
+     * Returns the notes as HTML without holding the document's read lock for
+     * longer than one chunk, so it can run off the EDT while the user types.
+     * Throws {@link NotesChangedException} if the notes were edited meanwhile.
+     */
+    public static String extractHtmlContent(HTMLDocument notes, HTMLEditorKit kit) throws IOException {
+        StringWriter writer = new StringWriter();
+        writeHtml(notes, kit, writer);
+        return writer.toString();
+    }
+
+    public static String extractHtmlContent(JTextPane textPane) throws IOException, BadLocationException {
         StringWriter writer = new StringWriter();
         HTMLEditorKit kit = (HTMLEditorKit) textPane.getEditorKit();
         kit.write(writer, textPane.getDocument(), 0, textPane.getDocument().getLength());
         return writer.toString();
     }
 
+    /**
+     * Returns the notes as one XHTML document for XMLWorker.
+     */
     private static String cleanHtmlContent(String html) {
-        return html.replaceAll("<o:p>", "")
-                  .replaceAll("</o:p>", "")
-                  .replaceAll("<!--.*?-->", "")
-                  .replaceAll("<head>.*?</head>", "")
-                  .replaceAll("<style.*?>.*?</style>", "")
-                  .replaceAll("<html.*?>", "<html>")
-                  .replaceAll("<body.*?>", "<body>");
+        return XhtmlSanitizer.sanitize(html);
     }
 
     private static File ensurePdfExtension(File file) {
@@ -107,8 +416,28 @@ public class PDFExporter {
         return file;
     }
 
-    private static void addDiagramImage(Document document, BufferedImage diagramImage) throws Exception {
-        Image pdfImage = Image.getInstance(ExportUtils.convertToByteArray(diagramImage, "PNG"));
+    private static void addDiagramVector(Document document, PdfWriter writer, DiagramModel model,
+                                         Dimension diagramSize, IconCache icons) throws Exception {
+        java.awt.Rectangle area = new java.awt.Rectangle(diagramSize);
+        PdfTemplate template = new PdfDiagramRenderer(icons).render(writer.getDirectContent(), model, area);
+        addDiagram(document, Image.getInstance(template));
+    }
+
+    private static void addDiagramPoster(Document document, PdfWriter writer, DiagramModel model,
+                                         Dimension diagramSize, IconCache icons, float scale,
+                                         ExportProgress progress) throws Exception {
+        PdfPoster poster = new PdfPoster(document.getPageSize(), MARGIN, posterSize(diagramSize), scale);
+        // One renderer for all pages, so each icon is embedded once
+        PdfDiagramRenderer renderer = new PdfDiagramRenderer(icons);
+        poster.addOverview(document, writer, renderer, model);
+        poster.addTiles(document, writer, renderer, model, progress, 10, 40);
+    }
+
+    private static Dimension posterSize(Dimension diagramSize) {
+        return new Dimension(Math.max(1, diagramSize.width), Math.max(1, diagramSize.height));
+    }
+
+    private static void addDiagram(Document document, Image pdfImage) throws DocumentException {
         float maxWidth = document.getPageSize().getWidth() - (2 * MARGIN);
         float maxHeight = document.getPageSize().getHeight() / 2;
         
@@ -120,6 +449,63 @@ public class PDFExporter {
         document.add(pdfImage);
     }
 
+    private interface DiagramSection {
+        void add(Document document, PdfWriter writer, ExportProgress progress) throws Exception;
+    }
+
+    private interface NotesSection {
+        void add(Document document, PdfWriter writer, AllocationMeter meter) throws Exception;
+    }
+
+    /**
+     * Thrown when the notes are edited while an export reads them in chunks,
+     * since the chunks read so far no longer match the rest.
+     */
+    public static final class NotesChangedException extends IOException {
+        NotesChangedException() {
+            super("The notes were edited during the export; export again");
+        }
+    }
+
+    /**
+     * Notices edits to the notes between the chunks an export reads.
+     */
+    private static final class NotesWatch implements DocumentListener, AutoCloseable {
+        private final HTMLDocument notes;
+        private volatile boolean changed;
+
+        NotesWatch(HTMLDocument notes) {
+            this.notes = notes;
+            notes.addDocumentListener(this);
+        }
+
+        void check() throws NotesChangedException {
+            if (changed) {
+                throw new NotesChangedException();
+            }
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            changed = true;
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            changed = true;
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            changed = true;
+        }
+
+        @Override
+        public void close() {
+            notes.removeDocumentListener(this);
+        }
+    }
+
     private static void closeResources(Document document, FileOutputStream fos) {
         try {
             if (document != null && document.isOpen()) {
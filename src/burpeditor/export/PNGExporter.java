@@ -1,25 +1,134 @@
 package burpeditor.export;
 
 
+import burpeditor.model.DiagramModel;
+import burpeditor.render.DiagramRenderer;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 
 public class PNGExporter {
+    // Upper bound for the pixels of one tile; the tile is the only full-width buffer held during a tiled export
+    private static final int TILE_BUDGET_BYTES = 16 * 1024 * 1024;
+    private static final int MIN_TILE_HEIGHT = 16;
+    private static final int EDGE_REACH = (int) Math.ceil(DiagramRenderer.MAX_EDGE_WIDTH / 2);
+
     public static boolean exportToPNG(BufferedImage image, File file) {
         try {
-            if (!file.getName().toLowerCase().endsWith(".png")) {
-                file = new File(file.getParentFile(), file.getName() + ".png");
-            }
+            file = ensurePngExtension(file);
             ImageIO.write(image, "PNG", file);
             return true;
         } catch (Exception e) {
-            JOptionPane.showMessageDialog(null,
-                "PNG Export Error: " + e.getMessage(),
-                "Export Failed",
-                JOptionPane.ERROR_MESSAGE);
+            showError(e);
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Renders the image in fixed-height tiles and streams each tile's scanlines
+     * into the PNG encoder, so peak memory depends on the tile size rather
+     * than on {@code width * height}. Safe to call off the EDT as long as the
+     * painter is; a cancelled or failed export leaves no partial file behind.
+     */
+    public static File exportTiled(int width, int height, TilePainter painter, File file,
+                                   ExportProgress progress) throws IOException {
+        file = ensurePngExtension(file);
+        int tileHeight = tileHeight(width, height);
+        BufferedImage tile = new BufferedImage(width, tileHeight, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+
+        boolean complete = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+                 StreamingPNGWriter png = new StreamingPNGWriter(out, width, height)) {
+                for (int y = 0; y < height; y += tileHeight) {
+                    progress.checkCancelled();
+                    progress.update((int) (100L * y / height), "Rendering rows " + y + " of " + height);
+                    int rows = Math.min(tileHeight, height - y);
+                    Graphics2D g = tile.createGraphics();
+                    try {
+                        g.setColor(Color.WHITE);
+                        g.fillRect(0, 0, width, tileHeight);
+                        g.translate(0, -y);
+                        Rectangle area = new Rectangle(0, y, width, rows);
+                        g.clip(area);
+                        painter.paint(g, area);
+                    } finally {
+                        g.dispose();
+                    }
+                    png.writeRows(pixels, 0, width, rows);
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                file.delete();
+            }
+        }
+        progress.update(100, "Done");
+        return file;
+    }
+
+    /**
+     * Paints a diagram with a notes component below it, one export tile at a
+     * time. The diagram is painted on the calling thread; the notes are a
+     * Swing component, so each tile's slice of them is painted on the EDT.
+     */
+    public static TilePainter diagramWithNotes(DiagramRenderer renderer, DiagramModel model,
+                                               Dimension diagramSize, JComponent notes) {
+        return (g, area) -> {
+            if (area.y < diagramSize.height) {
+                // Lines just outside the tile still reach into it by half their stroke; g keeps the exact clip
+                Rectangle reach = area.intersection(new Rectangle(diagramSize));
+                reach.grow(EDGE_REACH, EDGE_REACH);
+                renderer.paint(g, model, reach, 1.0);
+            }
+            if (area.y + area.height > diagramSize.height) {
+                try {
+                    SwingUtilities.invokeAndWait(() -> {
+                        Graphics2D below = (Graphics2D) g.create();
+                        below.translate(0, diagramSize.height);
+                        notes.paint(below);
+                        below.dispose();
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Export interrupted");
+                } catch (InvocationTargetException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        };
+    }
+
+    static int tileHeight(int width, int height) {
+        int rows = TILE_BUDGET_BYTES / (Math.max(1, width) * 4);
+        return Math.max(1, Math.min(height, Math.max(MIN_TILE_HEIGHT, rows)));
+    }
+
+    private static File ensurePngExtension(File file) {
+        if (!file.getName().toLowerCase().endsWith(".png")) {
+            return new File(file.getParentFile(), file.getName() + ".png");
+        }
+        return file;
+    }
+
+    private static void showError(Exception e) {
+        JOptionPane.showMessageDialog(null,
+            "PNG Export Error: " + e.getMessage(),
+            "Export Failed",
+            JOptionPane.ERROR_MESSAGE);
+    }
+}
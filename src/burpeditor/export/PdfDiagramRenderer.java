@@ -0,0 +1,102 @@
+package burpeditor.export;
+
+import burpeditor.model.DiagramModel;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import burpeditor.render.DiagramRenderer;
+import burpeditor.render.IconCache;
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Draws a diagram as PDF vector content. Lines become one stroked path per
+ * style and every device references a single image XObject per icon: iText
+ * writes an {@link Image} once and reuses it for each later placement, so the
+ * file grows with the number of elements, not with the diagram's pixel area.
+ */
+class PdfDiagramRenderer {
+    // Icons are embedded at twice the on-screen resolution so they print cleanly
+    private static final double ICON_SCALE = 2.0;
+
+    private final IconCache icons;
+    private final Map<String, Image> iconObjects = new HashMap<>();
+
+    PdfDiagramRenderer(IconCache icons) {
+        this.icons = icons;
+    }
+
+    /**
+     * Renders the elements inside {@code area} (model coordinates) into a new
+     * template of the same size, whose origin is the area's top-left corner.
+     */
+    PdfTemplate render(PdfContentByte content, DiagramModel model, Rectangle area)
+            throws DocumentException, IOException {
+        PdfTemplate template = content.createTemplate(area.width, area.height);
+        paintEdges(template, model, area);
+        paintNodes(template, model, area);
+        return template;
+    }
+
+    private void paintEdges(PdfTemplate template, DiagramModel model, Rectangle area) {
+        EdgeStore edges = model.getEdges();
+        Color[] colors = DiagramRenderer.EDGE_STYLE_COLORS;
+        template.saveState();
+        template.setLineWidth(DiagramRenderer.EDGE_WIDTH);
+        template.setLineCap(PdfContentByte.LINE_CAP_ROUND);
+        for (int style = 0; style < colors.length; style++) {
+            int current = style;
+            boolean[] any = new boolean[1];
+            model.edgesIn(area, edge -> {
+                if (Math.min(edges.style(edge), colors.length - 1) == current) {
+                    int[] route = edges.route(edge);
+                    if (route == null) {
+                        template.moveTo(edges.x1(edge) - area.x, area.height - (edges.y1(edge) - area.y));
+                        template.lineTo(edges.x2(edge) - area.x, area.height - (edges.y2(edge) - area.y));
+                    } else {
+                        template.moveTo(route[0] - area.x, area.height - (route[1] - area.y));
+                        for (int i = 2; i < route.length; i += 2) {
+                            template.lineTo(route[i] - area.x, area.height - (route[i + 1] - area.y));
+                        }
+                    }
+                    any[0] = true;
+                }
+            });
+            if (any[0]) {
+                template.setColorStroke(new BaseColor(colors[style].getRGB()));
+                template.stroke();
+            }
+        }
+        template.restoreState();
+    }
+
+    private void paintNodes(PdfTemplate template, DiagramModel model, Rectangle area)
+            throws DocumentException, IOException {
+        for (Node node : model.nodesIn(area)) {
+            Image icon = iconObject(node.getIconKey());
+            if (icon != null) {
+                float x = node.getX() - area.x;
+                float y = area.height - (node.getY() - area.y) - Node.SIZE;
+                template.addImage(icon, Node.SIZE, 0, 0, Node.SIZE, x, y);
+            }
+        }
+    }
+
+    private Image iconObject(String key) throws DocumentException, IOException {
+        Image icon = iconObjects.get(key);
+        if (icon == null && !iconObjects.containsKey(key)) {
+            BufferedImage source = icons.get(key, Node.SIZE, ICON_SCALE);
+            icon = source != null ? Image.getInstance(source, null) : null;
+            iconObjects.put(key, icon);
+        }
+        return icon;
+    }
+}
@@ -0,0 +1,179 @@
+package burpeditor.export;
+
+import burpeditor.model.DiagramModel;
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.pdf.ColumnText;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
+import com.itextpdf.text.pdf.PdfWriter;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.IOException;
+
+/**
+ * Splits a diagram across pages at a fixed scale, like a poster: each page
+ * shows one tile of the diagram, and an overview page before them shows the
+ * whole diagram with the tiles and their page numbers drawn over it.
+ * Neighbouring tiles share a strip of {@link #OVERLAP} points; dashed marks
+ * on both pages show where the neighbour's tile begins, so printed pages can
+ * be trimmed and lined up.
+ * <p>
+ * Each tile is rendered from a spatial query of its own area and written to
+ * the file as soon as its page is done, so the cost of a page depends on
+ * what is visible on it, not on the size of the whole diagram.
+ */
+final class PdfPoster {
+    // Paper shared by neighbouring tiles, in points
+    static final float OVERLAP = 18;
+    // Room above each tile for its caption, in points
+    private static final float CAPTION = 14;
+    private static final Font FONT_CAPTION = new Font(Font.FontFamily.HELVETICA, 9, Font.NORMAL, BaseColor.DARK_GRAY);
+    private static final Font FONT_LABEL = new Font(Font.FontFamily.HELVETICA, 10, Font.BOLD, new BaseColor(0, 90, 200));
+    private static final BaseColor MARK_COLOR = new BaseColor(150, 150, 150);
+
+    private final Dimension diagram;
+    private final float scale;
+    private final float margin;
+    private final float pageWidth;
+    private final float pageHeight;
+    // Tile size, overlap and distance between tiles, in diagram units
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int overlap;
+    private final int columns;
+    private final int rows;
+
+    PdfPoster(com.itextpdf.text.Rectangle page, float margin, Dimension diagram, float scale) {
+        this.diagram = diagram;
+        this.scale = scale;
+        this.margin = margin;
+        pageWidth = page.getWidth();
+        pageHeight = page.getHeight();
+        tileWidth = Math.max(1, (int) ((pageWidth - 2 * margin) / scale));
+        tileHeight = Math.max(1, (int) ((pageHeight - 2 * margin - CAPTION) / scale));
+        overlap = Math.min((int) Math.ceil(OVERLAP / scale), Math.min(tileWidth, tileHeight) / 2);
+        columns = count(diagram.width, tileWidth);
+        rows = count(diagram.height, tileHeight);
+    }
+
+    private int count(int length, int tile) {
+        return length <= tile ? 1 : 1 + (int) Math.ceil((double) (length - tile) / (tile - overlap));
+    }
+
+    int pages() {
+        return columns * rows;
+    }
+
+    private Rectangle tile(int column, int row) {
+        return new Rectangle(column * (tileWidth - overlap), row * (tileHeight - overlap), tileWidth, tileHeight);
+    }
+
+    /**
+     * Draws the whole diagram into the space left on the current page, with
+     * each tile outlined and labelled with its page number. Tiles start on the
+     * page after this one.
+     */
+    void addOverview(Document document, PdfWriter writer, PdfDiagramRenderer renderer, DiagramModel model)
+            throws DocumentException, IOException {
+        float top = writer.getVerticalPosition(true);
+        float width = pageWidth - 2 * margin;
+        float height = top - margin;
+        float fit = Math.min(1, Math.min(width / diagram.width, height / diagram.height));
+        float left = margin + (width - diagram.width * fit) / 2;
+
+        PdfContentByte content = writer.getDirectContent();
+        PdfTemplate overview = renderer.render(content, model, new Rectangle(diagram));
+        content.addTemplate(overview, fit, 0, 0, fit, left, top - diagram.height * fit);
+        writer.releaseTemplate(overview);
+
+        int firstPage = writer.getPageNumber() + 1;
+        content.saveState();
+        content.setColorStroke(FONT_LABEL.getColor());
+        content.setLineWidth(0.5f);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                Rectangle tile = tile(column, row).intersection(new Rectangle(diagram));
+                float x = left + tile.x * fit;
+                float y = top - (tile.y + tile.height) * fit;
+                content.rectangle(x, y, tile.width * fit, tile.height * fit);
+                content.stroke();
+                Phrase label = new Phrase(String.valueOf(firstPage + row * columns + column), FONT_LABEL);
+                // Very large posters get an outline only where the numbers would not fit
+                if (ColumnText.getWidth(label) < tile.width * fit && FONT_LABEL.getSize() < tile.height * fit) {
+                    ColumnText.showTextAligned(content, Element.ALIGN_CENTER, label,
+                            x + tile.width * fit / 2, y + tile.height * fit / 2 - 4, 0);
+                }
+            }
+        }
+        content.restoreState();
+        document.newPage();
+    }
+
+    /**
+     * Adds one page per tile, row by row, and ends on a fresh page.
+     */
+    void addTiles(Document document, PdfWriter writer, PdfDiagramRenderer renderer, DiagramModel model,
+                  ExportProgress progress, int fromPercent, int toPercent) throws DocumentException, IOException {
+        int pages = pages();
+        float left = margin;
+        float top = pageHeight - margin - CAPTION;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                progress.checkCancelled();
+                progress.update(fromPercent + (toPercent - fromPercent) * index / pages,
+                        String.format("Adding poster page %,d of %,d", index + 1, pages));
+
+                PdfContentByte content = writer.getDirectContent();
+                PdfTemplate tile = renderer.render(content, model, tile(column, row));
+                content.addTemplate(tile, scale, 0, 0, scale, left, top - tileHeight * scale);
+                writer.releaseTemplate(tile);
+                drawMarks(content, column, row, left, top);
+                ColumnText.showTextAligned(content, Element.ALIGN_LEFT,
+                        new Phrase(String.format("Page %d: row %d of %d, column %d of %d",
+                                writer.getPageNumber(), row + 1, rows, column + 1, columns), FONT_CAPTION),
+                        left, top + 4, 0);
+                document.newPage();
+            }
+        }
+    }
+
+    /**
+     * Frames the tile and marks, on each side that has a neighbour, where
+     * the neighbour's tile starts.
+     */
+    private void drawMarks(PdfContentByte content, int column, int row, float left, float top) {
+        float width = tileWidth * scale;
+        float height = tileHeight * scale;
+        float inset = overlap * scale;
+        content.saveState();
+        content.setColorStroke(MARK_COLOR);
+        content.setLineWidth(0.5f);
+        content.rectangle(left, top - height, width, height);
+        content.stroke();
+        content.setLineDash(3, 3, 0);
+        if (column > 0) {
+            content.moveTo(left + inset, top);
+            content.lineTo(left + inset, top - height);
+        }
+        if (column < columns - 1) {
+            content.moveTo(left + width - inset, top);
+            content.lineTo(left + width - inset, top - height);
+        }
+        if (row > 0) {
+            content.moveTo(left, top - inset);
+            content.lineTo(left + width, top - inset);
+        }
+        if (row < rows - 1) {
+            content.moveTo(left, top - height + inset);
+            content.lineTo(left + width, top - height + inset);
+        }
+        content.stroke();
+        content.restoreState();
+    }
+}
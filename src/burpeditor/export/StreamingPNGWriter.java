@@ -0,0 +1,129 @@
+package burpeditor.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal PNG encoder that accepts the image a few scanlines at a time. Rows
+ * are Sub-filtered and deflated straight into IDAT chunks, so memory use is
+ * bounded by one row plus the chunk buffer no matter how tall the image is.
+ * Output is 8-bit truecolor without alpha.
+ */
+class StreamingPNGWriter implements Closeable {
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte FILTER_SUB = 1;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] row;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final CRC32 crc = new CRC32();
+    private int chunkFill;
+    private int rowsWritten;
+    private boolean closed;
+
+    StreamingPNGWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * 3];
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);  // bit depth
+        h.writeByte(2);  // color type: truecolor
+        h.writeByte(0);  // compression
+        h.writeByte(0);  // filter method
+        h.writeByte(0);  // no interlace
+        writeChunk("IHDR", header.toByteArray(), header.size());
+    }
+
+    /**
+     * Appends {@code rows} scanlines of packed RGB pixels, starting at
+     * {@code offset} in {@code pixels} with the given scanline stride.
+     */
+    void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("More rows than the image height");
+        }
+        for (int r = 0; r < rows; r++) {
+            int start = offset + r * stride;
+            row[0] = FILTER_SUB;
+            int prevR = 0, prevG = 0, prevB = 0;
+            for (int x = 0, i = 1; x < width; x++, i += 3) {
+                int rgb = pixels[start + x];
+                int red = (rgb >> 16) & 0xff;
+                int green = (rgb >> 8) & 0xff;
+                int blue = rgb & 0xff;
+                row[i] = (byte) (red - prevR);
+                row[i + 1] = (byte) (green - prevG);
+                row[i + 2] = (byte) (blue - prevB);
+                prevR = red;
+                prevG = green;
+                prevB = blue;
+            }
+            deflater.setInput(row);
+            drain(false);
+        }
+        rowsWritten += rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("PNG incomplete: " + rowsWritten + " of " + height + " rows written");
+            }
+            deflater.finish();
+            drain(true);
+            writeChunk("IEND", chunk, 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void drain(boolean finishing) throws IOException {
+        while (finishing ? !deflater.finished() : !deflater.needsInput()) {
+            chunkFill += deflater.deflate(chunk, chunkFill, chunk.length - chunkFill);
+            if (chunkFill == chunk.length) {
+                writeChunk("IDAT", chunk, chunkFill);
+                chunkFill = 0;
+            }
+        }
+        if (finishing && chunkFill > 0) {
+            writeChunk("IDAT", chunk, chunkFill);
+            chunkFill = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,13 @@
+package burpeditor.export;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * Paints part of an export image. The graphics are set up in full-image
+ * coordinates and clipped to {@code area}, so implementations can paint as if
+ * the whole image were present and skip anything outside the area.
+ */
+public interface TilePainter {
+    void paint(Graphics2D g, Rectangle area);
+}
@@ -0,0 +1,592 @@
+package burpeditor.export;
+
+import com.itextpdf.text.xml.simpleparser.EntitiesToUnicode;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Turns the HTML that {@code HTMLEditorKit} writes into XHTML that XMLWorker
+ * accepts, in one pass as the HTML is written to it. The result is a single
+ * {@code <html><body>} document: the original {@code html} and {@code body}
+ * tags, the {@code head}, style and script sections, comments, declarations
+ * and namespaced Office tags such as {@code <o:p>} are dropped. Void elements
+ * are self-closed, attribute values quoted, HTML entities turned into
+ * character references, stray {@code <} and {@code &} escaped, unmatched end
+ * tags dropped and open elements closed at the end.
+ * <p>
+ * Text is passed on in runs straight from the caller's buffer. Only the
+ * markup of one tag and the stack of open elements are held, so memory does
+ * not grow with the document. Closing the sanitizer closes the target.
+ */
+public final class XhtmlSanitizer extends Writer {
+    // Longer tags (e.g. inline images) are dropped; deeper nesting is flattened
+    private static final int MAX_TAG = 1 << 20;
+    private static final int MAX_DEPTH = 256;
+    private static final int MAX_ENTITY = 10;
+
+    // What HTMLEditorKit writes; these names are matched in place instead of copied out of each tag
+    private static final String[] COMMON_NAMES = {
+        "p", "b", "i", "u", "a", "br", "font", "span", "div", "table", "tr", "td", "th", "ul", "ol", "li",
+        "img", "hr", "h1", "h2", "h3", "h4", "h5", "h6", "strong", "em", "pre", "code", "sub", "sup",
+        "blockquote", "center", "html", "head", "body", "style", "script", "meta", "title" };
+
+    private static final int TEXT = 0;
+    private static final int MARKUP = 1;
+    private static final int TAG = 2;
+    private static final int COMMENT = 3;
+    private static final int ENTITY = 4;
+
+    private final Writer out;
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder(MAX_ENTITY);
+    private final String[] open = new String[MAX_DEPTH];
+    private char[] chunk;
+    private int depth;
+    private int state = TEXT;
+    private char quote;
+    private char previous;
+    private int dashes;
+    private boolean overflow;
+    // Inside a head, style or script element: everything up to its end tag is dropped
+    private String skipping;
+    private int skipDepth;
+    private boolean started;
+    private boolean closed;
+
+    public XhtmlSanitizer(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Sanitizes a complete document held in memory.
+     */
+    public static String sanitize(String html) {
+        StringBuilder result = new StringBuilder(html.length() + 32);
+        try (XhtmlSanitizer sanitizer = new XhtmlSanitizer(new BuilderWriter(result))) {
+            sanitizer.write(html);
+        } catch (IOException e) {
+            // Appending to a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Sanitizer closed");
+        }
+        start();
+        int end = off + len;
+        int run = off;
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+            switch (state) {
+                case TEXT:
+                    if (c == '<' || c == '&' || (c < 0x20 && c != '\t' && c != '\n' && c != '\r')) {
+                        text(cbuf, run, i);
+                        run = i + 1;
+                        if (c == '<') {
+                            state = MARKUP;
+                        } else if (c == '&') {
+                            state = ENTITY;
+                            entity.setLength(0);
+                        }
+                        // Other control characters are not allowed in XML and are dropped
+                    }
+                    break;
+                case MARKUP:
+                    if (isLetter(c) || c == '/' || c == '!' || c == '?') {
+                        state = TAG;
+                        tag.setLength(0);
+                        tag.append(c);
+                        quote = 0;
+                        previous = c;
+                        overflow = false;
+                    } else {
+                        // A lone '<' in the text
+                        text("&lt;");
+                        state = TEXT;
+                        run = i;
+                        i--;
+                    }
+                    break;
+                case TAG:
+                    tag(c);
+                    if (state == TEXT) {
+                        run = i + 1;
+                    }
+                    break;
+                case COMMENT:
+                    if (c == '>' && dashes >= 2) {
+                        state = TEXT;
+                        run = i + 1;
+                    }
+                    dashes = c == '-' ? dashes + 1 : 0;
+                    break;
+                default:
+                    if (c == ';' && entity.length() > 0) {
+                        if (skipping == null) {
+                            reference(entity, 0, entity.length());
+                        }
+                        state = TEXT;
+                        run = i + 1;
+                    } else if (entity.length() < MAX_ENTITY
+                            && (isLetter(c) || (c >= '0' && c <= '9') || (c == '#' && entity.length() == 0))) {
+                        entity.append(c);
+                    } else {
+                        // Not an entity reference: escape the ampersand and go on with the text
+                        text("&amp;");
+                        text(entity);
+                        state = TEXT;
+                        run = i;
+                        i--;
+                    }
+                    break;
+            }
+        }
+        if (state == TEXT) {
+            text(cbuf, run, end);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        // Copy through a fixed buffer; Writer would allocate one as long as the string
+        if (chunk == null) {
+            chunk = new char[8192];
+        }
+        for (int from = off; from < off + len; from += chunk.length) {
+            int n = Math.min(chunk.length, off + len - from);
+            str.getChars(from, from + n, chunk, 0);
+            write(chunk, 0, n);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Ends the document, closing any elements still open, and closes the
+     * target.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            start();
+            if (state == ENTITY) {
+                text("&amp;");
+                text(entity);
+            } else if (state == MARKUP) {
+                text("&lt;");
+            }
+            // An unfinished tag or comment is dropped
+            state = TEXT;
+            while (depth > 0) {
+                closeTop();
+            }
+            out.write("</body></html>");
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            out.write("<html><body>");
+        }
+    }
+
+    private void text(char[] cbuf, int from, int to) throws IOException {
+        if (to > from && skipping == null) {
+            out.write(cbuf, from, to - from);
+        }
+    }
+
+    private void text(CharSequence s) throws IOException {
+        if (skipping == null) {
+            out.append(s);
+        }
+    }
+
+    /**
+     * Writes the reference {@code &name;} for {@code s[from, to)}: XML's own
+     * entities and valid character references as they are, other HTML
+     * entities as character references, anything else with the ampersand
+     * escaped.
+     */
+    private void reference(CharSequence s, int from, int to) throws IOException {
+        int code = resolve(s, from, to);
+        if (code == 0) {
+            out.write('&');
+            out.append(s, from, to);
+            out.write(';');
+        } else if (code > 0) {
+            out.write("&#");
+            out.write(Integer.toString(code));
+            out.write(';');
+        } else {
+            out.write("&amp;");
+            out.append(s, from, to);
+            out.write(';');
+        }
+    }
+
+    /**
+     * Returns 0 if {@code &name;} may stay as it is, the code point to
+     * reference instead, or -1 if it is not a reference XML would accept.
+     */
+    private static int resolve(CharSequence s, int from, int to) {
+        if (s.charAt(from) == '#') {
+            boolean hex = to - from > 1 && (s.charAt(from + 1) == 'x' || s.charAt(from + 1) == 'X');
+            int digits = from + (hex ? 2 : 1);
+            if (digits == to) {
+                return -1;
+            }
+            int code = 0;
+            for (int i = digits; i < to; i++) {
+                int digit = Character.digit(s.charAt(i), hex ? 16 : 10);
+                if (digit < 0 || code > 0x10FFFF) {
+                    return -1;
+                }
+                code = code * (hex ? 16 : 10) + digit;
+            }
+            boolean valid = code == 0x9 || code == 0xA || code == 0xD || (code >= 0x20 && code <= 0xD7FF)
+                    || (code >= 0xE000 && code <= 0xFFFD) || (code >= 0x10000 && code <= 0x10FFFF);
+            return valid ? 0 : -1;
+        }
+        String name = s.subSequence(from, to).toString();
+        switch (name) {
+            case "amp":
+            case "lt":
+            case "gt":
+            case "quot":
+            case "apos":
+                return 0;
+            default:
+                char decoded = EntitiesToUnicode.decodeEntity(name);
+                return decoded == 0 ? -1 : decoded;
+        }
+    }
+
+    private void tag(char c) throws IOException {
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if (c == '>') {
+            state = TEXT;
+            if (!overflow) {
+                element();
+            }
+            return;
+        } else if ((c == '"' || c == '\'') && previous == '=') {
+            quote = c;
+        }
+        if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+            previous = c;
+        }
+        if (overflow) {
+            return;
+        }
+        if (tag.length() == MAX_TAG) {
+            overflow = true;
+            return;
+        }
+        tag.append(c);
+        if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+            state = COMMENT;
+            dashes = 0;
+        }
+    }
+
+    /**
+     * Handles the complete tag in {@link #tag}, without its angle brackets.
+     */
+    private void element() throws IOException {
+        int length = tag.length();
+        char first = tag.charAt(0);
+        if (first == '!' || first == '?') {
+            // Declarations and processing instructions
+            return;
+        }
+        boolean closing = first == '/';
+        int nameStart = closing ? 1 : 0;
+        int nameEnd = nameStart;
+        while (nameEnd < length && isNameChar(tag.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == nameStart) {
+            return;
+        }
+        String name = name(nameStart, nameEnd);
+        boolean selfClosing = !closing && tag.charAt(length - 1) == '/';
+
+        if (skipping != null) {
+            if (name.equals(skipping) && !selfClosing) {
+                skipDepth += closing ? -1 : 1;
+                if (skipDepth == 0) {
+                    skipping = null;
+                }
+            }
+            return;
+        }
+        if (name.equals("head") || name.equals("style") || name.equals("script")) {
+            if (!closing && !selfClosing) {
+                skipping = name;
+                skipDepth = 1;
+            }
+            return;
+        }
+        if (name.equals("html") || name.equals("body") || name.indexOf(':') >= 0) {
+            // The wrapper is written once; Office namespace tags mean nothing to XMLWorker
+            return;
+        }
+        if (closing) {
+            for (int d = depth - 1; d >= 0; d--) {
+                if (open[d].equals(name)) {
+                    while (depth > d) {
+                        closeTop();
+                    }
+                    return;
+                }
+            }
+            // No such element is open
+            return;
+        }
+        boolean empty = selfClosing || isVoid(name);
+        if (!empty && depth == MAX_DEPTH) {
+            return;
+        }
+        out.write('<');
+        out.write(name);
+        attributes(nameEnd, selfClosing ? length - 1 : length);
+        if (empty) {
+            out.write(" />");
+        } else {
+            out.write('>');
+            open[depth++] = name;
+        }
+    }
+
+    /**
+     * Writes the attributes in {@code tag[from, to)} as well-formed XML:
+     * names lower-cased, values double-quoted and escaped, duplicates and
+     * invalid names dropped.
+     */
+    private void attributes(int from, int to) throws IOException {
+        int written = 0;
+        String[] names = null;
+        int i = from;
+        while (i < to) {
+            char c = tag.charAt(i);
+            if (!isLetter(c) && c != '_') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < to && isNameChar(tag.charAt(i))) {
+                i++;
+            }
+            String name = tag.substring(nameStart, i).toLowerCase(Locale.ROOT);
+            while (i < to && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            int valueStart = nameStart;
+            int valueEnd = nameStart + name.length();
+            if (i < to && tag.charAt(i) == '=') {
+                i++;
+                while (i < to && Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                if (i < to && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                    char q = tag.charAt(i++);
+                    valueStart = i;
+                    while (i < to && tag.charAt(i) != q) {
+                        i++;
+                    }
+                    valueEnd = i;
+                    i++;
+                } else {
+                    valueStart = i;
+                    while (i < to && !Character.isWhitespace(tag.charAt(i))) {
+                        i++;
+                    }
+                    valueEnd = i;
+                }
+            }
+            if (name.indexOf(':') >= 0 || contains(names, written, name)) {
+                continue;
+            }
+            if (names == null) {
+                names = new String[4];
+            } else if (written == names.length) {
+                names = Arrays.copyOf(names, written * 2);
+            }
+            names[written++] = name;
+            out.write(' ');
+            out.write(name);
+            out.write("=\"");
+            attributeValue(valueStart, Math.min(valueEnd, to));
+            out.write('"');
+        }
+    }
+
+    private void attributeValue(int from, int to) throws IOException {
+        int run = from;
+        for (int i = from; i < to; i++) {
+            char c = tag.charAt(i);
+            if (c != '"' && c != '<' && c != '&' && (c >= 0x20 || c == '\t' || c == '\n' || c == '\r')) {
+                continue;
+            }
+            out.append(tag, run, i);
+            run = i + 1;
+            if (c == '"') {
+                out.write("&quot;");
+            } else if (c == '<') {
+                out.write("&lt;");
+            } else if (c == '&') {
+                int end = referenceEnd(i + 1, to);
+                if (end < 0) {
+                    out.write("&amp;");
+                } else {
+                    reference(tag, i + 1, end);
+                    i = end;
+                    run = end + 1;
+                }
+            }
+        }
+        out.append(tag, run, to);
+    }
+
+    /**
+     * Returns the index of the ';' ending a reference name starting at
+     * {@code from}, or -1.
+     */
+    private int referenceEnd(int from, int to) {
+        int i = from;
+        while (i < to && i - from < MAX_ENTITY
+                && (isLetter(tag.charAt(i)) || Character.isDigit(tag.charAt(i)) || (tag.charAt(i) == '#' && i == from))) {
+            i++;
+        }
+        return i > from && i < to && tag.charAt(i) == ';' ? i : -1;
+    }
+
+    private void closeTop() throws IOException {
+        String name = open[--depth];
+        open[depth] = null;
+        out.write("</");
+        out.write(name);
+        out.write('>');
+    }
+
+    private String name(int from, int to) {
+        for (String common : COMMON_NAMES) {
+            if (common.length() == to - from && regionMatches(common, from)) {
+                return common;
+            }
+        }
+        return tag.substring(from, to).toLowerCase(Locale.ROOT);
+    }
+
+    private boolean regionMatches(String lowerCase, int from) {
+        for (int k = 0; k < lowerCase.length(); k++) {
+            char c = tag.charAt(from + k);
+            if (c != lowerCase.charAt(k) && Character.toLowerCase(c) != lowerCase.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(String[] names, int count, String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVoid(String name) {
+        switch (name) {
+            case "br":
+            case "hr":
+            case "img":
+            case "input":
+            case "meta":
+            case "link":
+            case "col":
+            case "area":
+            case "base":
+            case "param":
+            case "wbr":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isNameChar(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == ':' || c == '.';
+    }
+
+    /**
+     * Unsynchronised writer into a StringBuilder, for {@link #sanitize}.
+     */
+    private static final class BuilderWriter extends Writer {
+        private final StringBuilder target;
+
+        BuilderWriter(StringBuilder target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            target.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(int c) {
+            target.append((char) c);
+        }
+
+        @Override
+        public void write(String str) {
+            target.append(str);
+        }
+
+        @Override
+        public Writer append(CharSequence csq, int start, int end) {
+            target.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Writer append(CharSequence csq) {
+            target.append(csq);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
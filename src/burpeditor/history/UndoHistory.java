@@ -0,0 +1,463 @@
+package burpeditor.history;
+
+import burpeditor.model.DiagramListener;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Edge;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One undo history for the diagram and the notes. Model changes are recorded
+ * as small invertible edits holding only what changed (ids, handles and
+ * coordinates), so undoing a bulk operation costs one step per changed
+ * element rather than a copy of the diagram. Changes between
+ * {@link DiagramModel#beginUpdate(String)} and {@link DiagramModel#endUpdate()}
+ * become one undoable step, together with any notes edits made meanwhile;
+ * other notes edits are grouped into one step per burst of typing. Updates
+ * begun with the same step object, with nothing recorded in between, are
+ * merged into one step, so a long operation can close its group whenever it
+ * yields to the user.
+ * <p>
+ * History is bounded both by the number of steps and by an estimate of the
+ * memory the steps hold; the oldest steps are dropped first. Loading or
+ * clearing the whole diagram discards the history. EDT only.
+ */
+public class UndoHistory extends UndoManager implements DiagramListener, UndoableEditListener {
+    private static final int DEFAULT_LIMIT = 500;
+    private static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+    private static final long TYPING_PAUSE_MILLIS = 1000;
+    private static final int EDIT_BYTES = 48;
+
+    private final DiagramModel model;
+    private final long budgetBytes;
+    private Group update;
+    private int updateDepth;
+    private Group typing;
+    private long lastTyping;
+    private boolean applying;
+
+    public UndoHistory(DiagramModel model) {
+        this(model, DEFAULT_LIMIT, DEFAULT_BUDGET_BYTES);
+    }
+
+    public UndoHistory(DiagramModel model, int limit, long budgetBytes) {
+        this.model = model;
+        this.budgetBytes = budgetBytes;
+        setLimit(limit);
+        model.addListener(this);
+    }
+
+    @Override
+    public synchronized void undo() throws CannotUndoException {
+        closeTyping();
+        applying = true;
+        try {
+            super.undo();
+        } finally {
+            applying = false;
+        }
+    }
+
+    @Override
+    public synchronized void redo() throws CannotRedoException {
+        closeTyping();
+        applying = true;
+        try {
+            super.redo();
+        } finally {
+            applying = false;
+        }
+    }
+
+    @Override
+    public synchronized boolean canUndo() {
+        return typing != null && typing.isInProgress() || super.canUndo();
+    }
+
+    @Override
+    public synchronized boolean addEdit(UndoableEdit edit) {
+        boolean added = super.addEdit(edit);
+        // Edits absorbed by an open step are accounted for when it closes
+        if (!edits.isEmpty() && edits.lastElement() == edit) {
+            trimToBudget();
+        }
+        return added;
+    }
+
+    @Override
+    public void undoableEditHappened(UndoableEditEvent e) {
+        UndoableEdit edit = e.getEdit();
+        if (applying) {
+            return;
+        }
+        if (update == null) {
+            long now = System.currentTimeMillis();
+            if (typing == null || !typing.isInProgress() || now - lastTyping > TYPING_PAUSE_MILLIS) {
+                closeTyping();
+                typing = new Group("Typing");
+                addEdit(typing);
+            }
+            lastTyping = now;
+        }
+        addEdit(edit);
+    }
+
+    /**
+     * Starts a step that collects every edit until the matching
+     * {@link #endGroup()}, for notes operations made of several document
+     * changes. Groups nest with each other and with model updates; only the
+     * outermost one becomes a step.
+     */
+    public void beginGroup(String name) {
+        beginGroup(name, null);
+    }
+
+    private void beginGroup(String name, Object step) {
+        if (applying) {
+            // e.g. a node removal undoing an add, which cascades to its edges
+            return;
+        }
+        if (updateDepth++ == 0) {
+            closeTyping();
+            update = new Group(name, step);
+            addEdit(update);
+        }
+    }
+
+    public void endGroup() {
+        if (applying || updateDepth == 0 || --updateDepth > 0) {
+            return;
+        }
+        if (update != null) {
+            update.end();
+            int index = edits.indexOf(update);
+            if (update.isEmpty() && index >= 0) {
+                // Nothing changed, e.g. a click without a drag
+                trimEdits(index, index);
+            } else if (index > 0 && update.continues(edits.get(index - 1))) {
+                ((Group) edits.get(index - 1)).absorb(update);
+                trimEdits(index, index);
+            }
+            update = null;
+            trimToBudget();
+        }
+    }
+
+    @Override
+    public void updateStarted(String name, Object step) {
+        beginGroup(name, step);
+    }
+
+    @Override
+    public void updateFinished() {
+        endGroup();
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        record(new NodeEdit(node, true));
+    }
+
+    @Override
+    public void nodeRemoved(Node node) {
+        record(new NodeEdit(node, false));
+    }
+
+    @Override
+    public void nodeMoved(Node node, int oldX, int oldY) {
+        record(new MoveEdit(node.getId(), oldX, oldY, node.getX(), node.getY()));
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        EdgeStore edges = model.getEdges();
+        record(new EdgeEdit(edge, edges.x1(edge), edges.y1(edge), edges.x2(edge), edges.y2(edge),
+                edges.source(edge), edges.target(edge), true));
+    }
+
+    @Override
+    public void edgeRemoved(Edge edge) {
+        record(new EdgeEdit(edge.getHandle(), edge.getX1(), edge.getY1(), edge.getX2(), edge.getY2(),
+                edge.getSource(), edge.getTarget(), false));
+    }
+
+    @Override
+    public void diagramCleared() {
+        reset();
+    }
+
+    @Override
+    public void diagramReplaced() {
+        reset();
+    }
+
+    private void reset() {
+        if (!applying) {
+            typing = null;
+            update = null;
+            updateDepth = 0;
+            discardAllEdits();
+        }
+    }
+
+    private void record(UndoableEdit edit) {
+        if (applying) {
+            return;
+        }
+        if (update == null) {
+            closeTyping();
+        }
+        addEdit(edit);
+    }
+
+    private void closeTyping() {
+        if (typing != null && typing.isInProgress()) {
+            typing.end();
+        }
+        typing = null;
+    }
+
+    private void trimToBudget() {
+        long total = 0;
+        for (UndoableEdit edit : edits) {
+            total += sizeOf(edit);
+        }
+        // Drop the oldest steps, but never the one still being recorded
+        while (total > budgetBytes && edits.size() > 1 && edits.get(0) != update && edits.get(0) != typing) {
+            total -= sizeOf(edits.get(0));
+            trimEdits(0, 0);
+        }
+    }
+
+    static long sizeOf(UndoableEdit edit) {
+        if (edit instanceof Group) {
+            return ((Group) edit).bytes;
+        }
+        if (edit instanceof DocumentEvent) {
+            return EDIT_BYTES + 2L * ((DocumentEvent) edit).getLength();
+        }
+        return EDIT_BYTES;
+    }
+
+    /**
+     * A named step made of smaller edits that tracks their estimated size.
+     * While a group holds nothing but moves (a drag), each node keeps a single
+     * move from its start to its latest position, so a long drag of many
+     * nodes costs one edit per node.
+     */
+    private static final class Group extends CompoundEdit {
+        private final String name;
+        private final Object step;
+        private final Map<Integer, MoveEdit> moves = new HashMap<>();
+        private boolean onlyMoves = true;
+        private long bytes = EDIT_BYTES;
+
+        Group(String name) {
+            this(name, null);
+        }
+
+        Group(String name, Object step) {
+            this.name = name;
+            this.step = step;
+        }
+
+        @Override
+        public boolean addEdit(UndoableEdit edit) {
+            if (!isInProgress()) {
+                return false;
+            }
+            UndoableEdit last = lastEdit();
+            if (last != null && last.addEdit(edit)) {
+                return true;
+            }
+            if (edit instanceof MoveEdit && onlyMoves) {
+                MoveEdit move = (MoveEdit) edit;
+                MoveEdit earlier = moves.get(move.id);
+                if (earlier != null) {
+                    earlier.toX = move.toX;
+                    earlier.toY = move.toY;
+                    return true;
+                }
+                moves.put(move.id, move);
+            } else {
+                onlyMoves = false;
+                moves.clear();
+            }
+            edits.add(edit);
+            bytes += sizeOf(edit);
+            return true;
+        }
+
+        @Override
+        public void end() {
+            super.end();
+            moves.clear();
+        }
+
+        boolean isEmpty() {
+            return edits.isEmpty();
+        }
+
+        /**
+         * Returns whether this group is the next part of the given step.
+         */
+        boolean continues(UndoableEdit previous) {
+            if (step == null || !(previous instanceof Group)) {
+                return false;
+            }
+            Group group = (Group) previous;
+            return group.step == step && !group.isInProgress() && group.canUndo();
+        }
+
+        /**
+         * Appends the edits of a later part of the same step, leaving it empty.
+         */
+        void absorb(Group later) {
+            edits.addAll(later.edits);
+            bytes += later.bytes - EDIT_BYTES;
+            later.edits.clear();
+        }
+
+        @Override
+        public String getPresentationName() {
+            return name;
+        }
+
+        // CompoundEdit would name the step after its last edit instead
+        @Override
+        public String getUndoPresentationName() {
+            return UIManager.getString("AbstractUndoableEdit.undoText") + " " + name;
+        }
+
+        @Override
+        public String getRedoPresentationName() {
+            return UIManager.getString("AbstractUndoableEdit.redoText") + " " + name;
+        }
+    }
+
+    private abstract class ModelEdit extends AbstractUndoableEdit {
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            apply(false);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            apply(true);
+        }
+
+        abstract void apply(boolean forward);
+    }
+
+    private final class NodeEdit extends ModelEdit {
+        private final int id;
+        private final String iconKey;
+        private final int x;
+        private final int y;
+        private final boolean added;
+
+        NodeEdit(Node node, boolean added) {
+            this.id = node.getId();
+            this.iconKey = node.getIconKey();
+            this.x = node.getX();
+            this.y = node.getY();
+            this.added = added;
+        }
+
+        @Override
+        void apply(boolean forward) {
+            if (forward == added) {
+                model.restoreNode(id, iconKey, x, y);
+            } else {
+                Node node = model.getNode(id);
+                if (node != null) {
+                    model.removeNode(node);
+                }
+            }
+        }
+
+        @Override
+        public String getPresentationName() {
+            return added ? "Add Device" : "Delete Device";
+        }
+    }
+
+    private final class MoveEdit extends ModelEdit {
+        private final int id;
+        private final int fromX;
+        private final int fromY;
+        private int toX;
+        private int toY;
+
+        MoveEdit(int id, int fromX, int fromY, int toX, int toY) {
+            this.id = id;
+            this.fromX = fromX;
+            this.fromY = fromY;
+            this.toX = toX;
+            this.toY = toY;
+        }
+
+        @Override
+        void apply(boolean forward) {
+            Node node = model.getNode(id);
+            if (node != null) {
+                model.moveNode(node, forward ? toX : fromX, forward ? toY : fromY);
+            }
+        }
+
+        @Override
+        public String getPresentationName() {
+            return "Move";
+        }
+    }
+
+    private final class EdgeEdit extends ModelEdit {
+        private final int edge;
+        private final int x1;
+        private final int y1;
+        private final int x2;
+        private final int y2;
+        private final int source;
+        private final int target;
+        private final boolean added;
+
+        EdgeEdit(int edge, int x1, int y1, int x2, int y2, int source, int target, boolean added) {
+            this.edge = edge;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.source = source;
+            this.target = target;
+            this.added = added;
+        }
+
+        @Override
+        void apply(boolean forward) {
+            if (forward == added) {
+                model.restoreEdge(edge, x1, y1, x2, y2, source, target);
+            } else {
+                model.removeEdge(edge);
+            }
+        }
+
+        @Override
+        public String getPresentationName() {
+            return added ? "Draw Line" : "Delete Line";
+        }
+    }
+}
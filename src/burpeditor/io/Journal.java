@@ -0,0 +1,785 @@
+package burpeditor.io;
+
+import burpeditor.model.DiagramListener;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.DiagramState;
+import burpeditor.model.Edge;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe autosave. Every model change and settled notes edit is queued as
+ * a small record; the calling thread (normally the EDT) only allocates the
+ * record and never waits. Notes are read on the writer thread and journaled
+ * as the span that differs from the previous version, so a typing pause in
+ * long notes costs a few bytes rather than a copy of the whole document. A single writer thread drains the queue in batches,
+ * appends each batch to the journal as one checksummed frame and forces it to
+ * disk once per batch (group commit).
+ * <p>
+ * The writer applies the same records to a private shadow model. When the
+ * journal grows past {@link #COMPACT_BYTES}, and on close, it writes the
+ * shadow as a full project snapshot and starts an empty journal, so
+ * compaction reads nothing owned by the EDT. Snapshot and journal files carry
+ * a generation number: generation <i>n</i> is the snapshot
+ * {@code autosave-n.bsch} plus the edits in {@code autosave-n.journal}, and
+ * older generations are only deleted once a newer snapshot is on disk.
+ * Recovery replays the newest snapshot and its journal up to the first torn
+ * or corrupt frame.
+ * <p>
+ * Each Burp session journals into a directory of its own under the root, so
+ * two instances never share one. Closing leaves a {@link #CLEAN_MARKER} in
+ * it; a session directory without one was not closed and is adopted, and
+ * recovered, by the next session that starts. Cleanly closed ones are
+ * deleted then.
+ */
+public class Journal implements DiagramListener {
+    private static final int MAGIC = 0x42534a4c;  // "BSJL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final long COMPACT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_BATCH = 4096;
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("autosave-(\\d+)\\.bsch");
+    private static final Pattern SESSION_NAME = Pattern.compile("session-(\\d+)");
+    private static final String CLEAN_MARKER = "clean";
+    private static final String LOCK_FILE = "autosave.lock";
+
+    private static final byte ADD_NODE = 1;
+    private static final byte MOVE_NODE = 2;
+    private static final byte REMOVE_NODE = 3;
+    private static final byte ADD_EDGE = 4;
+    private static final byte REMOVE_EDGE = 5;
+    private static final byte CLEAR = 6;
+    private static final byte NOTES = 7;
+    private static final byte REPLACE = 8;
+    private static final byte CLOSE = 9;
+    private static final byte ADD_LINK = 10;
+    private static final byte SITE = 11;
+    private static final byte PATCH_NOTES = 12;
+    private static final byte DISCARD = 13;
+
+    private final File root;
+    private final DiagramModel model;
+    private final BlockingQueue<Edit> queue = new LinkedBlockingQueue<>();
+    private volatile boolean enabled = true;
+    private Thread writer;
+    private Consumer<String> problems = message -> { };
+
+    // Owned by the writer thread
+    private File dir;
+    private final DiagramModel shadow = new DiagramModel();
+    private String shadowNotes = "";
+    // Site map key and label per node id; entries of removed nodes are dropped when compacting
+    private final Map<Integer, String[]> shadowSites = new LinkedHashMap<>();
+    private long generation;
+    private FileChannel journal;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    /**
+     * Creates a journal for {@code model}, whose changes it records once it
+     * has been added as a listener, in a session directory under {@code root}.
+     */
+    public Journal(File root, DiagramModel model) {
+        this.root = root;
+        this.model = model;
+    }
+
+    /**
+     * Starts the writer thread. It first recovers the autosave of a session
+     * that was not closed and hands it to {@code recovered} (on the writer
+     * thread; null if there was none, it was empty or autosave is
+     * unavailable), then starts recording. Edits queued meanwhile are kept.
+     * Anything that keeps autosave from working, or loses part of a recovered
+     * session, is reported to {@code problems}, also on the writer thread.
+     */
+    public synchronized void start(Consumer<Project> recovered, Consumer<String> problems) {
+        if (writer != null) {
+            throw new IllegalStateException("Journal already started");
+        }
+        this.problems = problems;
+        writer = new Thread(() -> run(recovered), "Schematics journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes a final snapshot, marks the session as cleanly closed and stops
+     * the writer, waiting at most {@code timeoutMillis} for it.
+     */
+    public void close(long timeoutMillis) {
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+        }
+        offer(new Edit(CLOSE));
+        if (thread != null) {
+            try {
+                thread.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Drops everything journaled so far, e.g. a recovered session the user
+     * did not want, so the journal starts over from an empty diagram and
+     * notes. Later changes are recorded as usual.
+     */
+    public void discard() {
+        offer(new Edit(DISCARD));
+    }
+
+    /**
+     * Records the notes HTML. Callers should only send settled text, e.g.
+     * after typing pauses, since the writer compares it with the previous
+     * version.
+     */
+    public void notesChanged(String html) {
+        notesChanged(() -> html != null ? html : "");
+    }
+
+    /**
+     * Records the notes HTML that {@code html} returns when the writer thread
+     * gets to it, so the notes are not serialized on the caller's thread. If
+     * it fails, e.g. because the notes changed while being read, the record
+     * is dropped and the next one brings the notes up to date.
+     */
+    public void notesChanged(Callable<String> html) {
+        Edit edit = new Edit(NOTES);
+        edit.notes = html;
+        offer(edit);
+    }
+
+    /**
+     * Records that a device was generated for a site map key.
+     */
+    public void siteMapped(int nodeId, String key, String label) {
+        Edit edit = new Edit(SITE, nodeId, key, 0, 0);
+        edit.label = label;
+        offer(edit);
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        offer(new Edit(ADD_NODE, node.getId(), node.getIconKey(), node.getX(), node.getY()));
+    }
+
+    @Override
+    public void nodeMoved(Node node, int oldX, int oldY) {
+        offer(new Edit(MOVE_NODE, node.getId(), null, node.getX(), node.getY()));
+    }
+
+    @Override
+    public void nodeRemoved(Node node) {
+        offer(new Edit(REMOVE_NODE, node.getId(), null, 0, 0));
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        EdgeStore edges = model.getEdges();
+        Edit edit = new Edit(edges.isAttached(edge) ? ADD_LINK : ADD_EDGE, edge, null, edges.x1(edge), edges.y1(edge));
+        edit.x2 = edges.x2(edge);
+        edit.y2 = edges.y2(edge);
+        edit.source = edges.source(edge);
+        edit.target = edges.target(edge);
+        offer(edit);
+    }
+
+    @Override
+    public void edgeRemoved(Edge edge) {
+        offer(new Edit(REMOVE_EDGE, edge.getHandle(), null, 0, 0));
+    }
+
+    @Override
+    public void diagramCleared() {
+        offer(new Edit(CLEAR));
+    }
+
+    @Override
+    public void diagramReplaced() {
+        // Replacing is already O(diagram) for the caller; the writer starts a new generation from the copy
+        if (enabled) {
+            Edit edit = new Edit(REPLACE);
+            edit.state = model.getState();
+            queue.offer(edit);
+        }
+    }
+
+    private void offer(Edit edit) {
+        if (enabled) {
+            queue.offer(edit);
+        }
+    }
+
+    private void run(Consumer<Project> recovered) {
+        boolean delivered = false;
+        try {
+            openSession();
+            Project project = recover();
+            delivered = true;
+            recovered.accept(project);
+
+            List<Edit> batch = new ArrayList<>();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            boolean closing = false;
+            while (!closing) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                Edit latestNotes = null;
+                for (Edit edit : batch) {
+                    if (edit.type == NOTES) {
+                        latestNotes = edit;
+                    }
+                }
+                for (Edit edit : batch) {
+                    if (edit.type == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    if (edit.type == NOTES) {
+                        // Only the newest notes in a batch are read
+                        edit = edit == latestNotes ? diffNotes(edit) : null;
+                        if (edit == null) {
+                            continue;
+                        }
+                    }
+                    apply(edit);
+                    if (edit.type == REPLACE || edit.type == DISCARD) {
+                        // Everything before it is superseded by the new generation
+                        bytes.reset();
+                        compact();
+                    } else {
+                        encode(edit, out);
+                    }
+                }
+                batch.clear();
+                if (bytes.size() > 0) {
+                    appendFrame(bytes.toByteArray());
+                    bytes.reset();
+                }
+                if (closing || journal.size() > COMPACT_BYTES) {
+                    compact();
+                }
+            }
+            // Only once the final snapshot is on disk
+            if (!new File(dir, CLEAN_MARKER).createNewFile()) {
+                throw new IOException("Cannot mark " + dir + " as closed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            problems.accept("Autosave stopped: " + e.getMessage());
+        } finally {
+            enabled = false;
+            queue.clear();
+            closeQuietly();
+            if (!delivered) {
+                recovered.accept(null);
+            }
+        }
+    }
+
+    /**
+     * Locks the session directory to journal into: the newest one that was
+     * not closed and that no other Burp instance holds, or else a new one.
+     * Directories of cleanly closed sessions are deleted on the way.
+     */
+    private void openSession() throws IOException {
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Cannot create " + root);
+        }
+        File[] sessions = root.listFiles((parent, name) -> SESSION_NAME.matcher(name).matches());
+        if (sessions != null) {
+            Arrays.sort(sessions, Comparator.comparingLong(Journal::sessionId).reversed());
+            for (File session : sessions) {
+                if (!lock(session)) {
+                    continue;  // open in another Burp instance
+                }
+                if (!new File(session, CLEAN_MARKER).isFile()) {
+                    dir = session;
+                    return;
+                }
+                unlock();
+                File[] files = session.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                session.delete();
+            }
+        }
+        for (long id = System.currentTimeMillis(); ; id++) {
+            File session = new File(root, "session-" + id);
+            if (session.mkdir()) {
+                // Another instance starting at the same time may adopt it first
+                if (lock(session)) {
+                    dir = session;
+                    return;
+                }
+            } else if (!session.exists()) {
+                throw new IOException("Cannot create " + session);
+            }
+        }
+    }
+
+    private static long sessionId(File session) {
+        Matcher m = SESSION_NAME.matcher(session.getName());
+        return m.matches() ? Long.parseLong(m.group(1)) : -1;
+    }
+
+    private boolean lock(File session) throws IOException {
+        lockChannel = FileChannel.open(new File(session, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+        }
+        return lock != null;
+    }
+
+    private void unlock() throws IOException {
+        lock.release();
+        lockChannel.close();
+        lock = null;
+        lockChannel = null;
+    }
+
+    /**
+     * Rebuilds the shadow model from the newest generation and compacts it
+     * into a fresh one, dropping any torn journal tail.
+     */
+    private Project recover() throws IOException {
+        long newest = -1;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = SNAPSHOT_NAME.matcher(file.getName());
+                if (m.matches()) {
+                    newest = Math.max(newest, Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        Project project = null;
+        if (newest >= 0) {
+            generation = newest;
+            try {
+                Project snapshot = ProjectFile.read(snapshotFile(newest));
+                shadow.setState(snapshot.getDiagram());
+                shadowNotes = snapshot.getNotesHtml();
+                SiteEntries sites = snapshot.getSites();
+                for (int i = 0; i < sites.size(); i++) {
+                    shadowSites.put(sites.getNodeId(i), new String[] { sites.getKey(i), sites.getLabel(i) });
+                }
+                replay(journalFile(newest));
+                if (shadow.getNodeCount() > 0 || shadow.getEdges().size() > 0 || !shadowNotes.isEmpty()) {
+                    project = new Project(shadow.getState(), shadowNotes, shadowSites());
+                }
+            } catch (IOException e) {
+                problems.accept("Could not recover autosave " + newest + ": " + e.getMessage());
+                snapshotFile(newest).renameTo(new File(dir, "autosave-" + newest + ".bsch.bad"));
+                shadow.clear();
+                shadowNotes = "";
+                shadowSites.clear();
+            }
+        }
+        compact();
+        return project;
+    }
+
+    private void replay(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() > VERSION) {
+                return;
+            }
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;  // torn tail of a batch that never finished writing
+                }
+                ByteBuffer frame = buffer.slice();
+                frame.limit(length);
+                buffer.position(buffer.position() + length);
+                crc.reset();
+                crc.update(frame.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                while (frame.hasRemaining()) {
+                    apply(decode(frame));
+                }
+            }
+        } catch (BufferUnderflowException | IllegalStateException | IllegalArgumentException e) {
+            problems.accept("Autosave journal replay stopped early, later edits are lost: " + e);
+        }
+    }
+
+    /**
+     * Writes the shadow as the snapshot of the next generation, switches to
+     * an empty journal for it and deletes every older generation.
+     */
+    private void compact() throws IOException {
+        long next = generation + 1;
+        ProjectFile.write(new Project(shadow.getState(), shadowNotes, shadowSites()), snapshotFile(next));
+        FileChannel fresh = FileChannel.open(journalFile(next).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            fresh.write(header);
+        }
+        fresh.force(false);
+        if (journal != null) {
+            journal.close();
+        }
+        journal = fresh;
+        generation = next;
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                Matcher m = SNAPSHOT_NAME.matcher(name.replace(".journal", ".bsch"));
+                if (m.matches() && Long.parseLong(m.group(1)) < generation) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the notes of a notes record and returns the change from the
+     * shadow's notes as a patch, or null if they are unchanged or could not
+     * be read.
+     */
+    private Edit diffNotes(Edit edit) {
+        String html;
+        try {
+            html = edit.notes.call();
+        } catch (Exception e) {
+            return null;
+        }
+        String old = shadowNotes;
+        if (html.equals(old)) {
+            return null;
+        }
+        int shorter = Math.min(html.length(), old.length());
+        int prefix = 0;
+        while (prefix < shorter && html.charAt(prefix) == old.charAt(prefix)) {
+            prefix++;
+        }
+        // Never split a surrogate pair, which would not survive UTF-8
+        if (prefix > 0 && Character.isHighSurrogate(html.charAt(prefix - 1))) {
+            prefix--;
+        }
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && html.charAt(html.length() - 1 - suffix) == old.charAt(old.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (suffix > 0 && Character.isLowSurrogate(html.charAt(html.length() - suffix))) {
+            suffix--;
+        }
+        Edit patch = new Edit(PATCH_NOTES, prefix, html.substring(prefix, html.length() - suffix), 0, 0);
+        patch.x1 = old.length() - prefix - suffix;
+        return patch;
+    }
+
+    /**
+     * Returns the site map entries of the nodes the shadow still has, and
+     * forgets the others.
+     */
+    private SiteEntries shadowSites() {
+        shadowSites.keySet().removeIf(id -> shadow.getNode(id) == null);
+        int[] ids = new int[shadowSites.size()];
+        String[] keys = new String[ids.length];
+        String[] labels = new String[ids.length];
+        int i = 0;
+        for (Map.Entry<Integer, String[]> site : shadowSites.entrySet()) {
+            ids[i] = site.getKey();
+            keys[i] = site.getValue()[0];
+            labels[i] = site.getValue()[1];
+            i++;
+        }
+        return new SiteEntries(ids, keys, labels);
+    }
+
+    private void appendFrame(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (frame.hasRemaining()) {
+            journal.write(frame);
+        }
+        journal.force(false);
+    }
+
+    /**
+     * Applies a record to the shadow. Nodes and edges are added under their
+     * recorded id and handle, so the shadow stays in step with the model even
+     * for undone removals.
+     */
+    private void apply(Edit edit) {
+        switch (edit.type) {
+            case ADD_NODE:
+                shadow.restoreNode(edit.id, edit.text, edit.x1, edit.y1);
+                break;
+            case MOVE_NODE: {
+                Node node = shadow.getNode(edit.id);
+                if (node != null) {
+                    shadow.moveNode(node, edit.x1, edit.y1);
+                }
+                break;
+            }
+            case REMOVE_NODE: {
+                Node node = shadow.getNode(edit.id);
+                if (node != null) {
+                    shadow.removeNode(node);
+                }
+                break;
+            }
+            case ADD_EDGE:
+            case ADD_LINK:
+                shadow.restoreEdge(edit.id, edit.x1, edit.y1, edit.x2, edit.y2, edit.source, edit.target);
+                break;
+            case REMOVE_EDGE:
+                shadow.removeEdge(edit.id);
+                break;
+            case CLEAR:
+                shadow.clear();
+                shadowSites.clear();
+                break;
+            case NOTES:
+                shadowNotes = edit.text;
+                break;
+            case PATCH_NOTES: {
+                // id is where the change starts, x1 how many characters it replaces
+                if (edit.id < 0 || edit.x1 < 0 || edit.id + edit.x1 > shadowNotes.length()) {
+                    throw new IllegalStateException("Notes patch out of range");
+                }
+                shadowNotes = new StringBuilder(shadowNotes.length() - edit.x1 + edit.text.length())
+                        .append(shadowNotes, 0, edit.id)
+                        .append(edit.text)
+                        .append(shadowNotes, edit.id + edit.x1, shadowNotes.length())
+                        .toString();
+                break;
+            }
+            case REPLACE:
+                shadow.setState(edit.state);
+                shadowSites.clear();
+                break;
+            case DISCARD:
+                shadow.clear();
+                shadowNotes = "";
+                shadowSites.clear();
+                break;
+            case SITE:
+                shadowSites.put(edit.id, new String[] { edit.text, edit.label });
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record " + edit.type);
+        }
+    }
+
+    private static void encode(Edit edit, DataOutputStream out) throws IOException {
+        out.writeByte(edit.type);
+        switch (edit.type) {
+            case ADD_NODE:
+                out.writeInt(edit.id);
+                writeString(out, edit.text);
+                out.writeInt(edit.x1);
+                out.writeInt(edit.y1);
+                break;
+            case MOVE_NODE:
+                out.writeInt(edit.id);
+                out.writeInt(edit.x1);
+                out.writeInt(edit.y1);
+                break;
+            case ADD_EDGE:
+                out.writeInt(edit.id);
+                out.writeInt(edit.x1);
+                out.writeInt(edit.y1);
+                out.writeInt(edit.x2);
+                out.writeInt(edit.y2);
+                break;
+            case ADD_LINK:
+                out.writeInt(edit.id);
+                out.writeInt(edit.x1);
+                out.writeInt(edit.y1);
+                out.writeInt(edit.x2);
+                out.writeInt(edit.y2);
+                out.writeInt(edit.source);
+                out.writeInt(edit.target);
+                break;
+            case REMOVE_NODE:
+            case REMOVE_EDGE:
+                out.writeInt(edit.id);
+                break;
+            case NOTES:
+                writeString(out, edit.text);
+                break;
+            case PATCH_NOTES:
+                out.writeInt(edit.id);
+                out.writeInt(edit.x1);
+                writeString(out, edit.text);
+                break;
+            case SITE:
+                out.writeInt(edit.id);
+                writeString(out, edit.text);
+                writeString(out, edit.label);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static Edit decode(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case ADD_NODE: {
+                int id = in.getInt();
+                String icon = readString(in);
+                return new Edit(type, id, icon, in.getInt(), in.getInt());
+            }
+            case MOVE_NODE:
+                return new Edit(type, in.getInt(), null, in.getInt(), in.getInt());
+            case ADD_EDGE: {
+                Edit edit = new Edit(type, in.getInt(), null, in.getInt(), in.getInt());
+                edit.x2 = in.getInt();
+                edit.y2 = in.getInt();
+                return edit;
+            }
+            case ADD_LINK: {
+                Edit edit = new Edit(type, in.getInt(), null, in.getInt(), in.getInt());
+                edit.x2 = in.getInt();
+                edit.y2 = in.getInt();
+                edit.source = in.getInt();
+                edit.target = in.getInt();
+                return edit;
+            }
+            case REMOVE_NODE:
+            case REMOVE_EDGE:
+                return new Edit(type, in.getInt(), null, 0, 0);
+            case CLEAR:
+                return new Edit(type);
+            case NOTES: {
+                Edit edit = new Edit(type);
+                edit.text = readString(in);
+                return edit;
+            }
+            case PATCH_NOTES: {
+                int offset = in.getInt();
+                int removed = in.getInt();
+                return new Edit(type, offset, readString(in), removed, 0);
+            }
+            case SITE: {
+                Edit edit = new Edit(type, in.getInt(), readString(in), 0, 0);
+                edit.label = readString(in);
+                return edit;
+            }
+            default:
+                throw new IllegalStateException("Unknown journal record " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private File snapshotFile(long gen) {
+        return new File(dir, "autosave-" + gen + ".bsch");
+    }
+
+    private File journalFile(long gen) {
+        return new File(dir, "autosave-" + gen + ".journal");
+    }
+
+    private void closeQuietly() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            if (lock != null) {
+                lock.release();
+            }
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        } catch (IOException e) {
+            problems.accept("Error closing autosave journal: " + e.getMessage());
+        }
+    }
+
+    private static final class Edit {
+        final byte type;
+        int id;
+        String text;
+        String label;
+        Callable<String> notes;
+        int x1;
+        int y1;
+        int x2;
+        int y2;
+        int source;
+        int target;
+        DiagramState state;
+
+        Edit(byte type) {
+            this.type = type;
+        }
+
+        Edit(byte type, int id, String text, int x1, int y1) {
+            this.type = type;
+            this.id = id;
+            this.text = text;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+    }
+}
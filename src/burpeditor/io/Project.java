@@ -0,0 +1,50 @@
+package burpeditor.io;
+
+import burpeditor.model.DiagramState;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A saved schematic: the diagram plus the notes HTML, and which devices were
+ * generated from the site map. When read from a file
+ * the notes stay as encoded bytes until first asked for, so the diagram can
+ * be shown before the (often much larger) notes are decoded.
+ */
+public class Project {
+    private final DiagramState diagram;
+    private final SiteEntries sites;
+    private ByteBuffer encodedNotes;
+    private String notesHtml;
+
+    public Project(DiagramState diagram, String notesHtml) {
+        this(diagram, notesHtml, SiteEntries.NONE);
+    }
+
+    public Project(DiagramState diagram, String notesHtml, SiteEntries sites) {
+        this.diagram = diagram;
+        this.notesHtml = notesHtml != null ? notesHtml : "";
+        this.sites = sites;
+    }
+
+    Project(DiagramState diagram, ByteBuffer encodedNotes, SiteEntries sites) {
+        this.diagram = diagram;
+        this.encodedNotes = encodedNotes;
+        this.sites = sites;
+    }
+
+    public DiagramState getDiagram() {
+        return diagram;
+    }
+
+    public SiteEntries getSites() {
+        return sites;
+    }
+
+    public synchronized String getNotesHtml() {
+        if (notesHtml == null) {
+            notesHtml = encodedNotes != null ? StandardCharsets.UTF_8.decode(encodedNotes).toString() : "";
+            encodedNotes = null;
+        }
+        return notesHtml;
+    }
+}
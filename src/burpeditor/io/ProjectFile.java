@@ -0,0 +1,323 @@
+package burpeditor.io;
+
+import burpeditor.model.DiagramState;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary project format. A file is a header followed by tagged sections:
+ *
+ * <pre>
+ * header   magic "BSCH", u16 version, u16 reserved
+ * section  u32 tag, u32 length, payload
+ *   ICON   u32 count, then count x (u16 length, UTF-8 key)   icon string table
+ *   NODE   u32 nextId, u32 count, then count x (id, icon index, x, y)
+ *   EDGE   u32 slots, i32 free head, slots x (x1, y1, x2, y2), slots x i8 style
+ *   LINK   u32 slots, slots x (source node id, target node id), 0 = loose end;
+ *          only written when some edge is attached to a node
+ *   SITE   u32 count, count x (node id, u16 length, UTF-8 key, u16 length,
+ *          UTF-8 label); only written when devices were generated from the
+ *          site map
+ *   NOTE   UTF-8 notes HTML
+ * </pre>
+ *
+ * All integers are big-endian. Readers skip sections they do not know, so
+ * later versions can add sections without breaking older ones. Files are read
+ * through a memory-mapped channel and decoded with bulk int transfers; the
+ * notes section is only decoded when {@link Project#getNotesHtml()} is called.
+ */
+public final class ProjectFile {
+    public static final String EXTENSION = "bsch";
+
+    static final int MAGIC = 0x42534348;  // "BSCH"
+    static final int VERSION = 1;
+    static final int TAG_ICONS = 0x49434f4e;  // "ICON"
+    static final int TAG_NODES = 0x4e4f4445;  // "NODE"
+    static final int TAG_EDGES = 0x45444745;  // "EDGE"
+    static final int TAG_NOTES = 0x4e4f5445;  // "NOTE"
+    static final int TAG_LINKS = 0x4c494e4b;  // "LINK"
+    static final int TAG_SITES = 0x53495445;  // "SITE"
+
+    private ProjectFile() {
+    }
+
+    /**
+     * Writes {@code project} to a temporary file next to {@code file} and
+     * moves it into place, so an interrupted save never leaves a truncated
+     * project behind.
+     */
+    public static void write(Project project, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        boolean complete = false;
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp)) {
+                OutputStream out = new BufferedOutputStream(stream);
+                write(project, out);
+                out.flush();
+                stream.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            complete = true;
+        } finally {
+            if (!complete) {
+                temp.delete();
+            }
+        }
+    }
+
+    public static void write(Project project, OutputStream stream) throws IOException {
+        DiagramState diagram = project.getDiagram();
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(0);
+
+        // Icon keys repeat across many nodes, so nodes refer to a string table
+        Map<String, Integer> iconIndexes = new HashMap<>();
+        String[] nodeIcons = diagram.getNodeIcons();
+        int[] nodeIconIndexes = new int[nodeIcons.length];
+        int iconBytes = 4;
+        for (int i = 0; i < nodeIcons.length; i++) {
+            Integer index = iconIndexes.get(nodeIcons[i]);
+            if (index == null) {
+                index = iconIndexes.size();
+                iconIndexes.put(nodeIcons[i], index);
+                int keyLength = nodeIcons[i].getBytes(StandardCharsets.UTF_8).length;
+                if (keyLength > 0xffff) {
+                    throw new IOException("Icon key too long: " + nodeIcons[i].substring(0, 32) + "...");
+                }
+                iconBytes += 2 + keyLength;
+            }
+            nodeIconIndexes[i] = index;
+        }
+        String[] icons = new String[iconIndexes.size()];
+        iconIndexes.forEach((key, index) -> icons[index] = key);
+        out.writeInt(TAG_ICONS);
+        out.writeInt(iconBytes);
+        out.writeInt(icons.length);
+        for (String icon : icons) {
+            byte[] key = icon.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(key.length);
+            out.write(key);
+        }
+
+        int[] ids = diagram.getNodeIds();
+        int[] nodeCoords = diagram.getNodeCoords();
+        out.writeInt(TAG_NODES);
+        out.writeInt(8 + ids.length * 16);
+        out.writeInt(diagram.getNextId());
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            out.writeInt(ids[i]);
+            out.writeInt(nodeIconIndexes[i]);
+            out.writeInt(nodeCoords[i * 2]);
+            out.writeInt(nodeCoords[i * 2 + 1]);
+        }
+
+        int slots = diagram.getEdgeSlots();
+        out.writeInt(TAG_EDGES);
+        out.writeInt(8 + slots * 17);
+        out.writeInt(slots);
+        out.writeInt(diagram.getEdgeFreeHead());
+        for (int value : diagram.getEdgeCoords()) {
+            out.writeInt(value);
+        }
+        out.write(diagram.getEdgeStyles());
+
+        if (diagram.hasAttachedEdges()) {
+            out.writeInt(TAG_LINKS);
+            out.writeInt(4 + slots * 8);
+            out.writeInt(slots);
+            for (int value : diagram.getEdgeEnds()) {
+                out.writeInt(value);
+            }
+        }
+
+        SiteEntries sites = project.getSites();
+        if (sites.size() > 0) {
+            byte[][] keys = new byte[sites.size()][];
+            byte[][] labels = new byte[sites.size()][];
+            int siteBytes = 4;
+            for (int i = 0; i < sites.size(); i++) {
+                keys[i] = shortString(sites.getKey(i));
+                labels[i] = shortString(sites.getLabel(i));
+                siteBytes += 8 + keys[i].length + labels[i].length;
+            }
+            out.writeInt(TAG_SITES);
+            out.writeInt(siteBytes);
+            out.writeInt(sites.size());
+            for (int i = 0; i < sites.size(); i++) {
+                out.writeInt(sites.getNodeId(i));
+                out.writeShort(keys[i].length);
+                out.write(keys[i]);
+                out.writeShort(labels[i].length);
+                out.write(labels[i]);
+            }
+        }
+
+        byte[] notes = project.getNotesHtml().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(TAG_NOTES);
+        out.writeInt(notes.length);
+        out.write(notes);
+        out.flush();
+    }
+
+    private static byte[] shortString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IOException("Site map key too long: " + value.substring(0, 32) + "...");
+        }
+        return bytes;
+    }
+
+    /**
+     * Maps {@code file} and decodes the diagram sections. The mapping stays
+     * referenced by the returned project until its notes are decoded.
+     */
+    public static Project read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Project read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a schematics project");
+            }
+            int version = buffer.getShort() & 0xffff;
+            buffer.getShort();
+            if (version > VERSION) {
+                throw new IOException("Project was saved by a newer version (format " + version + ")");
+            }
+
+            String[] icons = new String[0];
+            int nextId = 1;
+            int[] nodes = new int[0];
+            int slots = 0;
+            int freeHead = -1;
+            int[] edgeCoords = new int[0];
+            byte[] edgeStyles = new byte[0];
+            int[] edgeEnds = null;
+            SiteEntries sites = SiteEntries.NONE;
+            ByteBuffer notes = null;
+
+            while (buffer.hasRemaining()) {
+                int tag = buffer.getInt();
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Truncated project file");
+                }
+                ByteBuffer section = buffer.slice();
+                section.limit(length);
+                buffer.position(buffer.position() + length);
+
+                switch (tag) {
+                    case TAG_ICONS:
+                        icons = new String[checkCount(section.getInt(), 2, section)];
+                        for (int i = 0; i < icons.length; i++) {
+                            byte[] key = new byte[section.getShort() & 0xffff];
+                            section.get(key);
+                            icons[i] = new String(key, StandardCharsets.UTF_8);
+                        }
+                        break;
+                    case TAG_NODES:
+                        nextId = section.getInt();
+                        nodes = new int[checkCount(section.getInt(), 16, section) * 4];
+                        section.asIntBuffer().get(nodes);
+                        break;
+                    case TAG_EDGES:
+                        slots = checkCount(section.getInt(), 17, section);
+                        freeHead = section.getInt();
+                        edgeCoords = new int[slots * 4];
+                        IntBuffer ints = section.asIntBuffer();
+                        ints.get(edgeCoords);
+                        section.position(section.position() + edgeCoords.length * 4);
+                        edgeStyles = new byte[slots];
+                        section.get(edgeStyles);
+                        break;
+                    case TAG_LINKS:
+                        edgeEnds = new int[checkCount(section.getInt(), 8, section) * 2];
+                        section.asIntBuffer().get(edgeEnds);
+                        break;
+                    case TAG_SITES: {
+                        int count = checkCount(section.getInt(), 8, section);
+                        int[] siteNodes = new int[count];
+                        String[] keys = new String[count];
+                        String[] labels = new String[count];
+                        for (int i = 0; i < count; i++) {
+                            siteNodes[i] = section.getInt();
+                            keys[i] = readShortString(section);
+                            labels[i] = readShortString(section);
+                        }
+                        sites = new SiteEntries(siteNodes, keys, labels);
+                        break;
+                    }
+                    case TAG_NOTES:
+                        notes = section;
+                        break;
+                    default:
+                        // Section from a later version
+                        break;
+                }
+            }
+
+            int count = nodes.length / 4;
+            int[] ids = new int[count];
+            String[] nodeIcons = new String[count];
+            int[] nodeCoords = new int[count * 2];
+            for (int i = 0; i < count; i++) {
+                int icon = nodes[i * 4 + 1];
+                if (icon < 0 || icon >= icons.length) {
+                    throw new IOException("Node " + nodes[i * 4] + " refers to unknown icon " + icon);
+                }
+                ids[i] = nodes[i * 4];
+                nodeIcons[i] = icons[icon];
+                nodeCoords[i * 2] = nodes[i * 4 + 2];
+                nodeCoords[i * 2 + 1] = nodes[i * 4 + 3];
+            }
+            if (edgeEnds == null) {
+                edgeEnds = new int[slots * 2];
+            } else if (edgeEnds.length != slots * 2) {
+                throw new IOException("Corrupt project file: " + edgeEnds.length / 2 + " links for " + slots + " edges");
+            }
+            DiagramState diagram = new DiagramState(nextId, ids, nodeIcons, nodeCoords,
+                    slots, freeHead, edgeCoords, edgeStyles, edgeEnds);
+            return new Project(diagram, notes, sites);
+        } catch (BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new IOException("Corrupt project file", e);
+        }
+    }
+
+    private static String readShortString(ByteBuffer section) {
+        byte[] bytes = new byte[section.getShort() & 0xffff];
+        section.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Rejects element counts that could not fit in the rest of the section
+     * before anything is allocated for them.
+     */
+    private static int checkCount(int count, int bytesEach, ByteBuffer section) throws IOException {
+        if (count < 0 || (long) count * bytesEach > section.remaining()) {
+            throw new IOException("Corrupt project file: bad element count " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,40 @@
+package burpeditor.io;
+
+/**
+ * Which devices were generated from Burp's site map, in the form in which it
+ * is persisted: per device its node id, the key of the host, service or
+ * endpoint it stands for, and the label shown for it. Instances are
+ * immutable by convention; the arrays are not copied.
+ */
+public final class SiteEntries {
+    public static final SiteEntries NONE = new SiteEntries(new int[0], new String[0], new String[0]);
+
+    private final int[] nodeIds;
+    private final String[] keys;
+    private final String[] labels;
+
+    public SiteEntries(int[] nodeIds, String[] keys, String[] labels) {
+        if (keys.length != nodeIds.length || labels.length != nodeIds.length) {
+            throw new IllegalArgumentException("Site arrays do not match");
+        }
+        this.nodeIds = nodeIds;
+        this.keys = keys;
+        this.labels = labels;
+    }
+
+    public int size() {
+        return nodeIds.length;
+    }
+
+    public int getNodeId(int index) {
+        return nodeIds[index];
+    }
+
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    public String getLabel(int index) {
+        return labels[index];
+    }
+}
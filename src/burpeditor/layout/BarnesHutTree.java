@@ -0,0 +1,188 @@
+package burpeditor.layout;
+
+import java.util.Arrays;
+
+/**
+ * Region quadtree over point bodies that summarises each cell by its body
+ * count and centre of mass, so the repulsion from a distant group of nodes
+ * can be computed as if from one heavy node (Barnes-Hut). Cells live in
+ * parallel arrays and are reused between builds. Building is single
+ * threaded; once built, {@link #repulsion} may be called from many threads.
+ */
+final class BarnesHutTree {
+    private static final int EMPTY = -1;
+    private static final int INTERNAL = -2;
+    // Bodies closer than the cell size at this depth share a leaf
+    private static final int MAX_DEPTH = 24;
+
+    private int cells;
+    private int[] children = new int[0];
+    private int[] body = new int[0];
+    private double[] mass = new double[0];
+    private double[] sumX = new double[0];
+    private double[] sumY = new double[0];
+    private double[] minX = new double[0];
+    private double[] minY = new double[0];
+    private double[] side = new double[0];
+
+    /**
+     * Builds the tree over the bodies {@code members[0..count)}, which index
+     * into {@code x} and {@code y}.
+     */
+    void build(double[] x, double[] y, int[] members, int count) {
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        for (int k = 0; k < count; k++) {
+            int i = members[k];
+            left = Math.min(left, x[i]);
+            top = Math.min(top, y[i]);
+            right = Math.max(right, x[i]);
+            bottom = Math.max(bottom, y[i]);
+        }
+        ensureCapacity(count * 2 + 1);
+        cells = 0;
+        newCell(left, top, Math.max(1, Math.max(right - left, bottom - top)) * 1.0001);
+        for (int k = 0; k < count; k++) {
+            insert(members[k], x[members[k]], y[members[k]]);
+        }
+    }
+
+    /**
+     * Adds the repulsion on body {@code i} at (px, py) from all other bodies
+     * to {@code force[0..1]}: {@code strength * mass / distance} away from
+     * each body or summarised cell. Cells seen under an angle below
+     * {@code theta} are summarised.
+     *
+     * @param stack scratch space of at least {@link #stackSize()} entries
+     */
+    void repulsion(int i, double px, double py, double theta, double strength, int[] stack, double[] force) {
+        double theta2 = theta * theta;
+        double fx = 0;
+        double fy = 0;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int c = stack[--sp];
+            double m = mass[c];
+            double dx = px - sumX[c] / m;
+            double dy = py - sumY[c] / m;
+            double d2 = dx * dx + dy * dy;
+            if (body[c] >= 0) {
+                if (body[c] == i) {
+                    continue;
+                }
+            } else if (side[c] * side[c] >= theta2 * d2) {
+                for (int q = 0; q < 4; q++) {
+                    int child = children[c * 4 + q];
+                    if (child != 0) {
+                        stack[sp++] = child;
+                    }
+                }
+                continue;
+            }
+            if (d2 < 1e-6) {
+                // Coincident bodies: push apart in a fixed direction
+                dx = 1e-3 * ((i & 1) == 0 ? 1 : -1);
+                dy = 1e-3 * ((i & 2) == 0 ? 1 : -1);
+                d2 = dx * dx + dy * dy;
+            }
+            double f = strength * m / d2;
+            fx += dx * f;
+            fy += dy * f;
+        }
+        force[0] += fx;
+        force[1] += fy;
+    }
+
+    static int stackSize() {
+        return MAX_DEPTH * 3 + 4;
+    }
+
+    private void insert(int b, double x, double y) {
+        int c = 0;
+        for (int depth = 0; ; depth++) {
+            if (body[c] == EMPTY && mass[c] == 0) {
+                add(c, b, x, y);
+                return;
+            }
+            if (body[c] >= 0) {
+                if (depth == MAX_DEPTH) {
+                    // Keep the leaf and fold the body into its totals
+                    mass[c]++;
+                    sumX[c] += x;
+                    sumY[c] += y;
+                    return;
+                }
+                int old = body[c];
+                double oldX = sumX[c] / mass[c];
+                double oldY = sumY[c] / mass[c];
+                double oldMass = mass[c];
+                body[c] = INTERNAL;
+                int child = child(c, quadrant(c, oldX, oldY));
+                body[child] = old;
+                mass[child] = oldMass;
+                sumX[child] = oldX * oldMass;
+                sumY[child] = oldY * oldMass;
+            }
+            mass[c]++;
+            sumX[c] += x;
+            sumY[c] += y;
+            c = child(c, quadrant(c, x, y));
+        }
+    }
+
+    private void add(int c, int b, double x, double y) {
+        body[c] = b;
+        mass[c] = 1;
+        sumX[c] = x;
+        sumY[c] = y;
+    }
+
+    private int quadrant(int c, double x, double y) {
+        double half = side[c] / 2;
+        return (x >= minX[c] + half ? 1 : 0) | (y >= minY[c] + half ? 2 : 0);
+    }
+
+    private int child(int c, int q) {
+        int existing = children[c * 4 + q];
+        if (existing != 0) {
+            return existing;
+        }
+        double half = side[c] / 2;
+        int created = newCell(minX[c] + ((q & 1) != 0 ? half : 0), minY[c] + ((q & 2) != 0 ? half : 0), half);
+        children[c * 4 + q] = created;
+        return created;
+    }
+
+    private int newCell(double left, double top, double size) {
+        if (cells == body.length) {
+            ensureCapacity(cells * 2);
+        }
+        int c = cells++;
+        Arrays.fill(children, c * 4, c * 4 + 4, 0);
+        body[c] = EMPTY;
+        mass[c] = 0;
+        sumX[c] = 0;
+        sumY[c] = 0;
+        minX[c] = left;
+        minY[c] = top;
+        side[c] = size;
+        return c;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= body.length) {
+            return;
+        }
+        children = Arrays.copyOf(children, capacity * 4);
+        body = Arrays.copyOf(body, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        sumX = Arrays.copyOf(sumX, capacity);
+        sumY = Arrays.copyOf(sumY, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        side = Arrays.copyOf(side, capacity);
+    }
+}
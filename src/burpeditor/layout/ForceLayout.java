@@ -0,0 +1,247 @@
+package burpeditor.layout;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spring-electrical layout: connected nodes attract like springs and all
+ * nodes repel each other, with the repulsion approximated by a
+ * {@link BarnesHutTree} so an iteration costs O(n log n) instead of O(n^2).
+ * Forces are computed in parallel on a ForkJoin pool; the tree is rebuilt
+ * once per iteration.
+ * <p>
+ * Every node moves a fixed step along its net force per iteration. The step
+ * shrinks while the layout's energy stops improving and grows again while it
+ * keeps improving (adaptive cooling), and the run ends once the step is
+ * small. Pinned nodes exert forces but never move. Nodes without
+ * connections are left out and lined up below the result.
+ */
+final class ForceLayout implements Layout {
+    static final double IDEAL_LENGTH = LayoutGraph.SPACING * 1.25;
+    private static final double REPULSION = 0.2 * IDEAL_LENGTH * IDEAL_LENGTH;
+    private static final double THETA = 1.2;
+    private static final double GRAVITY = 0.05;
+    private static final double COOLING = 0.9;
+    private static final double MIN_STEP = IDEAL_LENGTH * 0.01;
+    private static final int MAX_ITERATIONS = 600;
+    private static final int CHUNK = 256;
+
+    private final ForkJoinPool pool;
+
+    ForceLayout(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void run(LayoutGraph graph, Progress progress) {
+        int n = graph.size;
+        double[] x = graph.x;
+        double[] y = graph.y;
+
+        // Bodies: everything that takes part; movers: the bodies that may move
+        int[] bodies = new int[n];
+        int[] movers = new int[n];
+        int bodyCount = 0;
+        int moverCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (graph.degree(i) > 0 || graph.pinned[i]) {
+                bodies[bodyCount++] = i;
+                if (!graph.pinned[i]) {
+                    movers[moverCount++] = i;
+                }
+            }
+        }
+        if (moverCount > 0) {
+            spreadStacked(graph, bodies, bodyCount);
+            simulate(graph, progress, bodies, bodyCount, movers, moverCount);
+        }
+        if (!progress.isCancelled()) {
+            double[] fromX = x.clone();
+            double[] fromY = y.clone();
+            graph.placeIsolated();
+            double[] toX = x.clone();
+            double[] toY = y.clone();
+            System.arraycopy(fromX, 0, x, 0, n);
+            System.arraycopy(fromY, 0, y, 0, n);
+            progress.animateTo(toX, toY);
+        }
+    }
+
+    private void simulate(LayoutGraph graph, Progress progress, int[] bodies, int bodyCount,
+                          int[] movers, int moverCount) {
+        double[] x = graph.x;
+        double[] y = graph.y;
+        double[] fx = new double[graph.size];
+        double[] fy = new double[graph.size];
+        BarnesHutTree tree = new BarnesHutTree();
+        double step = IDEAL_LENGTH;
+        double energy = Double.MAX_VALUE;
+        int improving = 0;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS && step > MIN_STEP; iteration++) {
+            if (progress.isCancelled()) {
+                return;
+            }
+            int anchors = 0;
+            double sx = 0;
+            double sy = 0;
+            // Gravity pulls towards the pinned nodes if there are any, else the centroid
+            for (int k = 0; k < bodyCount; k++) {
+                int i = bodies[k];
+                if (graph.pinned[i] || !graph.hasPinned()) {
+                    sx += x[i];
+                    sy += y[i];
+                    anchors++;
+                }
+            }
+            double centerX = sx / anchors;
+            double centerY = sy / anchors;
+
+            tree.build(x, y, bodies, bodyCount);
+            pool.invoke(new ForceTask(graph, tree, movers, 0, moverCount, fx, fy, centerX, centerY));
+
+            double newEnergy = 0;
+            for (int k = 0; k < moverCount; k++) {
+                int i = movers[k];
+                double f2 = fx[i] * fx[i] + fy[i] * fy[i];
+                if (f2 > 0) {
+                    double f = Math.sqrt(f2);
+                    x[i] += step * fx[i] / f;
+                    y[i] += step * fy[i] / f;
+                }
+                newEnergy += f2;
+            }
+            if (newEnergy < energy) {
+                if (++improving >= 5) {
+                    improving = 0;
+                    step /= COOLING;
+                }
+            } else {
+                improving = 0;
+                step *= COOLING;
+            }
+            energy = newEnergy;
+            progress.publish();
+        }
+    }
+
+    /**
+     * Places nodes that share a position with another one (e.g. devices all
+     * dropped at the default spot) next to an already placed neighbour, in
+     * breadth-first order. Starting from such a tree-like spread instead of
+     * random positions avoids most tangles and settles much faster.
+     */
+    private static void spreadStacked(LayoutGraph graph, int[] bodies, int bodyCount) {
+        double[] x = graph.x;
+        double[] y = graph.y;
+        boolean[] placed = new boolean[graph.size];
+        Set<Long> seen = new HashSet<>();
+        int[] queue = new int[graph.size];
+        int head = 0;
+        int tail = 0;
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        for (int k = 0; k < bodyCount; k++) {
+            int i = bodies[k];
+            long key = (Math.round(x[i]) << 32) ^ (Math.round(y[i]) & 0xffffffffL);
+            if (seen.add(key) || graph.pinned[i]) {
+                placed[i] = true;
+                queue[tail++] = i;
+                left = Math.min(left, x[i]);
+                top = Math.min(top, y[i]);
+            }
+        }
+        if (tail == bodyCount) {
+            return;
+        }
+        Random random = new Random(bodyCount);
+        double extent = IDEAL_LENGTH * Math.sqrt(bodyCount);
+        for (int k = 0; k < bodyCount; k++) {
+            if (head == tail) {
+                // A component with nothing placed yet: start it somewhere in the area
+                int start = bodies[k];
+                if (placed[start]) {
+                    continue;
+                }
+                x[start] = left + random.nextDouble() * extent;
+                y[start] = top + random.nextDouble() * extent;
+                placed[start] = true;
+                queue[tail++] = start;
+            }
+            while (head < tail) {
+                int u = queue[head++];
+                for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                    int v = graph.neighbors[e];
+                    if (!placed[v]) {
+                        double angle = random.nextDouble() * 2 * Math.PI;
+                        double distance = IDEAL_LENGTH * (0.5 + random.nextDouble());
+                        x[v] = x[u] + Math.cos(angle) * distance;
+                        y[v] = y[u] + Math.sin(angle) * distance;
+                        placed[v] = true;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class ForceTask extends RecursiveAction {
+        private final LayoutGraph graph;
+        private final BarnesHutTree tree;
+        private final int[] movers;
+        private final int from;
+        private final int to;
+        private final double[] fx;
+        private final double[] fy;
+        private final double centerX;
+        private final double centerY;
+
+        ForceTask(LayoutGraph graph, BarnesHutTree tree, int[] movers, int from, int to,
+                  double[] fx, double[] fy, double centerX, double centerY) {
+            this.graph = graph;
+            this.tree = tree;
+            this.movers = movers;
+            this.from = from;
+            this.to = to;
+            this.fx = fx;
+            this.fy = fy;
+            this.centerX = centerX;
+            this.centerY = centerY;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ForceTask(graph, tree, movers, from, mid, fx, fy, centerX, centerY),
+                        new ForceTask(graph, tree, movers, mid, to, fx, fy, centerX, centerY));
+                return;
+            }
+            double[] x = graph.x;
+            double[] y = graph.y;
+            int[] stack = new int[BarnesHutTree.stackSize()];
+            double[] force = new double[2];
+            for (int k = from; k < to; k++) {
+                int i = movers[k];
+                force[0] = 0;
+                force[1] = 0;
+                tree.repulsion(i, x[i], y[i], THETA, REPULSION, stack, force);
+                for (int e = graph.offsets[i]; e < graph.offsets[i + 1]; e++) {
+                    int j = graph.neighbors[e];
+                    double dx = x[j] - x[i];
+                    double dy = y[j] - y[i];
+                    double d = Math.sqrt(dx * dx + dy * dy);
+                    force[0] += dx * d / IDEAL_LENGTH;
+                    force[1] += dy * d / IDEAL_LENGTH;
+                }
+                force[0] -= GRAVITY * (x[i] - centerX);
+                force[1] -= GRAVITY * (y[i] - centerY);
+                fx[i] = force[0];
+                fy[i] = force[1];
+            }
+        }
+    }
+}
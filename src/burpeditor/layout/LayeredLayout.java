@@ -0,0 +1,301 @@
+package burpeditor.layout;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Hierarchical layout in the Sugiyama style: connections are oriented from
+ * the device a line was drawn from to the one it was drawn to, cycles are
+ * broken by reversing the back edges of a depth-first search, nodes are
+ * assigned to layers by longest path from the sources, and the order within
+ * each layer is improved by a few barycenter sweeps to reduce crossings.
+ * Layers run top to bottom and wrap into several rows when they are wide.
+ * Nodes whose only connection comes from one parent, such as the hosts
+ * behind a switch, are stacked in a block below that parent rather than
+ * spread along a layer. Long connections get no dummy nodes, so they may pass
+ * between devices of intermediate layers.
+ * <p>
+ * Pinned nodes take part in the ordering but keep their place. The result
+ * is animated in from the current positions.
+ */
+final class LayeredLayout implements Layout {
+    private static final int SWEEPS = 4;
+    // Row width in node slots, at least
+    private static final int MIN_ROW = 16;
+    private static final int LAYER_GAP = LayoutGraph.SPACING / 2;
+
+    @Override
+    public void run(LayoutGraph graph, Progress progress) {
+        int n = graph.size;
+        int[] links = dag(graph);
+        if (progress.isCancelled()) {
+            return;
+        }
+        int[] outOffsets = new int[n + 1];
+        int[] outTargets = new int[links.length / 2];
+        int[] inOffsets = new int[n + 1];
+        int[] inSources = new int[links.length / 2];
+        index(links, 0, n, outOffsets, outTargets);
+        index(links, 1, n, inOffsets, inSources);
+
+        int[] layer = layers(n, links, outOffsets, outTargets);
+        // Leaves hang below their only predecessor in a block instead of taking a layer slot
+        int[] parent = new int[n];
+        int[] leafCount = new int[n];
+        int layerCount = 0;
+        for (int i = 0; i < n; i++) {
+            parent[i] = -1;
+            if (graph.degree(i) == 1 && inOffsets[i + 1] - inOffsets[i] == 1) {
+                parent[i] = inSources[inOffsets[i]];
+                leafCount[parent[i]]++;
+            } else if (graph.degree(i) > 0) {
+                layerCount = Math.max(layerCount, layer[i] + 1);
+            }
+        }
+        int[][] order = new int[layerCount][];
+        int[] fill = new int[layerCount];
+        for (int i = 0; i < n; i++) {
+            if (graph.degree(i) > 0 && parent[i] < 0) {
+                fill[layer[i]]++;
+            }
+        }
+        for (int l = 0; l < layerCount; l++) {
+            order[l] = new int[fill[l]];
+            fill[l] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            if (graph.degree(i) > 0 && parent[i] < 0) {
+                order[layer[i]][fill[layer[i]]++] = i;
+            }
+        }
+
+        double[] position = new double[n];
+        for (int[] nodes : order) {
+            normalize(nodes, position);
+        }
+        for (int sweep = 0; sweep < SWEEPS && !progress.isCancelled(); sweep++) {
+            for (int l = 1; l < layerCount; l++) {
+                reorder(order[l], inOffsets, inSources, position);
+            }
+            for (int l = layerCount - 2; l >= 0; l--) {
+                reorder(order[l], outOffsets, outTargets, position);
+            }
+        }
+        if (progress.isCancelled()) {
+            return;
+        }
+
+        double[] fromX = graph.x.clone();
+        double[] fromY = graph.y.clone();
+        place(graph, order, parent, leafCount, outOffsets, outTargets);
+        graph.placeIsolated();
+
+        double[] toX = graph.x.clone();
+        double[] toY = graph.y.clone();
+        System.arraycopy(fromX, 0, graph.x, 0, n);
+        System.arraycopy(fromY, 0, graph.y, 0, n);
+        progress.animateTo(toX, toY);
+    }
+
+    /**
+     * Assigns coordinates: each layer becomes one or more rows, starting from
+     * where the connected devices are now. A node's slot is as wide as the
+     * block of leaves below it, and rows wrap so the result stays roughly
+     * square.
+     */
+    private static void place(LayoutGraph graph, int[][] order, int[] parent, int[] leafCount,
+                              int[] outOffsets, int[] outTargets) {
+        int n = graph.size;
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        long area = 0;
+        for (int i = 0; i < n; i++) {
+            if (graph.degree(i) > 0 && !graph.pinned[i]) {
+                left = Math.min(left, graph.x[i]);
+                top = Math.min(top, graph.y[i]);
+            }
+            if (graph.degree(i) > 0 && parent[i] < 0) {
+                area += (long) columns(leafCount[i]) * (1 + rows(leafCount[i]));
+            }
+        }
+        int maxUnits = Math.max(MIN_ROW, (int) Math.ceil(Math.sqrt(area) * 1.5));
+
+        double rowY = top;
+        for (int[] nodes : order) {
+            int start = 0;
+            while (start < nodes.length) {
+                // Take as many nodes as fit the row width
+                int end = start;
+                int units = 0;
+                int blockRows = 0;
+                while (end < nodes.length && (end == start || units + columns(leafCount[nodes[end]]) <= maxUnits)) {
+                    units += columns(leafCount[nodes[end]]);
+                    blockRows = Math.max(blockRows, rows(leafCount[nodes[end]]));
+                    end++;
+                }
+                double slotX = left + (maxUnits - units) * LayoutGraph.SPACING / 2.0;
+                for (int k = start; k < end; k++) {
+                    int i = nodes[k];
+                    int columns = columns(leafCount[i]);
+                    if (!graph.pinned[i]) {
+                        graph.x[i] = slotX + (columns - 1) * LayoutGraph.SPACING / 2.0;
+                        graph.y[i] = rowY;
+                    }
+                    int leaf = 0;
+                    for (int e = outOffsets[i]; e < outOffsets[i + 1]; e++) {
+                        int child = outTargets[e];
+                        if (parent[child] == i) {
+                            if (!graph.pinned[child]) {
+                                graph.x[child] = slotX + (leaf % columns) * LayoutGraph.SPACING;
+                                graph.y[child] = rowY + (1 + leaf / columns) * LayoutGraph.SPACING;
+                            }
+                            leaf++;
+                        }
+                    }
+                    slotX += columns * LayoutGraph.SPACING;
+                }
+                rowY += (1 + blockRows) * LayoutGraph.SPACING + (blockRows > 0 ? LAYER_GAP : 0);
+                start = end;
+            }
+            rowY += LAYER_GAP;
+        }
+    }
+
+    private static int columns(int leaves) {
+        return Math.max(1, (int) Math.ceil(Math.sqrt(leaves)));
+    }
+
+    private static int rows(int leaves) {
+        return leaves == 0 ? 0 : (leaves + columns(leaves) - 1) / columns(leaves);
+    }
+
+    /**
+     * Returns the links with the back edges of a depth-first search reversed,
+     * which leaves no directed cycles.
+     */
+    private static int[] dag(LayoutGraph graph) {
+        int n = graph.size;
+        int[] links = graph.links.clone();
+        int[] offsets = new int[n + 1];
+        int[] edgeIndex = new int[links.length / 2];
+        for (int k = 0; k < links.length; k += 2) {
+            offsets[links[k] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int k = 0; k < links.length; k += 2) {
+            edgeIndex[fill[links[k]]++] = k;
+        }
+
+        // 0 = unvisited, 1 = on the stack, 2 = done
+        byte[] state = new byte[n];
+        int[] cursor = new int[n];
+        int[] stack = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int sp = 0;
+            stack[sp++] = root;
+            state[root] = 1;
+            cursor[root] = offsets[root];
+            while (sp > 0) {
+                int u = stack[sp - 1];
+                if (cursor[u] == offsets[u + 1]) {
+                    state[u] = 2;
+                    sp--;
+                    continue;
+                }
+                int k = edgeIndex[cursor[u]++];
+                int v = links[k + 1];
+                if (state[v] == 0) {
+                    state[v] = 1;
+                    cursor[v] = offsets[v];
+                    stack[sp++] = v;
+                } else if (state[v] == 1) {
+                    links[k] = v;
+                    links[k + 1] = u;
+                }
+            }
+        }
+        return links;
+    }
+
+    private static void index(int[] links, int side, int n, int[] offsets, int[] values) {
+        for (int k = 0; k < links.length; k += 2) {
+            offsets[links[k + side] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int k = 0; k < links.length; k += 2) {
+            values[fill[links[k + side]]++] = links[k + 1 - side];
+        }
+    }
+
+    /**
+     * Longest-path layering: each node goes one layer below its lowest
+     * predecessor.
+     */
+    private static int[] layers(int n, int[] links, int[] outOffsets, int[] outTargets) {
+        int[] pending = new int[n];
+        for (int k = 1; k < links.length; k += 2) {
+            pending[links[k]]++;
+        }
+        int[] layer = new int[n];
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+        while (!ready.isEmpty()) {
+            int u = ready.poll();
+            for (int e = outOffsets[u]; e < outOffsets[u + 1]; e++) {
+                int v = outTargets[e];
+                layer[v] = Math.max(layer[v], layer[u] + 1);
+                if (--pending[v] == 0) {
+                    ready.add(v);
+                }
+            }
+        }
+        return layer;
+    }
+
+    /**
+     * Sorts a layer by the average relative position of each node's
+     * neighbours in the adjacent layer; nodes without any keep theirs.
+     */
+    private static void reorder(int[] nodes, int[] offsets, int[] adjacent, double[] position) {
+        long[] keyed = new long[nodes.length];
+        for (int k = 0; k < nodes.length; k++) {
+            int i = nodes[k];
+            double key = position[i];
+            if (offsets[i + 1] > offsets[i]) {
+                double sum = 0;
+                for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                    sum += position[adjacent[e]];
+                }
+                key = sum / (offsets[i + 1] - offsets[i]);
+            }
+            // Keys are in [0, 1); pack them above the index for a primitive sort
+            keyed[k] = ((long) (key * (1 << 30)) << 32) | k;
+        }
+        Arrays.sort(keyed);
+        int[] sorted = new int[nodes.length];
+        for (int k = 0; k < nodes.length; k++) {
+            sorted[k] = nodes[(int) keyed[k]];
+        }
+        System.arraycopy(sorted, 0, nodes, 0, nodes.length);
+        normalize(nodes, position);
+    }
+
+    private static void normalize(int[] nodes, double[] position) {
+        for (int k = 0; k < nodes.length; k++) {
+            position[nodes[k]] = (k + 0.5) / nodes.length;
+        }
+    }
+}
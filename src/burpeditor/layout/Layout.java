@@ -0,0 +1,28 @@
+package burpeditor.layout;
+
+/**
+ * A layout algorithm. Runs off the EDT on a snapshot and writes the new
+ * positions back into it.
+ */
+interface Layout {
+    void run(LayoutGraph graph, Progress progress);
+
+    /**
+     * Lets an algorithm show its intermediate results and notice a cancel.
+     */
+    interface Progress {
+        boolean isCancelled();
+
+        /**
+         * Offers the graph's current positions to the canvas. Cheap enough to
+         * call every iteration; frames are dropped while the EDT is behind.
+         */
+        void publish();
+
+        /**
+         * Moves the graph from its current positions to the given ones over
+         * a short animation. Returns early when cancelled.
+         */
+        void animateTo(double[] x, double[] y);
+    }
+}
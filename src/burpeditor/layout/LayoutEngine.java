@@ -0,0 +1,321 @@
+package burpeditor.layout;
+
+import burpeditor.model.DiagramListener;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Node;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs automatic layouts of the whole diagram. A run snapshots the model on
+ * the EDT, computes on a ForkJoin pool and hands intermediate positions back
+ * to the EDT as frames, so the canvas shows the layout settling. Only the
+ * latest frame is applied when the EDT falls behind. Each slice of a frame
+ * is applied as its own model update, so the diagram stays editable while a
+ * run settles; the updates share the run as their step, so everything it
+ * moves is one undoable step unless the user changes something in between.
+ * Frames wait while another update such as a drag is open, and nodes the
+ * user moves during a run are left where they were put. Cancelling leaves
+ * the nodes where the last frame put them.
+ * <p>
+ * Pinned nodes are never moved by a layout. Pins belong to the session and
+ * are not saved with the project. All public methods are EDT only.
+ */
+public class LayoutEngine implements DiagramListener {
+    public enum Algorithm {
+        FORCE_DIRECTED("Force-Directed"),
+        LAYERED("Hierarchical");
+
+        private final String label;
+
+        Algorithm(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final long FRAME_MILLIS = 33;
+    private static final int ANIMATION_FRAMES = 20;
+    private static final int MARGIN = 20;
+    // Nodes moved per EDT event, so input stays responsive while a large frame is applied
+    private static final int APPLY_SLICE = 2000;
+
+    private final DiagramModel model;
+    private final ForkJoinPool pool = new ForkJoinPool();
+    private final Set<Integer> pinned = new HashSet<>();
+    private Run current;
+
+    public LayoutEngine(DiagramModel model) {
+        this.model = model;
+        model.addListener(this);
+    }
+
+    /**
+     * Lays out the diagram, cancelling any layout still running.
+     * {@code finished} is called on the EDT once the run ends, with the
+     * exception if the layout failed and null if it completed or was
+     * cancelled. A failed run leaves the nodes where its last frame put them.
+     */
+    public void start(Algorithm algorithm, Consumer<RuntimeException> finished) {
+        cancel();
+        if (model.getNodeCount() == 0) {
+            finished.accept(null);
+            return;
+        }
+        Layout layout = algorithm == Algorithm.LAYERED ? new LayeredLayout() : new ForceLayout(pool);
+        Run run = new Run(LayoutGraph.of(model, pinned), finished);
+        current = run;
+        pool.execute(() -> {
+            try {
+                layout.run(run.graph, run);
+                run.publish(true);
+            } catch (RuntimeException e) {
+                run.failure = e;
+            } finally {
+                SwingUtilities.invokeLater(() -> finish(run));
+            }
+        });
+    }
+
+    public void cancel() {
+        if (current != null) {
+            end(current);
+        }
+    }
+
+    public boolean isRunning() {
+        return current != null;
+    }
+
+    public boolean isPinned(Node node) {
+        return pinned.contains(node.getId());
+    }
+
+    public void setPinned(Node node, boolean pin) {
+        if (pin) {
+            pinned.add(node.getId());
+        } else {
+            pinned.remove(node.getId());
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        model.removeListener(this);
+        pool.shutdownNow();
+    }
+
+    @Override
+    public void nodeMoved(Node node, int oldX, int oldY) {
+        if (current != null && !current.moving) {
+            // The user's move wins over the rest of the run
+            current.moved.add(node.getId());
+        }
+    }
+
+    @Override
+    public void nodeRemoved(Node node) {
+        pinned.remove(node.getId());
+    }
+
+    @Override
+    public void diagramCleared() {
+        cancel();
+        pinned.clear();
+    }
+
+    @Override
+    public void diagramReplaced() {
+        diagramCleared();
+    }
+
+    /**
+     * Ends a run whose layout has computed its last frame, once no other
+     * update is open to apply that frame into.
+     */
+    private void finish(Run run) {
+        if (current == run && model.isUpdating()) {
+            later(() -> finish(run));
+            return;
+        }
+        end(run);
+    }
+
+    private void end(Run run) {
+        if (current != run) {
+            return;
+        }
+        run.cancelled = true;
+        // The final frame may still be queued or partly applied; inside another update it is dropped
+        while (!model.isUpdating() && apply(run)) {
+            // Finish it here rather than in later events
+        }
+        current = null;
+        run.finished.accept(run.failure);
+    }
+
+    /**
+     * Moves the next slice of nodes to the latest frame and returns whether
+     * nodes are left for a later call.
+     */
+    private boolean apply(Run run) {
+        if (current != run) {
+            return false;
+        }
+        int[] latest = run.frame.getAndSet(null);
+        if (latest != null) {
+            // Carry on from where the previous frame got to, then wrap around
+            run.applying = latest;
+            run.remaining = run.graph.size;
+        }
+        if (run.remaining == 0) {
+            return false;
+        }
+        int[] frame = run.applying;
+        int[] ids = run.graph.ids;
+        model.beginUpdate("Auto Layout", run);
+        run.moving = true;
+        try {
+            for (int k = 0; k < APPLY_SLICE && run.remaining > 0; k++, run.remaining--) {
+                int i = run.cursor;
+                run.cursor = (run.cursor + 1) % ids.length;
+                Node node = model.getNode(ids[i]);
+                if (node != null && !run.moved.contains(ids[i])
+                        && (node.getX() != frame[i * 2] || node.getY() != frame[i * 2 + 1])) {
+                    model.moveNode(node, frame[i * 2], frame[i * 2 + 1]);
+                }
+            }
+        } finally {
+            run.moving = false;
+            model.endUpdate();
+        }
+        return run.remaining > 0;
+    }
+
+    private void applyLater(Run run) {
+        if (run.draining) {
+            // The running chain picks up the new frame
+            return;
+        }
+        drain(run);
+    }
+
+    private void drain(Run run) {
+        if (current != run) {
+            run.draining = false;
+            return;
+        }
+        if (model.isUpdating()) {
+            // e.g. a drag: its step must not take in the layout's moves
+            run.draining = true;
+            later(() -> drain(run));
+            return;
+        }
+        run.draining = apply(run) || run.frame.get() != null;
+        if (run.draining) {
+            SwingUtilities.invokeLater(() -> drain(run));
+        }
+    }
+
+    private static void later(Runnable task) {
+        Timer timer = new Timer((int) FRAME_MILLIS, e -> task.run());
+        timer.setRepeats(false);
+        timer.start();
+    }
+
+    /**
+     * One layout run: the snapshot it works on and the frames it produces.
+     */
+    private final class Run implements Layout.Progress {
+        final LayoutGraph graph;
+        final Consumer<RuntimeException> finished;
+        final AtomicReference<int[]> frame = new AtomicReference<>();
+        volatile boolean cancelled;
+        volatile RuntimeException failure;
+        private long lastFrame;
+        // EDT only: the frame being applied, how far, and whether more slices are queued
+        boolean draining;
+        int[] applying;
+        int cursor;
+        int remaining;
+        // EDT only: nodes the user moved during the run, and whether the run is moving nodes itself
+        final Set<Integer> moved = new HashSet<>();
+        boolean moving;
+
+        Run(LayoutGraph graph, Consumer<RuntimeException> finished) {
+            this.graph = graph;
+            this.finished = finished;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void publish() {
+            publish(false);
+        }
+
+        void publish(boolean last) {
+            long now = System.currentTimeMillis();
+            if (!last && now - lastFrame < FRAME_MILLIS) {
+                return;
+            }
+            lastFrame = now;
+            int n = graph.size;
+            int[] positions = new int[n * 2];
+            double dx = 0;
+            double dy = 0;
+            if (!graph.hasPinned()) {
+                // Keep the result in view at the top left; with pins, their spots anchor it
+                double left = Double.MAX_VALUE;
+                double top = Double.MAX_VALUE;
+                for (int i = 0; i < n; i++) {
+                    left = Math.min(left, graph.x[i]);
+                    top = Math.min(top, graph.y[i]);
+                }
+                dx = MARGIN - left;
+                dy = MARGIN - top;
+            }
+            for (int i = 0; i < n; i++) {
+                positions[i * 2] = (int) Math.round(graph.x[i] + dx);
+                positions[i * 2 + 1] = (int) Math.round(graph.y[i] + dy);
+            }
+            if (frame.getAndSet(positions) == null) {
+                SwingUtilities.invokeLater(() -> applyLater(this));
+            }
+        }
+
+        @Override
+        public void animateTo(double[] x, double[] y) {
+            double[] fromX = graph.x.clone();
+            double[] fromY = graph.y.clone();
+            for (int step = 1; step <= ANIMATION_FRAMES && !cancelled; step++) {
+                double t = (double) step / ANIMATION_FRAMES;
+                // Ease out
+                double eased = 1 - (1 - t) * (1 - t);
+                for (int i = 0; i < graph.size; i++) {
+                    graph.x[i] = fromX[i] + (x[i] - fromX[i]) * eased;
+                    graph.y[i] = fromY[i] + (y[i] - fromY[i]) * eased;
+                }
+                publish(true);
+                try {
+                    Thread.sleep(FRAME_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package burpeditor.layout;
+
+import burpeditor.model.DiagramModel;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Snapshot of the diagram taken on the EDT for a layout run: node positions
+ * (top-left corners) indexed densely, and the connections between them.
+ * Only edges attached to a device at both ends count as connections. The
+ * layout thread owns the snapshot afterwards.
+ */
+final class LayoutGraph {
+    static final int SPACING = Node.SIZE * 2;
+
+    final int size;
+    final int[] ids;
+    final double[] x;
+    final double[] y;
+    final boolean[] pinned;
+    /** Directed connections as index pairs, source then target. */
+    final int[] links;
+    /** Undirected adjacency: the neighbours of i are neighbors[offsets[i]] to neighbors[offsets[i + 1]]. */
+    final int[] offsets;
+    final int[] neighbors;
+    private final boolean anyPinned;
+
+    private LayoutGraph(int[] ids, double[] x, double[] y, boolean[] pinned, int[] links) {
+        this.size = ids.length;
+        this.ids = ids;
+        this.x = x;
+        this.y = y;
+        this.pinned = pinned;
+        this.links = links;
+        boolean any = false;
+        for (boolean p : pinned) {
+            any |= p;
+        }
+        this.anyPinned = any;
+
+        offsets = new int[size + 1];
+        for (int i = 0; i < links.length; i++) {
+            offsets[links[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        neighbors = new int[links.length];
+        int[] fill = Arrays.copyOf(offsets, size);
+        for (int i = 0; i < links.length; i += 2) {
+            neighbors[fill[links[i]]++] = links[i + 1];
+            neighbors[fill[links[i + 1]]++] = links[i];
+        }
+    }
+
+    static LayoutGraph of(DiagramModel model, Set<Integer> pinnedIds) {
+        int n = model.getNodeCount();
+        int[] ids = new int[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        boolean[] pinned = new boolean[n];
+        int i = 0;
+        // Nodes iterate in id order, so ids can be looked up by binary search
+        for (Node node : model.getNodes()) {
+            ids[i] = node.getId();
+            x[i] = node.getX();
+            y[i] = node.getY();
+            pinned[i] = pinnedIds.contains(node.getId());
+            i++;
+        }
+
+        EdgeStore edges = model.getEdges();
+        int[] links = new int[edges.size() * 2];
+        int[] count = new int[1];
+        edges.forEach(edge -> {
+            if (edges.source(edge) == EdgeStore.UNATTACHED || edges.target(edge) == EdgeStore.UNATTACHED) {
+                return;
+            }
+            int source = Arrays.binarySearch(ids, edges.source(edge));
+            int target = Arrays.binarySearch(ids, edges.target(edge));
+            if (source >= 0 && target >= 0 && source != target) {
+                links[count[0]++] = source;
+                links[count[0]++] = target;
+            }
+        });
+        return new LayoutGraph(ids, x, y, pinned, Arrays.copyOf(links, count[0]));
+    }
+
+    int degree(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    boolean hasPinned() {
+        return anyPinned;
+    }
+
+    /**
+     * Lines up the nodes without connections in rows below the others, since
+     * no layout has anything to say about where they go. Pinned ones stay.
+     */
+    void placeIsolated() {
+        double left = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        int isolated = 0;
+        for (int i = 0; i < size; i++) {
+            if (degree(i) == 0 && !pinned[i]) {
+                isolated++;
+            } else {
+                left = Math.min(left, x[i]);
+                right = Math.max(right, x[i]);
+                bottom = Math.max(bottom, y[i]);
+            }
+        }
+        if (isolated == 0) {
+            return;
+        }
+        if (isolated == size) {
+            left = 0;
+            right = 0;
+            bottom = -SPACING;
+        }
+        int columns = Math.max((int) Math.ceil(Math.sqrt(isolated)), (int) ((right - left) / SPACING) + 1);
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            if (degree(i) == 0 && !pinned[i]) {
+                x[i] = left + (k % columns) * SPACING;
+                y[i] = bottom + SPACING * 1.5 + (k / columns) * SPACING;
+                k++;
+            }
+        }
+    }
+}
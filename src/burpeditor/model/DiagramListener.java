@@ -0,0 +1,57 @@
+package burpeditor.model;
+
+import java.awt.Rectangle;
+
+/**
+ * Receives change notifications from a {@link DiagramModel}. All methods are
+ * called on the thread that mutated the model, normally the EDT.
+ */
+public interface DiagramListener {
+    default void nodeAdded(Node node) {
+    }
+
+    default void nodeMoved(Node node, int oldX, int oldY) {
+    }
+
+    default void nodeRemoved(Node node) {
+    }
+
+    default void edgeAdded(int edge) {
+    }
+
+    /**
+     * Called after the edge handle has been released, with a copy of the
+     * edge because the store may already reuse the handle.
+     */
+    default void edgeRemoved(Edge edge) {
+    }
+
+    /**
+     * Called when an edge's geometry changed without a user edit of its own:
+     * its attached ends followed a moved node, or it was given a new route.
+     * {@code oldBounds} is the area it covered before.
+     */
+    default void edgeChanged(int edge, Rectangle oldBounds) {
+    }
+
+    default void diagramCleared() {
+    }
+
+    /**
+     * Called when the outermost {@link DiagramModel#beginUpdate(String, Object)}
+     * starts a group of changes that belong together. {@code step} is null
+     * unless the group continues an earlier one with the same step.
+     */
+    default void updateStarted(String name, Object step) {
+    }
+
+    default void updateFinished() {
+    }
+
+    /**
+     * Called after the whole content was replaced at once, e.g. by loading a
+     * saved project.
+     */
+    default void diagramReplaced() {
+    }
+}
@@ -0,0 +1,609 @@
+package burpeditor.model;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Headless diagram state: placed devices and the lines between them. The model
+ * knows nothing about Swing, so it can be painted, exported or persisted
+ * without a live UI. Nodes are painted in id order, so later nodes are drawn
+ * on top and a restored node returns to its old layer. Node and edge bounds are kept in
+ * spatial indexes so hit-testing and area queries do not scan the whole diagram.
+ * <p>
+ * Edge ends attached to a node follow it: moving the node moves those ends
+ * to its new centre and replaces the edge's route with a plain elbow until a
+ * router supplies a better one through {@link #setRoute(int, int[])}.
+ * Removing a node removes the edges attached to it.
+ */
+public class DiagramModel {
+    private final Map<Integer, Node> nodes = new TreeMap<>();
+    private final EdgeStore edges = new EdgeStore();
+    private final QuadTree<Node> nodeIndex = new QuadTree<>();
+    private final QuadTree<Integer> edgeIndex = new QuadTree<>();
+    // Node id -> attached edge handles, count in slot 0
+    private final Map<Integer, int[]> attachments = new HashMap<>();
+    private final List<DiagramListener> listeners = new CopyOnWriteArrayList<>();
+    private int nextId = 1;
+    private int updateDepth;
+    private int extentWidth;
+    private int extentHeight;
+    private boolean extentStale;
+
+    public void addListener(DiagramListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DiagramListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns a detached copy of the diagram, with the same node ids and edge
+     * handles, that background work such as exports can read while the
+     * original keeps changing on the EDT. Listeners are not copied.
+     */
+    public DiagramModel snapshot() {
+        DiagramModel copy = new DiagramModel();
+        for (Node node : nodes.values()) {
+            Node clone = new Node(node.getId(), node.getIconKey(), node.x, node.y);
+            copy.nodes.put(clone.getId(), clone);
+            copy.nodeIndex.insert(clone, clone.getBounds());
+        }
+        copy.edges.copyFrom(edges);
+        copy.edges.forEach(edge -> copy.edgeIndex.insert(edge, copy.edges.getBounds(edge)));
+        copy.rebuildAttachments(false);
+        copy.nextId = nextId;
+        copy.extentWidth = extentWidth;
+        copy.extentHeight = extentHeight;
+        copy.extentStale = extentStale;
+        return copy;
+    }
+
+    /**
+     * Copies the diagram into a {@link DiagramState} for persistence.
+     */
+    public DiagramState getState() {
+        int count = nodes.size();
+        int[] ids = new int[count];
+        String[] icons = new String[count];
+        int[] coords = new int[count * 2];
+        int i = 0;
+        for (Node node : nodes.values()) {
+            ids[i] = node.getId();
+            icons[i] = node.getIconKey();
+            coords[i * 2] = node.x;
+            coords[i * 2 + 1] = node.y;
+            i++;
+        }
+        return new DiagramState(nextId, ids, icons, coords,
+                edges.slotCount(), edges.freeHead(), edges.rawCoords(), edges.rawStyles(), edges.rawEnds());
+    }
+
+    /**
+     * Replaces the whole diagram with {@code state}, rebuilding the indexes in
+     * one pass, and notifies listeners once.
+     */
+    public void setState(DiagramState state) {
+        nodes.clear();
+        nodeIndex.clear();
+        edgeIndex.clear();
+        int[] ids = state.getNodeIds();
+        String[] icons = state.getNodeIcons();
+        int[] coords = state.getNodeCoords();
+        int maxId = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Node node = new Node(ids[i], icons[i], coords[i * 2], coords[i * 2 + 1]);
+            nodes.put(node.getId(), node);
+            nodeIndex.insert(node, node.getBounds());
+            maxId = Math.max(maxId, ids[i]);
+        }
+        edges.restore(state.getEdgeCoords(), state.getEdgeStyles(), state.getEdgeEnds(),
+                state.getEdgeSlots(), state.getEdgeFreeHead());
+        rebuildAttachments(true);
+        edges.forEach(edge -> edgeIndex.insert(edge, edges.getBounds(edge)));
+        nextId = Math.max(state.getNextId(), maxId + 1);
+        extentStale = true;
+        for (DiagramListener l : listeners) {
+            l.diagramReplaced();
+        }
+    }
+
+    public Collection<Node> getNodes() {
+        return Collections.unmodifiableCollection(nodes.values());
+    }
+
+    public Node getNode(int id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * Returns the edge store. Callers must treat it as read-only and mutate
+     * edges through the model so indexes and listeners stay in sync.
+     */
+    public EdgeStore getEdges() {
+        return edges;
+    }
+
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Groups the changes made until the matching {@link #endUpdate()} into
+     * one logical edit, such as a drag or a bulk delete. Updates nest; only
+     * the outermost pair is reported to listeners.
+     */
+    public void beginUpdate(String name) {
+        beginUpdate(name, null);
+    }
+
+    /**
+     * Like {@link #beginUpdate(String)}, for one part of a longer operation
+     * that lets the user work in between, such as a chunk of an import:
+     * consecutive updates with the same {@code step} make up one logical edit.
+     */
+    public void beginUpdate(String name, Object step) {
+        if (updateDepth++ == 0) {
+            for (DiagramListener l : listeners) {
+                l.updateStarted(name, step);
+            }
+        }
+    }
+
+    /**
+     * Returns whether changes are being grouped, e.g. while a drag is under way.
+     */
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
+
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("endUpdate without beginUpdate");
+        }
+        if (--updateDepth == 0) {
+            for (DiagramListener l : listeners) {
+                l.updateFinished();
+            }
+        }
+    }
+
+    public Node addNode(String iconKey, int x, int y) {
+        return insertNode(new Node(nextId++, iconKey, x, y));
+    }
+
+    /**
+     * Adds a node under a known id, e.g. when undoing its removal, so it
+     * keeps its place in the paint order and everything that refers to it by
+     * id stays valid.
+     */
+    public Node restoreNode(int id, String iconKey, int x, int y) {
+        if (id <= 0 || nodes.containsKey(id)) {
+            throw new IllegalArgumentException("Node id " + id + " is in use or invalid");
+        }
+        nextId = Math.max(nextId, id + 1);
+        return insertNode(new Node(id, iconKey, x, y));
+    }
+
+    private Node insertNode(Node node) {
+        int x = node.x;
+        int y = node.y;
+        nodes.put(node.getId(), node);
+        nodeIndex.insert(node, node.getBounds());
+        growExtent(x + Node.SIZE, y + Node.SIZE);
+        for (DiagramListener l : listeners) {
+            l.nodeAdded(node);
+        }
+        return node;
+    }
+
+    public void moveNode(Node node, int x, int y) {
+        int oldX = node.x;
+        int oldY = node.y;
+        if (oldX == x && oldY == y) {
+            return;
+        }
+        node.x = x;
+        node.y = y;
+        nodeIndex.update(node, node.getBounds());
+        if (touchesExtent(oldX + Node.SIZE, oldY + Node.SIZE)) {
+            extentStale = true;
+        }
+        growExtent(x + Node.SIZE, y + Node.SIZE);
+        for (DiagramListener l : listeners) {
+            l.nodeMoved(node, oldX, oldY);
+        }
+        int[] attached = attachments.get(node.getId());
+        if (attached != null) {
+            for (int i = 1; i <= attached[0]; i++) {
+                followNodes(attached[i]);
+            }
+        }
+    }
+
+    public void removeNode(Node node) {
+        if (nodes.get(node.getId()) != node) {
+            return;
+        }
+        // Attached edges go with the node, in the same logical edit
+        boolean cascade = attachments.containsKey(node.getId());
+        if (cascade) {
+            beginUpdate("Delete Device");
+        }
+        try {
+            removeAttachedEdges(node);
+            nodes.remove(node.getId());
+            nodeIndex.remove(node);
+            extentStale |= touchesExtent(node.x + Node.SIZE, node.y + Node.SIZE);
+            for (DiagramListener l : listeners) {
+                l.nodeRemoved(node);
+            }
+        } finally {
+            if (cascade) {
+                endUpdate();
+            }
+        }
+    }
+
+    public void removeNodes(Collection<Node> toRemove) {
+        beginUpdate("Delete");
+        try {
+            for (Node node : toRemove) {
+                if (nodes.get(node.getId()) == node) {
+                    removeAttachedEdges(node);
+                }
+            }
+            List<Node> removed = new ArrayList<>(toRemove.size());
+            for (Node node : toRemove) {
+                if (nodes.remove(node.getId(), node)) {
+                    nodeIndex.remove(node);
+                    removed.add(node);
+                }
+            }
+            if (!removed.isEmpty()) {
+                extentStale = true;
+                for (Node node : removed) {
+                    for (DiagramListener l : listeners) {
+                        l.nodeRemoved(node);
+                    }
+                }
+            }
+        } finally {
+            endUpdate();
+        }
+    }
+
+    private void removeAttachedEdges(Node node) {
+        int[] attached = attachments.get(node.getId());
+        while (attached != null && attached[0] > 0) {
+            removeEdge(attached[attached[0]]);
+            attached = attachments.get(node.getId());
+        }
+    }
+
+    public int addEdge(int x1, int y1, int x2, int y2) {
+        return insertEdge(edges.add(x1, y1, x2, y2, EdgeStore.DEFAULT_STYLE));
+    }
+
+    /**
+     * Adds an edge between the centres of two nodes that follows them when
+     * they move.
+     */
+    public int connect(Node source, Node target) {
+        int edge = edges.add(centerX(source), centerY(source), centerX(target), centerY(target),
+                EdgeStore.DEFAULT_STYLE, source.getId(), target.getId());
+        return insertEdge(edge);
+    }
+
+    /**
+     * Adds an edge under a known handle that is currently free, e.g. when
+     * undoing its removal.
+     */
+    public int restoreEdge(int edge, int x1, int y1, int x2, int y2) {
+        return restoreEdge(edge, x1, y1, x2, y2, EdgeStore.UNATTACHED, EdgeStore.UNATTACHED);
+    }
+
+    /**
+     * Like {@link #restoreEdge(int, int, int, int, int)}, re-attaching the
+     * ends to the given node ids. Ends whose node no longer exists stay
+     * loose at the given coordinates.
+     */
+    public int restoreEdge(int edge, int x1, int y1, int x2, int y2, int source, int target) {
+        source = nodes.containsKey(source) ? source : EdgeStore.UNATTACHED;
+        target = nodes.containsKey(target) ? target : EdgeStore.UNATTACHED;
+        edges.addAt(edge, x1, y1, x2, y2, EdgeStore.DEFAULT_STYLE, source, target);
+        return insertEdge(edge);
+    }
+
+    private int insertEdge(int edge) {
+        attach(edges.source(edge), edge);
+        attach(edges.target(edge), edge);
+        if (edges.isAttached(edge)) {
+            placeAttached(edge);
+        }
+        Rectangle bounds = edges.getBounds(edge);
+        edgeIndex.insert(edge, bounds);
+        growExtent(bounds.x + bounds.width, bounds.y + bounds.height);
+        for (DiagramListener l : listeners) {
+            l.edgeAdded(edge);
+        }
+        return edge;
+    }
+
+    public void removeEdge(int edge) {
+        if (!edges.isLive(edge)) {
+            return;
+        }
+        Edge removed = edges.get(edge);
+        detach(removed.getSource(), edge);
+        detach(removed.getTarget(), edge);
+        edgeIndex.remove(edge);
+        edges.remove(edge);
+        Rectangle bounds = removed.getBounds();
+        extentStale |= touchesExtent(bounds.x + bounds.width, bounds.y + bounds.height);
+        for (DiagramListener l : listeners) {
+            l.edgeRemoved(removed);
+        }
+    }
+
+    /**
+     * Replaces an edge's route, e.g. with one computed by a router. The
+     * route must start and end at the edge's current endpoints; a route
+     * computed for endpoints that have since moved is ignored.
+     *
+     * @return whether the route was applied
+     */
+    public boolean setRoute(int edge, int[] route) {
+        if (!edges.isLive(edge)) {
+            return false;
+        }
+        if (route != null && (route.length < 4 || route.length % 2 != 0
+                || route[0] != edges.x1(edge) || route[1] != edges.y1(edge)
+                || route[route.length - 2] != edges.x2(edge) || route[route.length - 1] != edges.y2(edge))) {
+            return false;
+        }
+        Rectangle oldBounds = edges.getBounds(edge);
+        edges.setRoute(edge, route);
+        edgeMoved(edge, oldBounds);
+        return true;
+    }
+
+    /**
+     * Puts attached ends back on their nodes' centres after a node moved.
+     */
+    private void followNodes(int edge) {
+        Rectangle oldBounds = edges.getBounds(edge);
+        placeAttached(edge);
+        edgeMoved(edge, oldBounds);
+    }
+
+    private void placeAttached(int edge) {
+        Node source = nodes.get(edges.source(edge));
+        Node target = nodes.get(edges.target(edge));
+        int x1 = source != null ? centerX(source) : edges.x1(edge);
+        int y1 = source != null ? centerY(source) : edges.y1(edge);
+        int x2 = target != null ? centerX(target) : edges.x2(edge);
+        int y2 = target != null ? centerY(target) : edges.y2(edge);
+        edges.setEndpoints(edge, x1, y1, x2, y2);
+        edges.setRoute(edge, elbow(x1, y1, x2, y2));
+    }
+
+    private void edgeMoved(int edge, Rectangle oldBounds) {
+        Rectangle bounds = edges.getBounds(edge);
+        edgeIndex.update(edge, bounds);
+        if (touchesExtent(oldBounds.x + oldBounds.width, oldBounds.y + oldBounds.height)) {
+            extentStale = true;
+        }
+        growExtent(bounds.x + bounds.width, bounds.y + bounds.height);
+        for (DiagramListener l : listeners) {
+            l.edgeChanged(edge, oldBounds);
+        }
+    }
+
+    /**
+     * Orthogonal stand-in route: horizontal, vertical, horizontal through the
+     * midpoint. Null when the ends are aligned and a straight line is already
+     * orthogonal.
+     */
+    static int[] elbow(int x1, int y1, int x2, int y2) {
+        if (x1 == x2 || y1 == y2) {
+            return null;
+        }
+        int mid = (x1 + x2) / 2;
+        return new int[] { x1, y1, mid, y1, mid, y2, x2, y2 };
+    }
+
+    public static int centerX(Node node) {
+        return node.x + Node.SIZE / 2;
+    }
+
+    public static int centerY(Node node) {
+        return node.y + Node.SIZE / 2;
+    }
+
+    /**
+     * Visits the edges attached to a node.
+     */
+    public void edgesAttachedTo(Node node, IntConsumer visitor) {
+        int[] attached = attachments.get(node.getId());
+        if (attached != null) {
+            for (int i = 1; i <= attached[0]; i++) {
+                visitor.accept(attached[i]);
+            }
+        }
+    }
+
+    private void attach(int nodeId, int edge) {
+        if (nodeId == EdgeStore.UNATTACHED) {
+            return;
+        }
+        int[] attached = attachments.get(nodeId);
+        if (attached == null) {
+            attached = new int[4];
+        } else if (attached[0] == attached.length - 1) {
+            attached = Arrays.copyOf(attached, attached.length * 2);
+        }
+        attached[++attached[0]] = edge;
+        attachments.put(nodeId, attached);
+    }
+
+    private void detach(int nodeId, int edge) {
+        int[] attached = attachments.get(nodeId);
+        if (attached == null) {
+            return;
+        }
+        for (int i = 1; i <= attached[0]; i++) {
+            if (attached[i] == edge) {
+                attached[i] = attached[attached[0]--];
+                break;
+            }
+        }
+        if (attached[0] == 0) {
+            attachments.remove(nodeId);
+        }
+    }
+
+    /**
+     * Rebuilds the node-to-edge index after the edge store was replaced
+     * wholesale. Ends naming a node that does not exist are loosened; with
+     * {@code place}, attached ends are also put back on their nodes.
+     */
+    private void rebuildAttachments(boolean place) {
+        attachments.clear();
+        edges.forEach(edge -> {
+            int source = edges.source(edge);
+            int target = edges.target(edge);
+            if (source == EdgeStore.UNATTACHED && target == EdgeStore.UNATTACHED) {
+                return;
+            }
+            if (!nodes.containsKey(source)) {
+                source = EdgeStore.UNATTACHED;
+            }
+            if (!nodes.containsKey(target)) {
+                target = EdgeStore.UNATTACHED;
+            }
+            edges.setEnds(edge, source, target);
+            attach(source, edge);
+            attach(target, edge);
+            if (place) {
+                placeAttached(edge);
+            }
+        });
+    }
+
+    public void removeEdges(BitSet toRemove) {
+        for (int edge = toRemove.nextSetBit(0); edge >= 0; edge = toRemove.nextSetBit(edge + 1)) {
+            removeEdge(edge);
+        }
+    }
+
+    public void clear() {
+        nodes.clear();
+        edges.clear();
+        attachments.clear();
+        nodeIndex.clear();
+        edgeIndex.clear();
+        extentWidth = 0;
+        extentHeight = 0;
+        extentStale = false;
+        for (DiagramListener l : listeners) {
+            l.diagramCleared();
+        }
+    }
+
+    /**
+     * Returns the topmost node under the given point, or null.
+     */
+    public Node nodeAt(int x, int y) {
+        Node[] top = new Node[1];
+        nodeIndex.query(new Rectangle(x, y, 1, 1), node -> {
+            if (top[0] == null || node.getId() > top[0].getId()) {
+                top[0] = node;
+            }
+        });
+        return top[0];
+    }
+
+    /**
+     * Returns the nodes whose bounds intersect the given area, in paint order.
+     */
+    public List<Node> nodesIn(Rectangle area) {
+        List<Node> result = nodeIndex.query(area);
+        result.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return result;
+    }
+
+    /**
+     * Visits the nodes whose bounds intersect the given area, in no
+     * particular order.
+     */
+    public void nodesIn(Rectangle area, Consumer<Node> visitor) {
+        nodeIndex.query(area, visitor);
+    }
+
+    /**
+     * Visits the edges whose bounding boxes intersect the given area.
+     */
+    public void edgesIn(Rectangle area, IntConsumer visitor) {
+        edgeIndex.query(area, edge -> visitor.accept(edge));
+    }
+
+    /**
+     * Returns the edge closest to the given point within the tolerance, or
+     * {@link EdgeStore#NONE}.
+     */
+    public int edgeAt(int x, int y, int tolerance) {
+        Rectangle area = new Rectangle(x - tolerance, y - tolerance, 2 * tolerance + 1, 2 * tolerance + 1);
+        double limit = (double) tolerance * tolerance;
+        int best = EdgeStore.NONE;
+        double bestDistance = Double.MAX_VALUE;
+        for (int edge : edgeIndex.query(area)) {
+            double d = edges.distanceSq(edge, x, y);
+            if (d <= limit && d < bestDistance) {
+                best = edge;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Size of the area covered by the diagram, measured from the origin.
+     */
+    public Dimension getExtent() {
+        if (extentStale) {
+            extentWidth = 0;
+            extentHeight = 0;
+            extentStale = false;
+            for (Node node : nodes.values()) {
+                growExtent(node.x + Node.SIZE, node.y + Node.SIZE);
+            }
+            edges.forEach(edge -> {
+                Rectangle bounds = edges.getBounds(edge);
+                growExtent(bounds.x + bounds.width, bounds.y + bounds.height);
+            });
+        }
+        return new Dimension(extentWidth, extentHeight);
+    }
+
+    private boolean touchesExtent(int right, int bottom) {
+        return right >= extentWidth || bottom >= extentHeight;
+    }
+
+    private void growExtent(int right, int bottom) {
+        extentWidth = Math.max(extentWidth, right);
+        extentHeight = Math.max(extentHeight, bottom);
+    }
+}
@@ -0,0 +1,116 @@
+package burpeditor.model;
+
+/**
+ * Flat copy of a diagram's contents in primitive arrays, the form in which it
+ * is persisted. Node ids, edge handles and the edge free list are kept
+ * exactly, so a model restored from a state behaves like the one it was taken
+ * from. Instances are immutable by convention; the arrays are not copied.
+ */
+public class DiagramState {
+    private final int nextId;
+    private final int[] nodeIds;
+    private final String[] nodeIcons;
+    private final int[] nodeCoords;
+    private final int edgeSlots;
+    private final int edgeFreeHead;
+    private final int[] edgeCoords;
+    private final byte[] edgeStyles;
+    private final int[] edgeEnds;
+
+    /**
+     * @param nodeIds    node ids in paint order
+     * @param nodeIcons  icon key per node
+     * @param nodeCoords x, y pairs per node
+     * @param edgeSlots  number of edge handle slots, live or free
+     * @param edgeFreeHead first free edge slot, or {@link EdgeStore#NONE}
+     * @param edgeCoords four ints per slot; a free slot links to the next free one in its first int
+     * @param edgeStyles one byte per slot, -1 for free slots
+     * @param edgeEnds   source and target node id per slot, {@link EdgeStore#UNATTACHED} for loose ends
+     */
+    public DiagramState(int nextId, int[] nodeIds, String[] nodeIcons, int[] nodeCoords,
+                        int edgeSlots, int edgeFreeHead, int[] edgeCoords, byte[] edgeStyles, int[] edgeEnds) {
+        if (nodeIcons.length != nodeIds.length || nodeCoords.length != nodeIds.length * 2) {
+            throw new IllegalArgumentException("Node arrays do not match");
+        }
+        if (edgeCoords.length != edgeSlots * 4 || edgeStyles.length != edgeSlots || edgeEnds.length != edgeSlots * 2) {
+            throw new IllegalArgumentException("Edge arrays do not match");
+        }
+        checkFreeList(edgeSlots, edgeFreeHead, edgeCoords, edgeStyles);
+        this.nextId = nextId;
+        this.nodeIds = nodeIds;
+        this.nodeIcons = nodeIcons;
+        this.nodeCoords = nodeCoords;
+        this.edgeSlots = edgeSlots;
+        this.edgeFreeHead = edgeFreeHead;
+        this.edgeCoords = edgeCoords;
+        this.edgeStyles = edgeStyles;
+        this.edgeEnds = edgeEnds;
+    }
+
+    public int getNextId() {
+        return nextId;
+    }
+
+    public int getNodeCount() {
+        return nodeIds.length;
+    }
+
+    public int[] getNodeIds() {
+        return nodeIds;
+    }
+
+    public String[] getNodeIcons() {
+        return nodeIcons;
+    }
+
+    public int[] getNodeCoords() {
+        return nodeCoords;
+    }
+
+    public int getEdgeSlots() {
+        return edgeSlots;
+    }
+
+    public int getEdgeFreeHead() {
+        return edgeFreeHead;
+    }
+
+    public int[] getEdgeCoords() {
+        return edgeCoords;
+    }
+
+    public byte[] getEdgeStyles() {
+        return edgeStyles;
+    }
+
+    public int[] getEdgeEnds() {
+        return edgeEnds;
+    }
+
+    public boolean hasAttachedEdges() {
+        for (int end : edgeEnds) {
+            if (end != EdgeStore.UNATTACHED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void checkFreeList(int slots, int head, int[] coords, byte[] styles) {
+        int free = 0;
+        for (byte style : styles) {
+            if (style < 0) {
+                free++;
+            }
+        }
+        int steps = 0;
+        for (int slot = head; slot != EdgeStore.NONE; slot = coords[slot * 4]) {
+            if (slot < 0 || slot >= slots || styles[slot] >= 0 || ++steps > free) {
+                throw new IllegalArgumentException("Corrupt edge free list at slot " + slot);
+            }
+        }
+        if (steps != free) {
+            throw new IllegalArgumentException("Edge free list misses " + (free - steps) + " free slots");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package burpeditor.model;
+
+import java.awt.Rectangle;
+
+/**
+ * Detached copy of one edge, handed to listeners when the edge is removed
+ * because its handle may already be reused by then. Live edges are read
+ * through {@link EdgeStore} instead.
+ */
+public final class Edge {
+    private final int handle;
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
+    private final byte style;
+    private final int source;
+    private final int target;
+    private final Rectangle bounds;
+
+    Edge(int handle, int x1, int y1, int x2, int y2, byte style, int source, int target, Rectangle bounds) {
+        this.handle = handle;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.style = style;
+        this.source = source;
+        this.target = target;
+        this.bounds = bounds;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
+    }
+
+    public byte getStyle() {
+        return style;
+    }
+
+    /**
+     * Id of the node the edge started at, or {@link EdgeStore#UNATTACHED}.
+     */
+    public int getSource() {
+        return source;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Area the edge covered, including its route.
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+}
@@ -0,0 +1,344 @@
+package burpeditor.model;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Connection lines packed into primitive arrays. An edge is an int handle into
+ * the store; its endpoints occupy four consecutive slots of {@code coords} and
+ * its stroke style one byte. Removed handles go onto a free list threaded
+ * through the coordinate array and are reused by later additions, so a
+ * diagram with many links costs about 30 bytes per edge with no per-edge
+ * objects beyond the routes themselves.
+ * <p>
+ * Each end can be attached to a node by id, in which case the model keeps
+ * that end on the node's centre. An edge may also carry a route: an
+ * orthogonal polyline from its first to its second endpoint that is drawn
+ * instead of the straight line. Route arrays are never modified once stored.
+ */
+public class EdgeStore {
+    public static final int NONE = -1;
+    public static final byte DEFAULT_STYLE = 0;
+    public static final int UNATTACHED = 0;
+
+    private static final byte FREE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] coords = new int[INITIAL_CAPACITY * 4];
+    private byte[] styles = new byte[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY * 2];
+    private int[][] routes = new int[INITIAL_CAPACITY][];
+    private int highWater;
+    private int size;
+    private int freeHead = NONE;
+
+    public int add(int x1, int y1, int x2, int y2, byte style) {
+        return add(x1, y1, x2, y2, style, UNATTACHED, UNATTACHED);
+    }
+
+    int add(int x1, int y1, int x2, int y2, byte style, int source, int target) {
+        int id;
+        if (freeHead != NONE) {
+            id = freeHead;
+            freeHead = coords[id * 4];
+        } else {
+            if (highWater == styles.length) {
+                grow();
+            }
+            id = highWater++;
+        }
+        set(id, x1, y1, x2, y2, style, source, target);
+        return id;
+    }
+
+    /**
+     * Adds an edge under a specific free handle. Handles are normally
+     * restored in the reverse order they were freed, so the handle is
+     * usually the head of the free list; otherwise the list is walked.
+     */
+    public void addAt(int id, int x1, int y1, int x2, int y2, byte style) {
+        addAt(id, x1, y1, x2, y2, style, UNATTACHED, UNATTACHED);
+    }
+
+    void addAt(int id, int x1, int y1, int x2, int y2, byte style, int source, int target) {
+        if (id < 0 || isLive(id)) {
+            throw new IllegalArgumentException("Edge handle " + id + " is in use or invalid");
+        }
+        if (id >= highWater) {
+            // Slots skipped over become free so the list still covers every unused handle
+            while (highWater <= id) {
+                if (highWater == styles.length) {
+                    grow();
+                }
+                styles[highWater] = FREE;
+                ends[highWater * 2] = UNATTACHED;
+                ends[highWater * 2 + 1] = UNATTACHED;
+                coords[highWater * 4] = freeHead;
+                freeHead = highWater++;
+            }
+        }
+        if (freeHead == id) {
+            freeHead = coords[id * 4];
+        } else {
+            int prev = freeHead;
+            while (coords[prev * 4] != id) {
+                prev = coords[prev * 4];
+            }
+            coords[prev * 4] = coords[id * 4];
+        }
+        set(id, x1, y1, x2, y2, style, source, target);
+    }
+
+    private void set(int id, int x1, int y1, int x2, int y2, byte style, int source, int target) {
+        int base = id * 4;
+        coords[base] = x1;
+        coords[base + 1] = y1;
+        coords[base + 2] = x2;
+        coords[base + 3] = y2;
+        styles[id] = style;
+        ends[id * 2] = source;
+        ends[id * 2 + 1] = target;
+        routes[id] = null;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = styles.length * 2;
+        coords = Arrays.copyOf(coords, capacity * 4);
+        styles = Arrays.copyOf(styles, capacity);
+        ends = Arrays.copyOf(ends, capacity * 2);
+        routes = Arrays.copyOf(routes, capacity);
+    }
+
+    public boolean remove(int id) {
+        if (!isLive(id)) {
+            return false;
+        }
+        styles[id] = FREE;
+        coords[id * 4] = freeHead;
+        ends[id * 2] = UNATTACHED;
+        ends[id * 2 + 1] = UNATTACHED;
+        routes[id] = null;
+        freeHead = id;
+        size--;
+        return true;
+    }
+
+    /**
+     * Copies a live edge out of the store, e.g. just before removing it.
+     */
+    public Edge get(int id) {
+        int base = id * 4;
+        return new Edge(id, coords[base], coords[base + 1], coords[base + 2], coords[base + 3],
+                styles[id], ends[id * 2], ends[id * 2 + 1], getBounds(id));
+    }
+
+    /**
+     * Moves the endpoints and drops the route, which no longer fits them.
+     */
+    void setEndpoints(int id, int x1, int y1, int x2, int y2) {
+        int base = id * 4;
+        coords[base] = x1;
+        coords[base + 1] = y1;
+        coords[base + 2] = x2;
+        coords[base + 3] = y2;
+        routes[id] = null;
+    }
+
+    void setEnds(int id, int source, int target) {
+        ends[id * 2] = source;
+        ends[id * 2 + 1] = target;
+    }
+
+    /**
+     * Stores a route, as x, y pairs from the first endpoint to the second,
+     * or null to draw the edge straight.
+     */
+    void setRoute(int id, int[] route) {
+        routes[id] = route;
+    }
+
+    public void clear() {
+        Arrays.fill(styles, 0, highWater, FREE);
+        Arrays.fill(routes, 0, highWater, null);
+        Arrays.fill(ends, 0, highWater * 2, UNATTACHED);
+        highWater = 0;
+        size = 0;
+        freeHead = NONE;
+    }
+
+    /**
+     * Replaces the contents of this store with a copy of {@code source},
+     * keeping every handle valid.
+     */
+    public void copyFrom(EdgeStore source) {
+        coords = Arrays.copyOf(source.coords, source.coords.length);
+        styles = Arrays.copyOf(source.styles, source.styles.length);
+        ends = Arrays.copyOf(source.ends, source.ends.length);
+        routes = Arrays.copyOf(source.routes, source.routes.length);
+        highWater = source.highWater;
+        size = source.size;
+        freeHead = source.freeHead;
+    }
+
+    /**
+     * Number of handle slots in use, live or free. Handles are below this.
+     */
+    int slotCount() {
+        return highWater;
+    }
+
+    /**
+     * Head of the free list, or {@link #NONE}. Persisted with the raw slots so
+     * a restored store hands out the same handles as the one it was saved from.
+     */
+    int freeHead() {
+        return freeHead;
+    }
+
+    int[] rawCoords() {
+        return Arrays.copyOf(coords, highWater * 4);
+    }
+
+    byte[] rawStyles() {
+        return Arrays.copyOf(styles, highWater);
+    }
+
+    int[] rawEnds() {
+        return Arrays.copyOf(ends, highWater * 2);
+    }
+
+    void restore(int[] rawCoords, byte[] rawStyles, int[] rawEnds, int slots, int head) {
+        int capacity = Math.max(INITIAL_CAPACITY, slots);
+        coords = Arrays.copyOf(rawCoords, capacity * 4);
+        styles = Arrays.copyOf(rawStyles, capacity);
+        ends = Arrays.copyOf(rawEnds, capacity * 2);
+        routes = new int[capacity][];
+        highWater = slots;
+        freeHead = head;
+        size = 0;
+        for (int id = 0; id < slots; id++) {
+            if (styles[id] != FREE) {
+                size++;
+            }
+        }
+    }
+
+    public boolean isLive(int id) {
+        return id >= 0 && id < highWater && styles[id] != FREE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int x1(int id) {
+        return coords[id * 4];
+    }
+
+    public int y1(int id) {
+        return coords[id * 4 + 1];
+    }
+
+    public int x2(int id) {
+        return coords[id * 4 + 2];
+    }
+
+    public int y2(int id) {
+        return coords[id * 4 + 3];
+    }
+
+    public byte style(int id) {
+        return styles[id];
+    }
+
+    public void setStyle(int id, byte style) {
+        if (isLive(id) && style != FREE) {
+            styles[id] = style;
+        }
+    }
+
+    /**
+     * Id of the node the first endpoint is attached to, or {@link #UNATTACHED}.
+     */
+    public int source(int id) {
+        return ends[id * 2];
+    }
+
+    public int target(int id) {
+        return ends[id * 2 + 1];
+    }
+
+    public boolean isAttached(int id) {
+        return ends[id * 2] != UNATTACHED || ends[id * 2 + 1] != UNATTACHED;
+    }
+
+    /**
+     * The edge's route as x, y pairs, or null if it is drawn straight. The
+     * array must not be modified.
+     */
+    public int[] route(int id) {
+        return routes[id];
+    }
+
+    /**
+     * Adds the edge's line or route to {@code path}.
+     */
+    public void appendTo(int id, Path2D path) {
+        int[] route = routes[id];
+        if (route == null) {
+            int base = id * 4;
+            path.moveTo(coords[base], coords[base + 1]);
+            path.lineTo(coords[base + 2], coords[base + 3]);
+            return;
+        }
+        path.moveTo(route[0], route[1]);
+        for (int i = 2; i < route.length; i += 2) {
+            path.lineTo(route[i], route[i + 1]);
+        }
+    }
+
+    public Rectangle getBounds(int id) {
+        int[] route = routes[id];
+        if (route == null) {
+            int base = id * 4;
+            return bounds(coords[base], coords[base + 1], coords[base + 2], coords[base + 3]);
+        }
+        Rectangle bounds = bounds(route[0], route[1], route[0], route[1]);
+        for (int i = 2; i < route.length; i += 2) {
+            bounds.add(new Rectangle(route[i], route[i + 1], 1, 1));
+        }
+        return bounds;
+    }
+
+    public double distanceSq(int id, double px, double py) {
+        int[] route = routes[id];
+        if (route == null) {
+            int base = id * 4;
+            return Line2D.ptSegDistSq(coords[base], coords[base + 1], coords[base + 2], coords[base + 3], px, py);
+        }
+        double best = Double.MAX_VALUE;
+        for (int i = 2; i < route.length; i += 2) {
+            best = Math.min(best, Line2D.ptSegDistSq(route[i - 2], route[i - 1], route[i], route[i + 1], px, py));
+        }
+        return best;
+    }
+
+    /**
+     * Visits every live edge handle in ascending order.
+     */
+    public void forEach(IntConsumer visitor) {
+        for (int id = 0; id < highWater; id++) {
+            if (styles[id] != FREE) {
+                visitor.accept(id);
+            }
+        }
+    }
+
+    static Rectangle bounds(int x1, int y1, int x2, int y2) {
+        return new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1) + 1, Math.abs(y2 - y1) + 1);
+    }
+}
@@ -0,0 +1,47 @@
+package burpeditor.model;
+
+import java.awt.Rectangle;
+
+/**
+ * A device placed on the diagram. Nodes are plain data; the canvas paints them
+ * from the shared icon images instead of hosting a Swing component per node.
+ */
+public class Node {
+    public static final int SIZE = 48;
+
+    private final int id;
+    private final String iconKey;
+    int x;
+    int y;
+
+    Node(int id, String iconKey, int x, int y) {
+        this.id = id;
+        this.iconKey = iconKey;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getIconKey() {
+        return iconKey;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public boolean contains(int px, int py) {
+        return px >= x && py >= y && px < x + SIZE && py < y + SIZE;
+    }
+
+    public Rectangle getBounds() {
+        return new Rectangle(x, y, SIZE, SIZE);
+    }
+}
@@ -0,0 +1,271 @@
+package burpeditor.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Region quadtree over axis-aligned item bounds. Each item is stored in the
+ * smallest quad that fully contains it, so point and window queries only visit
+ * the quads along the path to the area of interest. The root grows on demand,
+ * which lets the diagram extend in any direction without a fixed world size.
+ */
+public class QuadTree<T> {
+    private static final int SPLIT_THRESHOLD = 8;
+    private static final int MERGE_THRESHOLD = 4;
+    private static final int MIN_QUAD_SIZE = 16;
+    private static final int INITIAL_SIZE = 1024;
+
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+    private Quad root = new Quad(null, 0, 0, INITIAL_SIZE);
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public void clear() {
+        entries.clear();
+        root = new Quad(null, 0, 0, INITIAL_SIZE);
+    }
+
+    public void insert(T item, Rectangle bounds) {
+        remove(item);
+        Entry<T> entry = new Entry<>(item, bounds);
+        entries.put(item, entry);
+        while (!root.encloses(entry)) {
+            growToward(entry);
+        }
+        root.insert(entry);
+    }
+
+    /**
+     * Moves an item to new bounds. Small moves that stay inside the owning quad
+     * are updated in place without touching the tree structure.
+     */
+    public void update(T item, Rectangle bounds) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            insert(item, bounds);
+            return;
+        }
+        Quad owner = entry.owner;
+        entry.set(bounds);
+        if (owner.encloses(entry) && (owner.children == null || owner.childFor(entry) == null)) {
+            return;
+        }
+        owner.detach(entry);
+        while (!root.encloses(entry)) {
+            growToward(entry);
+        }
+        root.insert(entry);
+        owner.collapseUpward();
+    }
+
+    public boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        Quad owner = entry.owner;
+        owner.detach(entry);
+        owner.collapseUpward();
+        return true;
+    }
+
+    /**
+     * Reports every item whose bounds intersect the given area.
+     */
+    public void query(Rectangle area, Consumer<? super T> visitor) {
+        if (area.width <= 0 || area.height <= 0) {
+            return;
+        }
+        root.query(area.x, area.y, area.x + area.width, area.y + area.height, visitor);
+    }
+
+    public List<T> query(Rectangle area) {
+        List<T> result = new ArrayList<>();
+        query(area, result::add);
+        return result;
+    }
+
+    private void growToward(Entry<T> entry) {
+        Quad old = root;
+        int size = old.size * 2;
+        int x = entry.minX < old.x ? old.x - old.size : old.x;
+        int y = entry.minY < old.y ? old.y - old.size : old.y;
+        Quad grown = new Quad(null, x, y, size);
+        if (old.count > 0) {
+            grown.split();
+            int index = (old.x > x ? 1 : 0) + (old.y > y ? 2 : 0);
+            old.parent = grown;
+            grown.children[index] = old;
+            grown.count = old.count;
+        }
+        root = grown;
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        int minX, minY, maxX, maxY;
+        QuadTree<T>.Quad owner;
+        // Index in owner.items, so detaching stays O(1) even when many items share a quad
+        int slot;
+
+        Entry(T item, Rectangle bounds) {
+            this.item = item;
+            set(bounds);
+        }
+
+        void set(Rectangle bounds) {
+            minX = bounds.x;
+            minY = bounds.y;
+            maxX = bounds.x + Math.max(1, bounds.width);
+            maxY = bounds.y + Math.max(1, bounds.height);
+        }
+    }
+
+    private final class Quad {
+        final int x, y, size;
+        Quad parent;
+        Quad[] children;
+        List<Entry<T>> items = new ArrayList<>(2);
+        int count;
+
+        Quad(Quad parent, int x, int y, int size) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        boolean encloses(Entry<T> e) {
+            return e.minX >= x && e.minY >= y && e.maxX <= x + size && e.maxY <= y + size;
+        }
+
+        Quad childFor(Entry<T> e) {
+            int half = size / 2;
+            int midX = x + half;
+            int midY = y + half;
+            int index;
+            if (e.maxX <= midX) {
+                index = 0;
+            } else if (e.minX >= midX) {
+                index = 1;
+            } else {
+                return null;
+            }
+            if (e.minY >= midY) {
+                index += 2;
+            } else if (e.maxY > midY) {
+                return null;
+            }
+            return children[index];
+        }
+
+        void insert(Entry<T> e) {
+            Quad q = this;
+            while (true) {
+                q.count++;
+                if (q.children == null) {
+                    q.add(e);
+                    if (q.items.size() > SPLIT_THRESHOLD && q.size > MIN_QUAD_SIZE) {
+                        q.split();
+                        q.pushDown();
+                    }
+                    return;
+                }
+                Quad child = q.childFor(e);
+                if (child == null) {
+                    q.add(e);
+                    return;
+                }
+                q = child;
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void split() {
+            int half = size / 2;
+            children = new QuadTree.Quad[4];
+            children[0] = new Quad(this, x, y, half);
+            children[1] = new Quad(this, x + half, y, half);
+            children[2] = new Quad(this, x, y + half, half);
+            children[3] = new Quad(this, x + half, y + half, half);
+        }
+
+        void add(Entry<T> e) {
+            e.owner = this;
+            e.slot = items.size();
+            items.add(e);
+        }
+
+        void pushDown() {
+            List<Entry<T>> all = items;
+            items = new ArrayList<>(2);
+            for (Entry<T> e : all) {
+                Quad child = childFor(e);
+                if (child == null) {
+                    add(e);
+                } else {
+                    child.insert(e);
+                }
+            }
+        }
+
+        void detach(Entry<T> e) {
+            Entry<T> last = items.remove(items.size() - 1);
+            if (last != e) {
+                items.set(e.slot, last);
+                last.slot = e.slot;
+            }
+            for (Quad q = this; q != null; q = q.parent) {
+                q.count--;
+            }
+        }
+
+        void collapseUpward() {
+            Quad q = this;
+            while (q != null && (q.children == null || q.count <= MERGE_THRESHOLD)) {
+                if (q.children != null) {
+                    q.absorbChildren();
+                }
+                q = q.parent;
+            }
+        }
+
+        void absorbChildren() {
+            for (Quad child : children) {
+                if (child.children != null) {
+                    child.absorbChildren();
+                }
+                for (Entry<T> e : child.items) {
+                    add(e);
+                }
+            }
+            children = null;
+        }
+
+        void query(int minX, int minY, int maxX, int maxY, Consumer<? super T> visitor) {
+            for (Entry<T> e : items) {
+                if (e.minX < maxX && e.maxX > minX && e.minY < maxY && e.maxY > minY) {
+                    visitor.accept(e.item);
+                }
+            }
+            if (children != null) {
+                for (Quad child : children) {
+                    if (child.count > 0 && child.x < maxX && child.x + child.size > minX
+                            && child.y < maxY && child.y + child.size > minY) {
+                        child.query(minX, minY, maxX, maxY, visitor);
+                    }
+                }
+            }
+        }
+    }
+}
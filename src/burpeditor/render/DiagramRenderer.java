@@ -0,0 +1,264 @@
+package burpeditor.render;
+
+import burpeditor.model.DiagramModel;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Paints the settled content of a diagram (connection lines and devices) into
+ * any Graphics2D. Used by the canvas for its cached static layer and by the
+ * exporters, so on-screen and exported diagrams come from the same code.
+ * <p>
+ * Only elements intersecting the clip are visited, and detail drops with the
+ * device size of a node: below {@link #ICON_MIN_PIXELS} devices are drawn as
+ * squares in their icon's average colour, and below {@link #EDGE_SIMPLIFY_SCALE}
+ * lines that land on the same device pixels are drawn once. Exports render at
+ * full size and are unaffected.
+ * <p>
+ * Lines can carry a traffic level on top of their own style, see
+ * {@link #setTraffic(byte[])}: the request rate sets the width and the share
+ * of errors the colour.
+ */
+public class DiagramRenderer {
+    public static final Color[] EDGE_STYLE_COLORS = { Color.BLUE };
+    public static final float EDGE_WIDTH = 2f;
+    public static final int ICON_MIN_PIXELS = 12;
+    public static final double EDGE_SIMPLIFY_SCALE = 0.5;
+    // Traffic levels: 1 + rate * TRAFFIC_ERROR_COLORS.length + errors, 0 for none
+    public static final int TRAFFIC_RATES = 4;
+    private static final Color[] TRAFFIC_ERROR_COLORS = {
+        new Color(46, 125, 50), new Color(245, 124, 0), new Color(211, 47, 47) };
+    public static final int TRAFFIC_ERRORS = TRAFFIC_ERROR_COLORS.length;
+    // Stroke of a line at the highest traffic rate, the widest one drawn
+    public static final float MAX_EDGE_WIDTH = EDGE_WIDTH * TRAFFIC_RATES;
+    private static final Color GLYPH_FALLBACK_COLOR = Color.GRAY;
+
+    private final IconCache icons;
+    private final Map<String, Color> glyphColors = new ConcurrentHashMap<>();
+    private volatile byte[] traffic;
+
+    public DiagramRenderer(IconCache icons) {
+        this.icons = icons;
+    }
+
+    /**
+     * Sets the traffic level of each line, indexed by edge handle, or null to
+     * draw all lines in their own style. The array is not copied and must not
+     * change afterwards.
+     */
+    public void setTraffic(byte[] traffic) {
+        this.traffic = traffic;
+    }
+
+    public static byte trafficLevel(int rate, int errors) {
+        return (byte) (1 + rate * TRAFFIC_ERRORS + errors);
+    }
+
+    /**
+     * Paints every element intersecting {@code clip}, given in model
+     * coordinates. The graphics must already carry the model-to-device
+     * transform; {@code scale} keeps line widths constant on screen.
+     */
+    public void paint(Graphics2D g, DiagramModel model, Rectangle clip, double scale) {
+        paintEdges(g, model, clip, scale);
+        paintNodes(g, model, clip);
+    }
+
+    public void paintEdges(Graphics2D g, DiagramModel model, Rectangle clip, double scale) {
+        // Batch visible edges into one path per stroke style so each style is a single draw call
+        EdgeStore edges = model.getEdges();
+        byte[] levels = traffic;
+        Path2D.Float[] stylePaths = new Path2D.Float[EDGE_STYLE_COLORS.length + TRAFFIC_RATES * TRAFFIC_ERRORS];
+        double deviceScale = deviceScale(g.getTransform());
+        SegmentSet drawn = deviceScale < EDGE_SIMPLIFY_SCALE ? new SegmentSet(1 / deviceScale) : null;
+        model.edgesIn(clip, edge -> {
+            int style = levels != null && edge < levels.length && levels[edge] != 0
+                    ? EDGE_STYLE_COLORS.length - 1 + levels[edge]
+                    : Math.min(edges.style(edge), EDGE_STYLE_COLORS.length - 1);
+            if (drawn != null && !drawn.add(style, edges.x1(edge), edges.y1(edge), edges.x2(edge), edges.y2(edge))) {
+                // Same pixels as a line already in this batch (routes between the same ends coincide)
+                return;
+            }
+            if (stylePaths[style] == null) {
+                stylePaths[style] = new Path2D.Float();
+            }
+            edges.appendTo(edge, stylePaths[style]);
+        });
+
+        Object antialiasing = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        if (drawn != null) {
+            // One-pixel aliased lines take Java2D's fast line path; at this size width and smoothing are invisible
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g.setStroke(new BasicStroke(0f));
+        } else {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        for (int style = 0; style < stylePaths.length; style++) {
+            if (stylePaths[style] == null) {
+                continue;
+            }
+            int level = style - EDGE_STYLE_COLORS.length;
+            if (level < 0) {
+                g.setColor(EDGE_STYLE_COLORS[style]);
+            } else {
+                g.setColor(TRAFFIC_ERROR_COLORS[level % TRAFFIC_ERRORS]);
+            }
+            if (drawn == null) {
+                float width = level < 0 ? EDGE_WIDTH : EDGE_WIDTH * (1 + level / TRAFFIC_ERRORS);
+                g.setStroke(new BasicStroke((float) (width / scale)));
+            }
+            g.draw(stylePaths[style]);
+        }
+        if (antialiasing != null) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        }
+    }
+
+    public void paintNodes(Graphics2D g, DiagramModel model, Rectangle clip) {
+        // Pick the rendition matching the device pixels a node covers, so zooming never stretches a bitmap
+        double deviceScale = deviceScale(g.getTransform());
+        if (Node.SIZE * deviceScale < ICON_MIN_PIXELS) {
+            paintGlyphs(g, model, clip, deviceScale);
+            return;
+        }
+        for (Node node : model.nodesIn(clip)) {
+            BufferedImage image = icons.get(node.getIconKey(), Node.SIZE, deviceScale);
+            if (image != null) {
+                g.drawImage(image, node.getX(), node.getY(), Node.SIZE, Node.SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * Too small for an icon to be recognisable: one filled square per device.
+     */
+    private void paintGlyphs(Graphics2D g, DiagramModel model, Rectangle clip, double deviceScale) {
+        Color current = null;
+        for (Node node : model.nodesIn(clip)) {
+            Color color = glyphColor(node.getIconKey(), deviceScale);
+            if (color != current) {
+                g.setColor(color);
+                current = color;
+            }
+            g.fillRect(node.getX(), node.getY(), Node.SIZE, Node.SIZE);
+        }
+    }
+
+    private Color glyphColor(String iconKey, double deviceScale) {
+        Color color = glyphColors.get(iconKey);
+        if (color == null) {
+            BufferedImage image = icons.get(iconKey, Node.SIZE, deviceScale);
+            if (image == null) {
+                // Not loaded yet; try again on a later frame
+                return GLYPH_FALLBACK_COLOR;
+            }
+            color = averageColor(image);
+            glyphColors.put(iconKey, color);
+        }
+        return color;
+    }
+
+    /**
+     * Average of the visible pixels, weighted by alpha, as an opaque colour.
+     */
+    static Color averageColor(BufferedImage image) {
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        long weight = 0;
+        int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            for (int argb : row) {
+                int alpha = argb >>> 24;
+                red += alpha * ((argb >> 16) & 0xff);
+                green += alpha * ((argb >> 8) & 0xff);
+                blue += alpha * (argb & 0xff);
+                weight += alpha;
+            }
+        }
+        if (weight == 0) {
+            return GLYPH_FALLBACK_COLOR;
+        }
+        return new Color((int) (red / weight), (int) (green / weight), (int) (blue / weight));
+    }
+
+    private static double deviceScale(AffineTransform transform) {
+        return Math.max(Math.hypot(transform.getScaleX(), transform.getShearY()),
+                        Math.hypot(transform.getShearX(), transform.getScaleY()));
+    }
+
+    /**
+     * Set of line segments snapped to a grid of device pixels, direction
+     * ignored. Open addressing over 64-bit segment hashes keeps it free of
+     * boxing for the tens of thousands of lines a zoomed-out frame can hold.
+     */
+    private static final class SegmentSet {
+        private final double cell;
+        private long[] hashes = new long[1024];
+        private int size;
+
+        SegmentSet(double cell) {
+            this.cell = cell;
+        }
+
+        /** Returns false if an equivalent segment was already added. */
+        boolean add(int style, int x1, int y1, int x2, int y2) {
+            long a = snap(x1, y1);
+            long b = snap(x2, y2);
+            long hash = mix(mix(Math.min(a, b)) ^ Math.max(a, b)) ^ style;
+            if (hash == 0) {
+                hash = 1;
+            }
+            if (size * 2 >= hashes.length) {
+                grow();
+            }
+            if (!insert(hashes, hash)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private boolean insert(long[] table, long hash) {
+            int mask = table.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                if (table[i] == hash) {
+                    return false;
+                }
+                if (table[i] == 0) {
+                    table[i] = hash;
+                    return true;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] old = hashes;
+            hashes = new long[old.length * 2];
+            for (long hash : old) {
+                if (hash != 0) {
+                    insert(hashes, hash);
+                }
+            }
+        }
+
+        private long snap(int x, int y) {
+            return ((long) Math.floor(x / cell) << 32) ^ ((long) Math.floor(y / cell) & 0xffffffffL);
+        }
+
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb33fa4cbf8b5L;
+            return h ^ (h >>> 33);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package burpeditor.render;
+
+import javax.swing.Icon;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sprite sheet of icons pre-scaled to one square cell size. Icons are
+ * registered by resource name before loading, decoded once by an
+ * {@link IconLoader} and then served as views into the shared sheet, so no
+ * component ever decodes or rescales an icon itself. Cells and the icons
+ * handed out are only read on the EDT; until a cell is filled its icon paints
+ * a neutral placeholder.
+ */
+public class IconAtlas {
+    private static final Color PLACEHOLDER_FILL = new Color(0xeeeeee);
+    private static final Color PLACEHOLDER_BORDER = new Color(0xcccccc);
+
+    private final int cellSize;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private BufferedImage sheet;
+    private BufferedImage[] cells = new BufferedImage[0];
+
+    public IconAtlas(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Registers an icon resource and returns its cell index. Registering a
+     * name twice returns the existing cell.
+     */
+    public int add(String name) {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            return index;
+        }
+        if (sheet != null) {
+            throw new IllegalStateException("Atlas already loaded");
+        }
+        names.add(name);
+        indexes.put(name, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public String getName(int index) {
+        return names.get(index);
+    }
+
+    /**
+     * The cell's pixels as a view into the sheet, or null while the icon is
+     * still loading or if it could not be decoded.
+     */
+    public BufferedImage getImage(int index) {
+        return index < cells.length ? cells[index] : null;
+    }
+
+    public BufferedImage getImage(String name) {
+        Integer index = indexes.get(name);
+        return index != null ? getImage(index) : null;
+    }
+
+    /**
+     * A live icon for the cell: paints a placeholder until the cell is
+     * loaded and the owning component repaints.
+     */
+    public Icon getIcon(int index) {
+        return new Icon() {
+            @Override
+            public void paintIcon(Component c, Graphics g, int x, int y) {
+                BufferedImage image = getImage(index);
+                if (image != null) {
+                    g.drawImage(image, x, y, null);
+                } else {
+                    g.setColor(PLACEHOLDER_FILL);
+                    g.fillRect(x, y, cellSize, cellSize);
+                    g.setColor(PLACEHOLDER_BORDER);
+                    g.drawRect(x, y, cellSize - 1, cellSize - 1);
+                }
+            }
+
+            @Override
+            public int getIconWidth() {
+                return cellSize;
+            }
+
+            @Override
+            public int getIconHeight() {
+                return cellSize;
+            }
+        };
+    }
+
+    /**
+     * Allocates the sheet, one row of cells per row of the most square grid.
+     * Called by the loader once registration is complete.
+     */
+    BufferedImage allocate() {
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(names.size())));
+        int rows = Math.max(1, (names.size() + columns - 1) / columns);
+        sheet = new BufferedImage(columns * cellSize, rows * cellSize, BufferedImage.TYPE_INT_ARGB);
+        cells = Arrays.copyOf(cells, names.size());
+        return sheet;
+    }
+
+    int cellX(int index) {
+        return (index % (sheet.getWidth() / cellSize)) * cellSize;
+    }
+
+    int cellY(int index) {
+        return (index / (sheet.getWidth() / cellSize)) * cellSize;
+    }
+
+    void publish(int index) {
+        cells[index] = sheet.getSubimage(cellX(index), cellY(index), cellSize, cellSize);
+    }
+}
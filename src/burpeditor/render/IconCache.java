@@ -0,0 +1,195 @@
+package burpeditor.render;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The one place icons are scaled. Each source image gets a mip pyramid
+ * (successive halvings) built once when it is registered; a rendition for a
+ * given logical size and device scale is then made from the nearest level at
+ * least that large in a single bilinear step and cached. Requests that come
+ * out at the same device pixel size share one rendition. Renditions are kept
+ * in least-recently-used order and evicted once their pixels exceed the byte
+ * budget; pyramids stay, so an evicted rendition is cheap to rebuild.
+ * <p>
+ * Safe to use from any thread: the palette loader, the canvas and the export
+ * thread all draw from the same instance.
+ */
+public class IconCache {
+    public static final long DEFAULT_BUDGET_BYTES = 16L * 1024 * 1024;
+    private static final int MAX_PIXELS = 1024;
+
+    private final long budgetBytes;
+    private final Map<String, List<BufferedImage>> pyramids = new HashMap<>();
+    private final LinkedHashMap<Rendition, BufferedImage> renditions = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public IconCache() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    public IconCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Key under which an icon resource is registered: its file name without
+     * the extension, which is also the icon key diagram nodes refer to.
+     */
+    public static String keyOf(String resourceName) {
+        int dot = resourceName.lastIndexOf('.');
+        return dot > 0 ? resourceName.substring(0, dot) : resourceName;
+    }
+
+    /**
+     * Registers or replaces the source image for {@code key}, dropping any
+     * renditions made from a previous source.
+     */
+    public void put(String key, BufferedImage source) {
+        List<BufferedImage> pyramid = buildPyramid(source);
+        synchronized (this) {
+            pyramids.put(key, pyramid);
+            for (Iterator<Map.Entry<Rendition, BufferedImage>> it = renditions.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Rendition, BufferedImage> entry = it.next();
+                if (entry.getKey().key.equals(key)) {
+                    bytes -= bytesOf(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return pyramids.containsKey(key);
+    }
+
+    /**
+     * Returns {@code key} rendered {@code size} logical pixels square for a
+     * device that scales by {@code deviceScale}, or null if no source is
+     * registered. Callers draw the result into a {@code size}-square area.
+     * The image is shared and must not be modified.
+     */
+    public synchronized BufferedImage get(String key, int size, double deviceScale) {
+        List<BufferedImage> pyramid = pyramids.get(key);
+        if (pyramid == null) {
+            return null;
+        }
+        int pixels = Math.max(1, Math.min(MAX_PIXELS, (int) Math.round(size * deviceScale)));
+        Rendition rendition = new Rendition(key, pixels);
+        BufferedImage image = renditions.get(rendition);
+        if (image != null) {
+            hits++;
+            return image;
+        }
+        misses++;
+        image = scale(levelFor(pyramid, pixels), pixels, pixels);
+        renditions.put(rendition, image);
+        bytes += bytesOf(image);
+        evict();
+        return image;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getByteSize() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IconCache[" + pyramids.size() + " icons, " + renditions.size() + " renditions, "
+            + bytes / 1024 + " of " + budgetBytes / 1024 + " KB, " + hits + " hits, "
+            + misses + " misses, " + evictions + " evictions]";
+    }
+
+    private void evict() {
+        // Never evicts the entry just added, even if it alone exceeds the budget
+        Iterator<BufferedImage> it = renditions.values().iterator();
+        while (bytes > budgetBytes && renditions.size() > 1) {
+            bytes -= bytesOf(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static BufferedImage levelFor(List<BufferedImage> pyramid, int pixels) {
+        // Smallest level still at least as large as the target, so every step only shrinks by up to 2x
+        BufferedImage best = pyramid.get(0);
+        for (BufferedImage level : pyramid) {
+            if (level.getWidth() < pixels || level.getHeight() < pixels) {
+                break;
+            }
+            best = level;
+        }
+        return best;
+    }
+
+    private static List<BufferedImage> buildPyramid(BufferedImage source) {
+        List<BufferedImage> pyramid = new ArrayList<>();
+        BufferedImage level = source.getType() == BufferedImage.TYPE_INT_ARGB
+            ? source : scale(source, source.getWidth(), source.getHeight());
+        pyramid.add(level);
+        while (level.getWidth() > 1 && level.getHeight() > 1) {
+            level = scale(level, level.getWidth() / 2, level.getHeight() / 2);
+            pyramid.add(level);
+        }
+        return pyramid;
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = target.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return target;
+    }
+
+    private static long bytesOf(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    private static final class Rendition {
+        final String key;
+        final int pixels;
+
+        Rendition(String key, int pixels) {
+            this.key = key;
+            this.pixels = pixels;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Rendition)) {
+                return false;
+            }
+            Rendition other = (Rendition) o;
+            return pixels == other.pixels && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + pixels;
+        }
+    }
+}
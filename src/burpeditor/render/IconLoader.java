@@ -0,0 +1,112 @@
+package burpeditor.render;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Decodes icon resources on a small pool of daemon threads, registers them
+ * with the shared {@link IconCache} and copies each cache rendition into its
+ * {@link IconAtlas} cell. Cells are disjoint, so workers write the
+ * shared sheet without locking; each finished icon is then published on the
+ * EDT and announced to the caller, letting the UI come up with placeholders
+ * and fill in as decoding completes.
+ */
+public class IconLoader {
+    private final String resourceDir;
+    private final IconCache cache;
+    private final ExecutorService pool;
+
+    public IconLoader(String resourceDir, IconCache cache) {
+        this.resourceDir = resourceDir;
+        this.cache = cache;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Schematics icon loader " + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * Starts decoding every icon registered in {@code atlas}. Must be called on
+     * the EDT after registration; {@code loaded} is invoked on the EDT once per
+     * icon with its cell image, or with null if the resource is missing or
+     * unreadable.
+     */
+    public void load(IconAtlas atlas, BiConsumer<Integer, BufferedImage> loaded) {
+        BufferedImage sheet = atlas.allocate();
+        int cellSize = atlas.getCellSize();
+        for (int i = 0; i < atlas.size(); i++) {
+            int index = i;
+            String name = atlas.getName(i);
+            int x = atlas.cellX(i);
+            int y = atlas.cellY(i);
+            pool.execute(() -> {
+                boolean ok = false;
+                try {
+                    String key = IconCache.keyOf(name);
+                    if (!cache.contains(key)) {
+                        BufferedImage source = read(name);
+                        if (source != null) {
+                            cache.put(key, source);
+                        }
+                    }
+                    BufferedImage cell = cache.get(key, cellSize, 1.0);
+                    if (cell != null) {
+                        sheet.getRaster().setDataElements(x, y, cell.getRaster());
+                        ok = true;
+                    }
+                } catch (Exception e) {
+                    System.err.println("Could not load icon " + name + ": " + e.getMessage());
+                }
+                boolean success = ok;
+                SwingUtilities.invokeLater(() -> {
+                    if (success) {
+                        atlas.publish(index);
+                    }
+                    loaded.accept(index, atlas.getImage(index));
+                });
+            });
+        }
+    }
+
+    /**
+     * Decodes one icon resource on the calling thread unless the cache holds
+     * it already, e.g. for a headless export that needs its icons before it
+     * paints. Returns whether the icon is in the cache afterwards.
+     */
+    public boolean loadNow(String name) {
+        String key = IconCache.keyOf(name);
+        if (cache.contains(key)) {
+            return true;
+        }
+        try {
+            BufferedImage source = read(name);
+            if (source != null) {
+                cache.put(key, source);
+                return true;
+            }
+        } catch (Exception e) {
+            System.err.println("Could not load icon " + name + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private BufferedImage read(String name) throws Exception {
+        try (InputStream in = IconLoader.class.getResourceAsStream(resourceDir + name)) {
+            return in != null ? ImageIO.read(in) : null;
+        }
+    }
+}
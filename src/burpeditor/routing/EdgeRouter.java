@@ -0,0 +1,321 @@
+package burpeditor.routing;
+
+import burpeditor.model.DiagramListener;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Edge;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the routes of node-attached edges orthogonal and clear of other
+ * devices. Only edges whose geometry is affected by a change are rerouted:
+ * those attached to a moved node and those whose route a node now sits on.
+ * <p>
+ * The model is only touched on the EDT. There, each dirty edge is captured as
+ * a self-contained request (its endpoints and the nearby devices); the
+ * requests are routed in parallel on a background thread and the results are
+ * applied back on the EDT. At most one batch is in flight, and edges that
+ * changed again meanwhile are simply rerouted in the next batch, so a long
+ * drag costs one batch per frame the router can keep up with rather than one
+ * per mouse event. Until its route arrives an edge shows the model's elbow.
+ */
+public class EdgeRouter implements DiagramListener {
+    private static final int SEARCH_MARGIN = Node.SIZE * 2;
+    // Edges captured per batch, and the EDT time a flush may spend capturing them
+    private static final int MAX_BATCH = 256;
+    private static final long BATCH_NANOS = 10_000_000;
+
+    private final DiagramModel model;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Schematics router");
+        t.setDaemon(true);
+        return t;
+    });
+    private final BitSet dirty = new BitSet();
+    // Bumped whenever an edge is marked dirty, so late results for older geometry are dropped
+    private int[] versions = new int[64];
+    private boolean inFlight;
+    private boolean flushQueued;
+    private boolean applying;
+    private boolean paused;
+    private volatile Consumer<String> failures = message -> { };
+    private final AtomicBoolean failureReported = new AtomicBoolean();
+
+    public EdgeRouter(DiagramModel model) {
+        this.model = model;
+        model.addListener(this);
+    }
+
+    /**
+     * Sets where a failed routing batch is reported, on the router thread.
+     * Only the first failure is reported.
+     */
+    public void setFailureListener(Consumer<String> failures) {
+        this.failures = failures;
+    }
+
+    public void shutdown() {
+        model.removeListener(this);
+        executor.shutdownNow();
+    }
+
+    /**
+     * While paused, changes are not rerouted as they happen; resuming
+     * reroutes every attached edge once. For bulk moves such as an automatic
+     * layout, where routes computed midway would be thrown away.
+     */
+    public void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        if (!paused) {
+            markAttached();
+        }
+    }
+
+    /**
+     * Routes every attached edge in the calling thread and applies the
+     * results, e.g. before a headless export. Not for use with a live model
+     * on the EDT.
+     */
+    public static void routeAll(DiagramModel model) {
+        EdgeStore edges = model.getEdges();
+        List<Request> requests = new ArrayList<>();
+        edges.forEach(edge -> {
+            if (edges.isAttached(edge)) {
+                requests.add(request(model, edge, 0));
+            }
+        });
+        requests.parallelStream().forEach(Request::run);
+        for (Request request : requests) {
+            if (request.route != null) {
+                model.setRoute(request.edge, request.route);
+            }
+        }
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        if (!paused) {
+            markCrossing(node);
+        }
+    }
+
+    @Override
+    public void nodeMoved(Node node, int oldX, int oldY) {
+        // Edges attached to the node follow it and report edgeChanged
+        if (!paused) {
+            markCrossing(node);
+        }
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        if (!paused && model.getEdges().isAttached(edge)) {
+            markDirty(edge);
+        }
+    }
+
+    @Override
+    public void edgeChanged(int edge, Rectangle oldBounds) {
+        if (!applying && !paused && model.getEdges().isAttached(edge)) {
+            markDirty(edge);
+        }
+    }
+
+    @Override
+    public void edgeRemoved(Edge edge) {
+        dirty.clear(edge.getHandle());
+        bump(edge.getHandle());
+    }
+
+    @Override
+    public void diagramCleared() {
+        dirty.clear();
+        Arrays.fill(versions, 0);
+    }
+
+    @Override
+    public void diagramReplaced() {
+        diagramCleared();
+        if (!paused) {
+            markAttached();
+        }
+    }
+
+    private void markAttached() {
+        EdgeStore edges = model.getEdges();
+        edges.forEach(edge -> {
+            if (edges.isAttached(edge)) {
+                markDirty(edge);
+            }
+        });
+    }
+
+    /**
+     * Marks attached edges whose route passes through a node's new bounds.
+     */
+    private void markCrossing(Node node) {
+        EdgeStore edges = model.getEdges();
+        Rectangle bounds = node.getBounds();
+        model.edgesIn(bounds, edge -> {
+            if (edges.isAttached(edge) && edges.source(edge) != node.getId() && edges.target(edge) != node.getId()
+                    && edges.distanceSq(edge, bounds.getCenterX(), bounds.getCenterY()) < Node.SIZE * Node.SIZE / 2.0) {
+                markDirty(edge);
+            }
+        });
+    }
+
+    private void markDirty(int edge) {
+        dirty.set(edge);
+        bump(edge);
+        if (!inFlight && !flushQueued) {
+            flushQueued = true;
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    private void bump(int edge) {
+        if (edge >= versions.length) {
+            versions = Arrays.copyOf(versions, Math.max(edge + 1, versions.length * 2));
+        }
+        versions[edge]++;
+    }
+
+    /**
+     * Captures the dirty edges as requests and hands them to the router
+     * thread. EDT only.
+     */
+    private void flush() {
+        flushQueued = false;
+        if (inFlight || dirty.isEmpty()) {
+            return;
+        }
+        EdgeStore edges = model.getEdges();
+        List<Request> requests = new ArrayList<>();
+        long deadline = System.nanoTime() + BATCH_NANOS;
+        int edge = dirty.nextSetBit(0);
+        for (; edge >= 0 && requests.size() < MAX_BATCH && System.nanoTime() < deadline;
+             edge = dirty.nextSetBit(edge + 1)) {
+            if (edges.isLive(edge) && edges.isAttached(edge)) {
+                requests.add(request(model, edge, versions[edge]));
+            }
+        }
+        // The rest follows in the next batch
+        dirty.clear(0, edge >= 0 ? edge : dirty.length());
+        if (requests.isEmpty()) {
+            return;
+        }
+        inFlight = true;
+        executor.execute(() -> {
+            List<Request> routed = Collections.emptyList();
+            try {
+                requests.parallelStream().forEach(Request::run);
+                routed = requests;
+            } catch (RuntimeException e) {
+                // Other requests may still be running, so none of this batch is applied
+                if (failureReported.compareAndSet(false, true)) {
+                    failures.accept("Line routing failed, affected lines keep their elbow: " + e);
+                }
+            } finally {
+                // Always, or inFlight would stay set and routing stop for good
+                List<Request> results = routed;
+                SwingUtilities.invokeLater(() -> apply(results));
+            }
+        });
+    }
+
+    private void apply(List<Request> requests) {
+        inFlight = false;
+        applying = true;
+        try {
+            for (Request request : requests) {
+                // setRoute also rejects routes whose ends no longer match the edge
+                if (request.route != null && request.edge < versions.length
+                        && versions[request.edge] == request.version) {
+                    model.setRoute(request.edge, request.route);
+                }
+            }
+        } finally {
+            applying = false;
+        }
+        flush();
+    }
+
+    private static Request request(DiagramModel model, int edge, int version) {
+        EdgeStore edges = model.getEdges();
+        int x1 = edges.x1(edge);
+        int y1 = edges.y1(edge);
+        int x2 = edges.x2(edge);
+        int y2 = edges.y2(edge);
+        Rectangle area = new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+        area.grow(SEARCH_MARGIN, SEARCH_MARGIN);
+        int source = edges.source(edge);
+        int target = edges.target(edge);
+        // Keep the devices closest to the straight line between the ends, farthest on top
+        PriorityQueue<double[]> nearest = new PriorityQueue<>(OrthogonalRouter.MAX_OBSTACLES + 1,
+                (a, b) -> Double.compare(b[0], a[0]));
+        model.nodesIn(area, node -> {
+            if (node.getId() == source || node.getId() == target) {
+                return;
+            }
+            double d = Line2D.ptSegDistSq(x1, y1, x2, y2,
+                    node.getX() + Node.SIZE / 2.0, node.getY() + Node.SIZE / 2.0);
+            if (nearest.size() < OrthogonalRouter.MAX_OBSTACLES) {
+                nearest.add(new double[] {d, node.getX(), node.getY()});
+            } else if (d < nearest.peek()[0]) {
+                nearest.poll();
+                nearest.add(new double[] {d, node.getX(), node.getY()});
+            }
+        });
+        int[] obstacles = new int[nearest.size() * 2];
+        int count = 0;
+        // Closest first, as the router drops the excess from the end
+        while (!nearest.isEmpty()) {
+            double[] node = nearest.poll();
+            obstacles[obstacles.length - 2 - count] = (int) node[1];
+            obstacles[obstacles.length - 1 - count] = (int) node[2];
+            count += 2;
+        }
+        return new Request(edge, version, x1, y1, x2, y2, obstacles);
+    }
+
+    private static final class Request {
+        final int edge;
+        final int version;
+        final int x1;
+        final int y1;
+        final int x2;
+        final int y2;
+        final int[] obstacles;
+        volatile int[] route;
+
+        Request(int edge, int version, int x1, int y1, int x2, int y2, int[] obstacles) {
+            this.edge = edge;
+            this.version = version;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.obstacles = obstacles;
+        }
+
+        void run() {
+            route = OrthogonalRouter.route(x1, y1, x2, y2, obstacles, Node.SIZE);
+        }
+    }
+}
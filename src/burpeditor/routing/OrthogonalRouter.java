@@ -0,0 +1,279 @@
+package burpeditor.routing;
+
+import java.util.Arrays;
+
+/**
+ * Finds an orthogonal path between two points around square obstacles.
+ * <p>
+ * The search runs on a sparse grid whose lines are the endpoints' coordinates
+ * plus the padded sides of every obstacle, which is enough to contain a
+ * shortest orthogonal path with the fewest bends. A* walks the grid with
+ * the orientation of the last segment as part of the state, so each bend
+ * costs {@link #BEND_PENALTY} on top of the path length and the result
+ * prefers few, long segments. Pure function of its inputs; safe to call from
+ * any thread.
+ */
+final class OrthogonalRouter {
+    static final int PADDING = 10;
+    static final int BEND_PENALTY = 40;
+    /** Obstacles beyond this many are ignored (callers pass the most relevant first); keeps states within 18 bits. */
+    static final int MAX_OBSTACLES = 120;
+
+    private static final int HORIZONTAL = 0;
+    private static final int VERTICAL = 1;
+
+    private OrthogonalRouter() {
+    }
+
+    /**
+     * @param obstacles x, y of the top-left corner of each obstacle
+     * @param size      side length of the obstacles
+     * @return the path as x, y pairs from the start to the end, or null if
+     *         the obstacles leave no way through or the ends coincide
+     */
+    static int[] route(int x1, int y1, int x2, int y2, int[] obstacles, int size) {
+        // Obstacles that swallow an endpoint cannot be avoided, so they are ignored
+        int count = 0;
+        int[] rects = new int[obstacles.length * 2];
+        for (int i = 0; i < obstacles.length && count < MAX_OBSTACLES; i += 2) {
+            int left = obstacles[i] - PADDING;
+            int top = obstacles[i + 1] - PADDING;
+            int right = obstacles[i] + size + PADDING;
+            int bottom = obstacles[i + 1] + size + PADDING;
+            if (inside(x1, y1, left, top, right, bottom) || inside(x2, y2, left, top, right, bottom)) {
+                continue;
+            }
+            rects[count * 4] = left;
+            rects[count * 4 + 1] = top;
+            rects[count * 4 + 2] = right;
+            rects[count * 4 + 3] = bottom;
+            count++;
+        }
+
+        int[] xs = new int[count * 2 + 2];
+        int[] ys = new int[count * 2 + 2];
+        xs[0] = x1;
+        xs[1] = x2;
+        ys[0] = y1;
+        ys[1] = y2;
+        for (int i = 0; i < count; i++) {
+            xs[i * 2 + 2] = rects[i * 4];
+            xs[i * 2 + 3] = rects[i * 4 + 2];
+            ys[i * 2 + 2] = rects[i * 4 + 1];
+            ys[i * 2 + 3] = rects[i * 4 + 3];
+        }
+        xs = distinctSorted(xs);
+        ys = distinctSorted(ys);
+        int nx = xs.length;
+        int ny = ys.length;
+
+        // blockedH[j * nx + i]: the segment from (xs[i], ys[j]) to (xs[i + 1], ys[j]) crosses an obstacle
+        boolean[] blockedH = new boolean[nx * ny];
+        boolean[] blockedV = new boolean[nx * ny];
+        for (int r = 0; r < count; r++) {
+            int left = Arrays.binarySearch(xs, rects[r * 4]);
+            int top = Arrays.binarySearch(ys, rects[r * 4 + 1]);
+            int right = Arrays.binarySearch(xs, rects[r * 4 + 2]);
+            int bottom = Arrays.binarySearch(ys, rects[r * 4 + 3]);
+            for (int j = top + 1; j < bottom; j++) {
+                for (int i = left; i < right; i++) {
+                    blockedH[j * nx + i] = true;
+                }
+            }
+            for (int i = left + 1; i < right; i++) {
+                for (int j = top; j < bottom; j++) {
+                    blockedV[j * nx + i] = true;
+                }
+            }
+        }
+
+        int startX = Arrays.binarySearch(xs, x1);
+        int startY = Arrays.binarySearch(ys, y1);
+        int goalX = Arrays.binarySearch(xs, x2);
+        int goalY = Arrays.binarySearch(ys, y2);
+        int goal = goalY * nx + goalX;
+
+        int states = nx * ny * 2;
+        int[] cost = new int[states];
+        int[] parent = new int[states];
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        LongHeap open = new LongHeap();
+        for (int orientation = HORIZONTAL; orientation <= VERTICAL; orientation++) {
+            int state = (startY * nx + startX) * 2 + orientation;
+            cost[state] = 0;
+            parent[state] = -1;
+            open.push(0, heuristic(x1, y1, orientation, x2, y2), state);
+        }
+
+        int found = -1;
+        while (!open.isEmpty()) {
+            long top = open.pop();
+            int state = LongHeap.state(top);
+            int cell = state >> 1;
+            int orientation = state & 1;
+            int i = cell % nx;
+            int j = cell / nx;
+            if (LongHeap.priority(top) - heuristic(xs[i], ys[j], orientation, x2, y2) > cost[state]) {
+                // Superseded entry
+                continue;
+            }
+            if (cell == goal) {
+                found = state;
+                break;
+            }
+            int base = cost[state];
+            // Right, left, down, up
+            if (i + 1 < nx && !blockedH[j * nx + i]) {
+                relax(open, cost, parent, state, base + xs[i + 1] - xs[i] + bend(orientation, HORIZONTAL),
+                        cell + 1, HORIZONTAL, xs[i + 1], ys[j], x2, y2);
+            }
+            if (i > 0 && !blockedH[j * nx + i - 1]) {
+                relax(open, cost, parent, state, base + xs[i] - xs[i - 1] + bend(orientation, HORIZONTAL),
+                        cell - 1, HORIZONTAL, xs[i - 1], ys[j], x2, y2);
+            }
+            if (j + 1 < ny && !blockedV[j * nx + i]) {
+                relax(open, cost, parent, state, base + ys[j + 1] - ys[j] + bend(orientation, VERTICAL),
+                        cell + nx, VERTICAL, xs[i], ys[j + 1], x2, y2);
+            }
+            if (j > 0 && !blockedV[(j - 1) * nx + i]) {
+                relax(open, cost, parent, state, base + ys[j] - ys[j - 1] + bend(orientation, VERTICAL),
+                        cell - nx, VERTICAL, xs[i], ys[j - 1], x2, y2);
+            }
+        }
+        if (found < 0 || found >> 1 == (startY * nx + startX)) {
+            // Enclosed, or both ends at the same point
+            return null;
+        }
+
+        // Walk back, keeping only the corners
+        int[] path = new int[16];
+        int length = 0;
+        int previousOrientation = -1;
+        for (int state = found; state >= 0; state = parent[state]) {
+            int cell = state >> 1;
+            int orientation = state & 1;
+            if (orientation != previousOrientation || parent[state] < 0) {
+                if (length + 2 > path.length) {
+                    path = Arrays.copyOf(path, path.length * 2);
+                }
+                path[length++] = xs[cell % nx];
+                path[length++] = ys[cell / nx];
+            }
+            previousOrientation = orientation;
+        }
+        int[] route = new int[length];
+        for (int k = 0; k < length; k += 2) {
+            route[k] = path[length - 2 - k];
+            route[k + 1] = path[length - 1 - k];
+        }
+        return route;
+    }
+
+    private static void relax(LongHeap open, int[] cost, int[] parent, int from, int newCost,
+                              int cell, int orientation, int x, int y, int goalX, int goalY) {
+        int state = cell * 2 + orientation;
+        if (newCost < cost[state]) {
+            cost[state] = newCost;
+            parent[state] = from;
+            open.push(newCost, heuristic(x, y, orientation, goalX, goalY), state);
+        }
+    }
+
+    private static int bend(int from, int to) {
+        return from == to ? 0 : BEND_PENALTY;
+    }
+
+    /**
+     * Remaining length plus the bend that is unavoidable from the current
+     * orientation; never more than the true remaining cost.
+     */
+    private static int heuristic(int x, int y, int orientation, int goalX, int goalY) {
+        int dx = Math.abs(goalX - x);
+        int dy = Math.abs(goalY - y);
+        boolean bend = dx != 0 && dy != 0
+                || dx != 0 && orientation == VERTICAL
+                || dy != 0 && orientation == HORIZONTAL;
+        return dx + dy + (bend ? BEND_PENALTY : 0);
+    }
+
+    private static boolean inside(int x, int y, int left, int top, int right, int bottom) {
+        return x > left && x < right && y > top && y < bottom;
+    }
+
+    private static int[] distinctSorted(int[] values) {
+        Arrays.sort(values);
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[n - 1]) {
+                values[n++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Binary min-heap of search states packed into longs: f = cost + estimate
+     * in the high half, then the estimate (so ties go to the state closest to
+     * the goal, which keeps A* from fanning out over equally long staircases),
+     * then the state index.
+     */
+    private static final class LongHeap {
+        private static final int STATE_BITS = 18;
+        private static final int ESTIMATE_BITS = 13;
+
+        private long[] heap = new long[256];
+        private int size;
+
+        static int priority(long value) {
+            return (int) (value >>> 32);
+        }
+
+        static int state(long value) {
+            return (int) (value & ((1 << STATE_BITS) - 1));
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int cost, int estimate, int state) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            long tie = Math.min(estimate, (1 << ESTIMATE_BITS) - 1);
+            long value = ((long) (cost + estimate) << 32) | (tie << STATE_BITS) | state;
+            int i = size++;
+            while (i > 0) {
+                int up = (i - 1) >> 1;
+                if (heap[up] <= value) {
+                    break;
+                }
+                heap[i] = heap[up];
+                i = up;
+            }
+            heap[i] = value;
+        }
+
+        long pop() {
+            long result = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = i * 2 + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return result;
+        }
+    }
+}
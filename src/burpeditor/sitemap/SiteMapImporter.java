@@ -0,0 +1,318 @@
+package burpeditor.sitemap;
+
+import burp.IHttpRequestResponse;
+import burp.IHttpService;
+import burpeditor.export.ExportProgress;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Node;
+import javax.swing.SwingUtilities;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns Burp's site map into devices: one per host, one per service (protocol
+ * and port) below its host, and one per endpoint below its service. Endpoints
+ * are the first path segment, e.g. {@code /api}, so a site map with hundreds
+ * of thousands of requests still gives a readable diagram.
+ * <p>
+ * Entries are read in chunks on the calling background thread. Only the
+ * service and the request line are looked at, and each entry is dropped from
+ * the array once read, so memory stays bounded by the number of devices
+ * rather than the size of the site map. Each chunk's new devices are added on
+ * the EDT in one event, and the thread waits for that before reading on.
+ * Each chunk is its own model update, so the diagram stays editable between
+ * chunks; the updates share this importer as their step, which the undo
+ * history merges into one step unless the user changed something in between.
+ */
+public final class SiteMapImporter {
+    private static final int CHUNK = 1000;
+    // Devices one import may add, and endpoints per service; the rest are counted as omitted
+    private static final int MAX_DEVICES = 5000;
+    private static final int MAX_ENDPOINTS = 40;
+    private static final int COLUMNS = 40;
+    private static final int MARGIN = 20;
+    private static final int SPACING = Node.SIZE * 2;
+    // How long to wait before retrying a chunk while the user is dragging
+    private static final int RETRY_MILLIS = 50;
+
+    private enum Kind {
+        HOST("cloud"),
+        SERVICE("Server"),
+        ENDPOINT("browser");
+
+        final String iconKey;
+
+        Kind(String iconKey) {
+            this.iconKey = iconKey;
+        }
+    }
+
+    public static final class Result {
+        public final int requests;
+        public final int hosts;
+        public final int services;
+        public final int endpoints;
+        public final int omitted;
+
+        Result(int requests, int hosts, int services, int endpoints, int omitted) {
+            this.requests = requests;
+            this.hosts = hosts;
+            this.services = services;
+            this.endpoints = endpoints;
+            this.omitted = omitted;
+        }
+
+        public int devices() {
+            return hosts + services + endpoints;
+        }
+    }
+
+    private final DiagramModel model;
+    private final SiteTopology topology;
+
+    // Import thread only
+    private final Set<String> seen = new HashSet<>();
+    private final Map<String, Integer> endpointCounts = new HashMap<>();
+    private final List<Item> pending = new ArrayList<>();
+    private int omitted;
+
+    // EDT only
+    private final int top;
+    private int placed;
+    private int hosts;
+    private int services;
+    private int endpoints;
+    private boolean closed;
+
+    /**
+     * Creates an importer that places new devices in rows below the current
+     * diagram. Call on the EDT.
+     */
+    public SiteMapImporter(DiagramModel model, SiteTopology topology) {
+        this.model = model;
+        this.topology = topology;
+        top = model.getNodeCount() == 0 ? MARGIN : model.getExtent().height + SPACING;
+    }
+
+    /**
+     * Imports the given site map entries, clearing the array as it goes.
+     * Stops with a {@code CancellationException} when cancelled; devices
+     * added until then stay.
+     */
+    public Result run(IHttpRequestResponse[] siteMap, ExportProgress progress)
+            throws InterruptedException, InvocationTargetException {
+        int total = siteMap.length;
+        for (int start = 0; start < total; start += CHUNK) {
+            progress.checkCancelled();
+            int end = Math.min(total, start + CHUNK);
+            for (int i = start; i < end; i++) {
+                IHttpRequestResponse entry = siteMap[i];
+                // Let Burp's wrapper and the request copy go as soon as they are read
+                siteMap[i] = null;
+                if (entry != null) {
+                    read(entry);
+                }
+            }
+            flush();
+            progress.update((int) ((long) end * 100 / total),
+                    String.format("Imported %,d of %,d requests", end, total));
+        }
+        return new Result(total, hosts, services, endpoints, omitted);
+    }
+
+    /**
+     * Stops applying chunks that arrive after the import was ended, e.g. by
+     * Cancel. Call on the EDT.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    private void read(IHttpRequestResponse entry) {
+        IHttpService service = entry.getHttpService();
+        if (service == null || service.getHost() == null || service.getProtocol() == null) {
+            omitted++;
+            return;
+        }
+        String host = service.getHost();
+        String serviceKey = SiteTopology.serviceKey(service.getProtocol(), host, service.getPort());
+        String path = endpoint(entry.getRequest());
+        String endpointKey = path == null ? null : SiteTopology.endpointKey(serviceKey, path);
+        if (endpointKey != null && seen.contains(endpointKey)) {
+            // The common case: another request to a known endpoint
+            return;
+        }
+        String hostKey = SiteTopology.hostKey(host);
+        if (!offer(Kind.HOST, hostKey, null, host)
+                || !offer(Kind.SERVICE, serviceKey, hostKey, service.getProtocol() + ":" + service.getPort())
+                || path == null) {
+            omitted++;
+            return;
+        }
+        int count = endpointCounts.getOrDefault(serviceKey, 0);
+        if (count >= MAX_ENDPOINTS || !offer(Kind.ENDPOINT, endpointKey, serviceKey, path)) {
+            omitted++;
+            return;
+        }
+        endpointCounts.put(serviceKey, count + 1);
+    }
+
+    /**
+     * Queues a device unless it was seen already, and returns whether it
+     * exists or is queued.
+     */
+    private boolean offer(Kind kind, String key, String parentKey, String label) {
+        if (seen.contains(key)) {
+            return true;
+        }
+        if (seen.size() >= MAX_DEVICES) {
+            return false;
+        }
+        seen.add(key);
+        pending.add(new Item(kind, key, parentKey, label));
+        return true;
+    }
+
+    private void flush() throws InterruptedException, InvocationTargetException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Waiting here keeps at most one chunk in flight
+        boolean[] applied = new boolean[1];
+        SwingUtilities.invokeAndWait(() -> applied[0] = apply(pending));
+        while (!applied[0]) {
+            Thread.sleep(RETRY_MILLIS);
+            SwingUtilities.invokeAndWait(() -> applied[0] = apply(pending));
+        }
+        pending.clear();
+    }
+
+    /**
+     * Adds a chunk's devices as one model update, or returns false without
+     * adding any while another update such as a drag is open, since the
+     * devices would become part of it.
+     */
+    private boolean apply(List<Item> items) {
+        if (closed) {
+            return true;
+        }
+        if (model.isUpdating()) {
+            return false;
+        }
+        model.beginUpdate("Generate from Site Map", this);
+        try {
+            addDevices(items);
+        } finally {
+            model.endUpdate();
+        }
+        return true;
+    }
+
+    private void addDevices(List<Item> items) {
+        for (Item item : items) {
+            if (topology.get(item.key) != null) {
+                // Generated by an earlier import
+                continue;
+            }
+            Node parent = item.parentKey == null ? null : topology.get(item.parentKey);
+            Node node = model.addNode(item.kind.iconKey,
+                    MARGIN + placed % COLUMNS * SPACING, top + placed / COLUMNS * SPACING);
+            placed++;
+            topology.put(item.key, item.label, node);
+            if (parent != null) {
+                model.connect(parent, node);
+            }
+            switch (item.kind) {
+                case HOST:
+                    hosts++;
+                    break;
+                case SERVICE:
+                    services++;
+                    break;
+                default:
+                    endpoints++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the first segment of the request target, e.g. {@code /api} for
+     * {@code GET /api/users?id=1 HTTP/1.1}, or null when the request has no
+     * path. Reads the request line only.
+     */
+    static String endpoint(byte[] request) {
+        if (request == null) {
+            return null;
+        }
+        int n = request.length;
+        int start = 0;
+        while (start < n && request[start] != ' ') {
+            if (request[start] == '\r' || request[start] == '\n') {
+                return null;
+            }
+            start++;
+        }
+        start++;
+        int end = start;
+        while (end < n && request[end] != ' ' && request[end] != '?' && request[end] != '#'
+                && request[end] != '\r' && request[end] != '\n') {
+            end++;
+        }
+        if (end - start > 3 && request[start] != '/') {
+            // Absolute form, as sent to a proxy: skip the scheme and authority
+            int authority = indexOf(request, start, end, "://");
+            if (authority < 0) {
+                return null;
+            }
+            start = authority + 3;
+            while (start < end && request[start] != '/') {
+                start++;
+            }
+            if (start == end) {
+                return "/";
+            }
+        }
+        if (start >= end || request[start] != '/') {
+            return null;
+        }
+        int segment = start + 1;
+        while (segment < end && request[segment] != '/') {
+            segment++;
+        }
+        return new String(request, start, segment - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, String text) {
+        outer:
+        for (int i = from; i <= to - text.length(); i++) {
+            for (int k = 0; k < text.length(); k++) {
+                if (bytes[i + k] != text.charAt(k)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static final class Item {
+        final Kind kind;
+        final String key;
+        final String parentKey;
+        final String label;
+
+        Item(Kind kind, String key, String parentKey, String label) {
+            this.kind = kind;
+            this.key = key;
+            this.parentKey = parentKey;
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package burpeditor.sitemap;
+
+import burpeditor.io.SiteEntries;
+import burpeditor.model.DiagramListener;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.Node;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers which devices stand for which hosts, services and endpoints of
+ * the target, as generated from Burp's site map, so a later import extends
+ * the existing devices instead of duplicating them. The mapping is saved with
+ * the project through {@link #getEntries()} and {@link #setEntries(SiteEntries)},
+ * and each new entry is reported to the {@link MappingListener} so autosave
+ * can record it. EDT only.
+ */
+public class SiteTopology implements DiagramListener {
+    /**
+     * Receives each device as it is mapped, including devices brought back
+     * by undo.
+     */
+    public interface MappingListener {
+        void nodeMapped(Node node, String key, String label);
+    }
+
+    private final DiagramModel model;
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private MappingListener listener = (node, key, label) -> { };
+
+    public SiteTopology(DiagramModel model) {
+        this.model = model;
+        model.addListener(this);
+    }
+
+    public void setMappingListener(MappingListener listener) {
+        this.listener = listener;
+    }
+
+    static String hostKey(String host) {
+        return "host:" + host.toLowerCase(Locale.ROOT);
+    }
+
+    static String serviceKey(String protocol, String host, int port) {
+        return "service:" + protocol.toLowerCase(Locale.ROOT) + "://" + host.toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    static String endpointKey(String serviceKey, String path) {
+        return serviceKey + path;
+    }
+
+    /**
+     * Returns the device generated for a host name, or null.
+     */
+    public Node getHost(String host) {
+        return nodes.get(hostKey(host));
+    }
+
+    /**
+     * Returns the device generated for a service of a host, or null.
+     */
+    public Node getService(String protocol, String host, int port) {
+        return nodes.get(serviceKey(protocol, host, port));
+    }
+
+    /**
+     * Returns what a generated device stands for, e.g. a host name or a path,
+     * or null for devices placed by hand.
+     */
+    public String getLabel(Node node) {
+        Entry entry = entries.get(node.getId());
+        return entry != null && nodes.get(entry.key) == node ? entry.label : null;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the mapping of the devices currently in the diagram.
+     */
+    public SiteEntries getEntries() {
+        int[] ids = new int[nodes.size()];
+        String[] keys = new String[ids.length];
+        String[] labels = new String[ids.length];
+        int i = 0;
+        for (Node node : nodes.values()) {
+            Entry entry = entries.get(node.getId());
+            ids[i] = node.getId();
+            keys[i] = entry.key;
+            labels[i] = entry.label;
+            i++;
+        }
+        return new SiteEntries(ids, keys, labels);
+    }
+
+    /**
+     * Restores a saved mapping after the diagram it belongs to was loaded.
+     * Entries for devices that no longer exist are ignored.
+     */
+    public void setEntries(SiteEntries saved) {
+        for (int i = 0; i < saved.size(); i++) {
+            Node node = model.getNode(saved.getNodeId(i));
+            if (node != null) {
+                put(saved.getKey(i), saved.getLabel(i), node);
+            }
+        }
+    }
+
+    Node get(String key) {
+        return nodes.get(key);
+    }
+
+    void put(String key, String label, Node node) {
+        nodes.put(key, node);
+        entries.put(node.getId(), new Entry(key, label));
+        listener.nodeMapped(node, key, label);
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        // Undo and redo bring removed devices back under their old id
+        Entry entry = entries.get(node.getId());
+        if (entry != null && nodes.putIfAbsent(entry.key, node) == null) {
+            listener.nodeMapped(node, entry.key, entry.label);
+        }
+    }
+
+    @Override
+    public void nodeRemoved(Node node) {
+        Entry entry = entries.get(node.getId());
+        if (entry != null) {
+            nodes.remove(entry.key, node);
+        }
+    }
+
+    @Override
+    public void diagramCleared() {
+        nodes.clear();
+        entries.clear();
+    }
+
+    @Override
+    public void diagramReplaced() {
+        diagramCleared();
+    }
+
+    private static final class Entry {
+        final String key;
+        final String label;
+
+        Entry(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+    }
+}
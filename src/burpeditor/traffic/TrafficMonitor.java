@@ -0,0 +1,268 @@
+package burpeditor.traffic;
+
+import burp.IHttpListener;
+import burp.IHttpRequestResponse;
+import burp.IHttpService;
+import burpeditor.model.DiagramModel;
+import burpeditor.model.EdgeStore;
+import burpeditor.model.Node;
+import burpeditor.render.DiagramRenderer;
+import burpeditor.sitemap.SiteTopology;
+import javax.swing.Timer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shows live traffic on the diagram. Burp calls {@link #processHttpMessage}
+ * on its tool threads for every request and response; those only bump
+ * striped counters found through lock-free lookups, so they never contend
+ * with each other or with the UI. Once a second the EDT samples the counters
+ * and gives each line at a host generated from the site map (see
+ * {@link SiteTopology}) a traffic level: a line to one of the host's services
+ * carries that service's traffic, any other line at the host all of it.
+ * Responses with a 4xx or 5xx status, or none at all, count as errors.
+ */
+public class TrafficMonitor implements IHttpListener {
+    private static final int SAMPLE_MILLIS = 1000;
+    // Hosts tracked at most; traffic to further hosts is ignored
+    private static final int MAX_HOSTS = 4096;
+
+    private final ConcurrentHashMap<String, HostTraffic> hosts = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+
+    // EDT only
+    private final DiagramModel model;
+    private final SiteTopology topology;
+    private final DiagramRenderer renderer;
+    private final Runnable repaint;
+    private final Timer timer;
+    private Map<Integer, double[]> edgeTraffic = new HashMap<>();
+    private byte[] levels;
+    private long lastSample;
+
+    /**
+     * @param repaint called on the EDT when lines need repainting
+     */
+    public TrafficMonitor(DiagramModel model, SiteTopology topology, DiagramRenderer renderer, Runnable repaint) {
+        this.model = model;
+        this.topology = topology;
+        this.renderer = renderer;
+        this.repaint = repaint;
+        timer = new Timer(SAMPLE_MILLIS, e -> sample());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops counting and sampling; stopping removes the overlay.
+     * EDT only.
+     */
+    public void setEnabled(boolean on) {
+        if (on == enabled) {
+            return;
+        }
+        enabled = on;
+        if (on) {
+            // Rates start from now, not from what was counted the last time
+            for (HostTraffic host : hosts.values()) {
+                for (ServiceTraffic service : host.services) {
+                    service.sample();
+                }
+            }
+            lastSample = System.nanoTime();
+            timer.start();
+        } else {
+            timer.stop();
+            edgeTraffic.clear();
+            levels = null;
+            renderer.setTraffic(null);
+            repaint.run();
+        }
+    }
+
+    public void shutdown() {
+        enabled = false;
+        timer.stop();
+    }
+
+    @Override
+    public void processHttpMessage(int toolFlag, boolean messageIsRequest, IHttpRequestResponse messageInfo) {
+        if (!enabled) {
+            return;
+        }
+        IHttpService service = messageInfo.getHttpService();
+        HostTraffic host = hosts.get(service.getHost());
+        if (host == null) {
+            if (hosts.size() >= MAX_HOSTS) {
+                return;
+            }
+            host = hosts.computeIfAbsent(service.getHost(), HostTraffic::new);
+        }
+        ServiceTraffic counters = host.service(service.getProtocol(), service.getPort());
+        if (messageIsRequest) {
+            counters.requests.increment();
+        } else if (isError(messageInfo.getResponse())) {
+            counters.errors.increment();
+        }
+    }
+
+    /**
+     * Returns the tooltip for a line with traffic, or null.
+     */
+    public String describe(int edge) {
+        double[] traffic = edgeTraffic.get(edge);
+        if (traffic == null) {
+            return null;
+        }
+        return String.format("%.1f requests/s, %.1f errors/s", traffic[0], traffic[1]);
+    }
+
+    static boolean isError(byte[] response) {
+        if (response == null) {
+            return true;
+        }
+        // Status line: "HTTP/1.1 404 Not Found"
+        int space = 0;
+        while (space < response.length && response[space] != ' ') {
+            space++;
+        }
+        return space + 1 < response.length && response[space + 1] >= '4';
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastSample) / 1e9);
+        lastSample = now;
+        Map<Integer, double[]> traffic = new HashMap<>();
+        for (HostTraffic host : hosts.values()) {
+            ServiceTraffic[] services = host.services;
+            long requests = 0;
+            long errors = 0;
+            for (ServiceTraffic service : services) {
+                service.sample();
+                requests += service.requests();
+                errors += service.errors();
+            }
+            Node hostNode = requests + errors == 0 ? null : topology.getHost(host.name);
+            if (hostNode == null) {
+                continue;
+            }
+            EdgeStore edges = model.getEdges();
+            long hostRequests = requests;
+            long hostErrors = errors;
+            model.edgesAttachedTo(hostNode, edge -> {
+                int other = edges.source(edge) == hostNode.getId() ? edges.target(edge) : edges.source(edge);
+                long edgeRequests = hostRequests;
+                long edgeErrors = hostErrors;
+                for (ServiceTraffic service : services) {
+                    Node serviceNode = topology.getService(service.protocol, host.name, service.port);
+                    if (serviceNode != null && serviceNode.getId() == other) {
+                        edgeRequests = service.requests();
+                        edgeErrors = service.errors();
+                        break;
+                    }
+                }
+                double[] sum = traffic.computeIfAbsent(edge, e -> new double[2]);
+                sum[0] += edgeRequests / seconds;
+                sum[1] += edgeErrors / seconds;
+            });
+        }
+        edgeTraffic = traffic;
+
+        int size = 0;
+        for (int edge : traffic.keySet()) {
+            size = Math.max(size, edge + 1);
+        }
+        byte[] next = new byte[size];
+        for (Map.Entry<Integer, double[]> entry : traffic.entrySet()) {
+            next[entry.getKey()] = level(entry.getValue()[0], entry.getValue()[1]);
+        }
+        if (!Arrays.equals(next, levels == null ? new byte[0] : levels)) {
+            levels = next;
+            renderer.setTraffic(next);
+            repaint.run();
+        }
+    }
+
+    /**
+     * Width steps per decade of requests per second from below one to 100
+     * and more; colour by whether none, some or most responses failed.
+     */
+    private static byte level(double requests, double errors) {
+        if (requests <= 0 && errors <= 0) {
+            return 0;
+        }
+        int rate = requests < 1 ? 0 : requests < 10 ? 1 : requests < 100 ? 2 : 3;
+        int failed = errors <= 0 ? 0 : errors * 2 < requests ? 1 : 2;
+        return DiagramRenderer.trafficLevel(rate, failed);
+    }
+
+    private static final class HostTraffic {
+        final String name;
+        // Copy on write: services of one host are few and rarely added
+        volatile ServiceTraffic[] services = new ServiceTraffic[0];
+
+        HostTraffic(String name) {
+            this.name = name;
+        }
+
+        ServiceTraffic service(String protocol, int port) {
+            for (ServiceTraffic service : services) {
+                if (service.port == port) {
+                    return service;
+                }
+            }
+            synchronized (this) {
+                for (ServiceTraffic service : services) {
+                    if (service.port == port) {
+                        return service;
+                    }
+                }
+                ServiceTraffic added = new ServiceTraffic(protocol, port);
+                ServiceTraffic[] grown = Arrays.copyOf(services, services.length + 1);
+                grown[services.length] = added;
+                services = grown;
+                return added;
+            }
+        }
+    }
+
+    private static final class ServiceTraffic {
+        final String protocol;
+        final int port;
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        // EDT only: totals at the previous sample and the change since the one before
+        private long lastRequests;
+        private long lastErrors;
+        private long requestDelta;
+        private long errorDelta;
+
+        ServiceTraffic(String protocol, int port) {
+            this.protocol = protocol;
+            this.port = port;
+        }
+
+        void sample() {
+            long totalRequests = requests.sum();
+            long totalErrors = errors.sum();
+            requestDelta = totalRequests - lastRequests;
+            errorDelta = totalErrors - lastErrors;
+            lastRequests = totalRequests;
+            lastErrors = totalErrors;
+        }
+
+        long requests() {
+            return requestDelta;
+        }
+
+        long errors() {
+            return errorDelta;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package burpeditor.export;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XhtmlSanitizerTest {
+    private static final SAXParserFactory XML = SAXParserFactory.newInstance();
+    private static final String[] SAMPLES = {
+        "<html><head><title>x</title><style>p{}</style></head><body><p>Hello <b>world</b><br>line<o:p></o:p></p></body></html>",
+        "a < b && c > d & e;",
+        "<p title=don't class=x>unquoted</p>",
+        "<p a=\"1\" a=\"2\" B=3 checked>duplicate attributes</p>",
+        "<b><i>bad nesting</b></i></p></div>",
+        "<!-- comment with <b> inside --> after",
+        "<!DOCTYPE html><?xml version='1.0'?><p>declarations</p>",
+        "<img src=\"a.png?x=1&y=2\"><hr><input value='<>'>",
+        "<p>unterminated",
+        "<p>tag cut <b",
+        "<style>body { content: '</p>' }</style>kept",
+        "<head><head></head>still head</head>visible",
+        "control\u0001chars\u0008 dropped\ttab kept",
+        "&#169; &#x41; &amp; &lt; &nbsp; &mdash; &bogus;",
+        "<table border=1><tr><td>1<td>2</tr></table>",
+        "<</>< >x<1>",
+        "<script>if (a < b) alert('</div>')</script>after script",
+    };
+
+    @Test
+    public void closesUnclosedTags() {
+        assertEquals("<html><body><p>unterminated</p></body></html>", XhtmlSanitizer.sanitize("<p>unterminated"));
+        assertEquals("<html><body><b><i>bad nesting</i></b></body></html>",
+            XhtmlSanitizer.sanitize("<b><i>bad nesting</b></i></p></div>"));
+        assertEquals("<html><body><p>tag cut </p></body></html>", XhtmlSanitizer.sanitize("<p>tag cut <b"));
+    }
+
+    @Test
+    public void escapesStrayMarkup() {
+        assertEquals("<html><body>a &lt; b &amp;&amp; c > d &amp; e;</body></html>",
+            XhtmlSanitizer.sanitize("a < b && c > d & e;"));
+        assertEquals("<html><body>&lt;&lt; >x&lt;1></body></html>", XhtmlSanitizer.sanitize("<</>< >x<1>"));
+        assertEquals("<html><body><img src=\"a.png?x=1&amp;y=2\" /></body></html>",
+            XhtmlSanitizer.sanitize("<img src=\"a.png?x=1&y=2\">"));
+    }
+
+    @Test
+    public void dropsHeadStyleAndScriptBodies() {
+        assertEquals("<html><body>kept</body></html>",
+            XhtmlSanitizer.sanitize("<style>body { content: '</p>' }</style>kept"));
+        assertEquals("<html><body>visible</body></html>",
+            XhtmlSanitizer.sanitize("<head><head></head>still head</head>visible"));
+        assertEquals("<html><body>after script</body></html>",
+            XhtmlSanitizer.sanitize("<script>if (a < b) alert('</div>')</script>after script"));
+    }
+
+    @Test
+    public void quotesAttributesAndClosesVoidElements() {
+        assertEquals("<html><body><p title=\"don't\" class=\"x\">unquoted</p></body></html>",
+            XhtmlSanitizer.sanitize("<p title=don't class=x>unquoted</p>"));
+        assertEquals("<html><body><br /><hr /></body></html>", XhtmlSanitizer.sanitize("<br><hr>"));
+    }
+
+    @Test
+    public void outputIsWellFormed() throws Exception {
+        for (String sample : SAMPLES) {
+            assertWellFormed(XhtmlSanitizer.sanitize(sample));
+        }
+        Random random = new Random(1);
+        String alphabet = "<>/&;#=\"' abpib-!?x:\n";
+        for (int i = 0; i < 10000; i++) {
+            String input = randomText(random, alphabet, random.nextInt(60));
+            assertWellFormed(XhtmlSanitizer.sanitize(input));
+        }
+    }
+
+    @Test
+    public void outputDoesNotDependOnChunking() throws IOException {
+        for (String sample : SAMPLES) {
+            String whole = XhtmlSanitizer.sanitize(sample);
+            for (int size = 1; size <= 8; size++) {
+                assertEquals(sample, whole, writeInChunks(sample, size));
+            }
+        }
+        Random random = new Random(2);
+        String alphabet = "<>/&;#=\"' abpib-!?x:\n";
+        for (int i = 0; i < 10000; i++) {
+            String input = randomText(random, alphabet, random.nextInt(60));
+            assertEquals(input, XhtmlSanitizer.sanitize(input), writeInChunks(input, 1 + random.nextInt(5)));
+        }
+    }
+
+    @Test
+    public void handlesMultiMegabyteNotes() throws Exception {
+        StringBuilder html = new StringBuilder("<html><head><style>p { margin-top: 0 }</style></head><body>");
+        for (int i = 0; html.length() < 4 * 1024 * 1024; i++) {
+            html.append("<p style=\"color: #ff0000\">Request ").append(i)
+                .append(" <b>/api?id=").append(i).append("&amp;role=admin</b>&nbsp;&mdash;<br><!-- note --></p>\n");
+        }
+        html.append("</body></html>");
+        String input = html.toString();
+
+        String whole = XhtmlSanitizer.sanitize(input);
+        assertWellFormed(whole);
+        assertFalse(whole.contains("<!--"));
+        assertFalse(whole.contains("margin-top"));
+        assertEquals(whole, writeInChunks(input, 8192 + 7));
+    }
+
+    private static String writeInChunks(String input, int size) throws IOException {
+        StringWriter result = new StringWriter();
+        try (XhtmlSanitizer sanitizer = new XhtmlSanitizer(result)) {
+            for (int i = 0; i < input.length(); i += size) {
+                sanitizer.write(input, i, Math.min(size, input.length() - i));
+            }
+        }
+        return result.toString();
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private static void assertWellFormed(String xhtml) throws Exception {
+        assertTrue(xhtml, xhtml.startsWith("<html><body>"));
+        XML.newSAXParser().parse(new InputSource(new StringReader(xhtml)), new DefaultHandler());
+    }
+}